@@ -0,0 +1,411 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A micro-benchmark harness for the query paths behind the menu functions.
+ *
+ * Each operation calls the query logic of Hotel directly (no stdin), against
+ * a database seeded with loadData.sh from data/ or from a generated data set.
+ * Every (operation, thread count) pair runs warmup iterations that are
+ * thrown away and then measurement iterations of a fixed duration. In
+ * throughput mode the score is operations per second, averaged over the
+ * iterations; in sample mode every call is timed and the latency percentiles
+ * are reported.
+ *
+ * This follows the JMH iteration scheme but is not JMH: JMH needs its
+ * annotation processor and runner from a Maven or Gradle build, and this
+ * tree is compiled with plain javac. The harness therefore does not
+ *  - fork a fresh JVM per run, so the JIT profile of one operation carries
+ *    over to the next,
+ *  - consume results in a blackhole, so dead-code elimination is only
+ *    avoided because every operation does a database round trip,
+ *  - control JIT warmup beyond the fixed warmup iterations, nor check that
+ *    compilation has settled before measuring, and
+ *  - produce scores that are comparable with JMH results; compare runs of
+ *    this harness with each other only, on the same machine and database.
+ * The round trip dominates every operation, which keeps these effects small
+ * next to the database time.
+ *
+ * Note that bookRooms inserts bookings on random dates of the year 2099, so
+ * the benchmark should run against a scratch database.
+ */
+public class HotelBenchmark {
+    /**
+     * One benchmarked operation. run() is called concurrently by all threads.
+     */
+    abstract static class Operation {
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        abstract void run(Random rnd) throws Exception;
+    }//end Operation
+
+    private final Hotel esql;
+    private final Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+
+    // the data set the operations draw their parameters from
+    private final List<double[]> hotels = new ArrayList<double[]>();
+    private final List<int[]> rooms = new ArrayList<int[]>();
+    private final List<int[]> managedHotels = new ArrayList<int[]>();
+    private final List<Integer> customers = new ArrayList<Integer>();
+    private java.sql.Date firstDay;
+    private int dayRange;
+
+    HotelBenchmark(Hotel esql) throws SQLException {
+        this.esql = esql;
+        loadParameters();
+        defineOperations();
+    }
+
+    private void loadParameters() throws SQLException {
+        esql.executeQueryAndStream("SELECT hotelID, latitude, longitude, managerUserID FROM Hotel", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                hotels.add(new double[]{row.getInt(1), row.getDouble(2), row.getDouble(3)});
+                managedHotels.add(new int[]{row.getInt(1), row.getInt(4)});
+                return true;
+            }
+        });
+        esql.executeQueryAndStream("SELECT hotelID, roomNumber FROM Rooms", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                rooms.add(new int[]{row.getInt(1), row.getInt(2)});
+                return true;
+            }
+        });
+        esql.executeQueryAndStream("SELECT userID FROM Users WHERE userType LIKE 'customer%'", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                customers.add(row.getInt(1));
+                return true;
+            }
+        });
+        esql.executeQueryAndStream("SELECT MIN(bookingDate), MAX(bookingDate) FROM RoomBookings", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                firstDay = row.getDate(1);
+                java.sql.Date last = row.getDate(2);
+                if (firstDay != null)
+                    dayRange = Math.max(1, AvailabilityCache.epochDay(last) - AvailabilityCache.epochDay(firstDay) + 1);
+                return false;
+            }
+        });
+        if (hotels.isEmpty() || rooms.isEmpty() || customers.isEmpty() || firstDay == null)
+            throw new SQLException("the database needs hotels, rooms, customers and bookings, run loadData.sh first");
+    }//end loadParameters
+
+    private java.sql.Date randomBookedRangeDay(Random rnd) {
+        return new java.sql.Date(firstDay.getTime() + rnd.nextInt(dayRange) * 86400000L);
+    }
+
+    private void defineOperations() {
+        add(new Operation("viewHotels") {
+            void run(Random rnd) throws Exception {
+                double[] h = hotels.get(rnd.nextInt(hotels.size()));
+                esql.findHotelsWithin(h[1] + rnd.nextGaussian() * 10, h[2] + rnd.nextGaussian() * 10, 30);
+            }
+        });
+        add(new Operation("viewHotelsNearest") {
+            void run(Random rnd) throws Exception {
+                double[] h = hotels.get(rnd.nextInt(hotels.size()));
+                esql.findNearestHotels(h[1] + rnd.nextGaussian() * 10, h[2] + rnd.nextGaussian() * 10, 5);
+            }
+        });
+        add(new Operation("viewRooms") {
+            void run(Random rnd) throws Exception {
+                double[] h = hotels.get(rnd.nextInt(hotels.size()));
+                esql.findRooms((int) h[0], randomBookedRangeDay(rnd));
+            }
+        });
+        add(new Operation("searchRooms") {
+            void run(Random rnd) throws Exception {
+                double[] h = hotels.get(rnd.nextInt(hotels.size()));
+                esql.searchRoomsWithin(h[1] + rnd.nextGaussian() * 10, h[2] + rnd.nextGaussian() * 10, 30,
+                        randomBookedRangeDay(rnd), Integer.MAX_VALUE, 20);
+            }
+        });
+        add(new Operation("bookRooms") {
+            void run(Random rnd) throws Exception {
+                int[] room = rooms.get(rnd.nextInt(rooms.size()));
+                java.sql.Date date = new java.sql.Date(java.sql.Date.valueOf("2099-01-01").getTime()
+                        + rnd.nextInt(365) * 86400000L);
+                esql.bookRoom(customers.get(rnd.nextInt(customers.size())), room[0], room[1], date);
+            }
+        });
+        add(new Operation("viewBookingHistoryofHotel") {
+            void run(Random rnd) throws Exception {
+                // a year, browsed a few pages deep
+                java.sql.Date begin = randomBookedRangeDay(rnd);
+                java.sql.Date end = new java.sql.Date(begin.getTime() + 365 * 86400000L);
+                String after = null;
+                for (int i = 0; i < 5; i++) {
+                    after = esql.findBookingHistoryPage(begin, end, after, 20).next;
+                    if (after == null)
+                        break;
+                }
+            }
+        });
+        add(new Operation("viewRegularCustomers") {
+            void run(Random rnd) throws Exception {
+                double[] h = hotels.get(rnd.nextInt(hotels.size()));
+                esql.findRegularCustomers((int) h[0]);
+            }
+        });
+        add(new Operation("executeQuery") {
+            void run(Random rnd) throws Exception {
+                int[] m = managedHotels.get(rnd.nextInt(managedHotels.size()));
+                esql.executeQuery(Hotel.SQL_MANAGES_HOTEL, m[0], m[1]);
+            }
+        });
+        add(new Operation("executeQueryAndReturnResult") {
+            void run(Random rnd) throws Exception {
+                esql.executeQueryAndReturnResult(Hotel.SQL_RECENT_BOOKINGS,
+                        customers.get(rnd.nextInt(customers.size())));
+            }
+        });
+        add(new Operation("executeQueryAndStream") {
+            void run(Random rnd) throws Exception {
+                java.sql.Date begin = randomBookedRangeDay(rnd);
+                java.sql.Date end = new java.sql.Date(begin.getTime() + 30 * 86400000L);
+                // the whole month as one unbounded page
+                esql.executeQueryAndStream(Hotel.SQL_BOOKING_HISTORY_PAGE, new RowHandler() {
+                    public boolean handle(ResultRow row) throws SQLException {
+                        row.getInt(1);
+                        return true;
+                    }
+                }, begin, end, begin, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+        });
+    }//end defineOperations
+
+    private void add(Operation op) {
+        this.operations.put(op.name, op);
+    }
+
+    /**
+     * The outcome of one iteration: how many calls completed and, in sample
+     * mode, the latency of each call in nanoseconds.
+     */
+    static class Iteration {
+        long ops;
+        long errors;
+        long millis;
+        long[] samples = new long[0];
+    }
+
+    // runs op on the given number of threads for the given time
+    private Iteration iterate(final Operation op, int threads, final long millis, final boolean sample)
+            throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch go = new CountDownLatch(1);
+        final long[] ops = new long[threads];
+        final long[] errors = new long[threads];
+        final long[][] samples = new long[threads][];
+        final int[] sampleCounts = new int[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    Random rnd = new Random(31L * id + System.nanoTime());
+                    long[] lat = new long[sample ? 1024 : 0];
+                    int n = 0;
+                    ready.countDown();
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (running.get()) {
+                        long start = System.nanoTime();
+                        try {
+                            op.run(rnd);
+                            ops[id]++;
+                        } catch (Exception e) {
+                            errors[id]++;
+                        }
+                        if (sample) {
+                            if (n == lat.length)
+                                lat = Arrays.copyOf(lat, n * 2);
+                            lat[n++] = System.nanoTime() - start;
+                        }
+                    }
+                    samples[id] = lat;
+                    sampleCounts[id] = n;
+                }
+            }, "bench-" + op.name + "-" + t);
+            workers[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread w : workers)
+            w.join();
+
+        Iteration it = new Iteration();
+        it.millis = (System.nanoTime() - start) / 1000000L;
+        int total = 0;
+        for (int t = 0; t < threads; t++) {
+            it.ops += ops[t];
+            it.errors += errors[t];
+            total += sampleCounts[t];
+        }
+        if (sample) {
+            it.samples = new long[total];
+            int pos = 0;
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(samples[t], 0, it.samples, pos, sampleCounts[t]);
+                pos += sampleCounts[t];
+            }
+        }
+        return it;
+    }//end iterate
+
+    /**
+     * Runs the selected operations in the selected modes and thread counts
+     * and prints one result line per combination.
+     */
+    void run(List<String> opNames, List<String> modes, int[] threadCounts,
+             int warmups, int iterations, long millis) throws InterruptedException {
+        System.out.println(String.format("%-30s %-7s %7s %5s %14s %12s  %s",
+                "Benchmark", "Mode", "Threads", "Cnt", "Score", "Error", "Units"));
+        for (String name : opNames) {
+            Operation op = this.operations.get(name);
+            if (op == null) {
+                System.err.println("Unknown operation " + name + ", expected one of " + this.operations.keySet());
+                continue;
+            }
+            for (int threads : threadCounts) {
+                for (String mode : modes) {
+                    boolean sample = mode.equals("sample");
+                    for (int i = 0; i < warmups; i++)
+                        iterate(op, threads, millis, sample);
+
+                    double[] scores = new double[iterations];
+                    long errors = 0;
+                    List<long[]> allSamples = new ArrayList<long[]>();
+                    for (int i = 0; i < iterations; i++) {
+                        Iteration it = iterate(op, threads, millis, sample);
+                        scores[i] = it.ops * 1000.0 / Math.max(1L, it.millis);
+                        errors += it.errors;
+                        if (sample)
+                            allSamples.add(it.samples);
+                    }
+                    if (sample)
+                        printLatency(name, threads, allSamples, errors);
+                    else
+                        printThroughput(name, threads, scores, errors);
+                }
+            }
+        }
+    }//end run
+
+    private static void printThroughput(String name, int threads, double[] scores, long errors) {
+        double mean = 0;
+        for (double s : scores)
+            mean += s;
+        mean /= scores.length;
+        double var = 0;
+        for (double s : scores)
+            var += (s - mean) * (s - mean);
+        double stddev = scores.length > 1 ? Math.sqrt(var / (scores.length - 1)) : 0;
+        System.out.println(String.format("%-30s %-7s %7d %5d %14.1f +- %9.1f  ops/s%s",
+                name, "thrpt", threads, scores.length, mean, stddev,
+                errors > 0 ? "  (" + errors + " errors)" : ""));
+    }
+
+    private static void printLatency(String name, int threads, List<long[]> iterations, long errors) {
+        int total = 0;
+        for (long[] s : iterations)
+            total += s.length;
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] s : iterations) {
+            System.arraycopy(s, 0, all, pos, s.length);
+            pos += s.length;
+        }
+        Arrays.sort(all);
+        String[] labels = {"p0.50", "p0.99", "p0.999", "max"};
+        double[] quantiles = {0.5, 0.99, 0.999, 1.0};
+        for (int i = 0; i < labels.length; i++) {
+            double us = all.length == 0 ? 0 :
+                    all[Math.min(all.length - 1, (int) Math.ceil(quantiles[i] * all.length) - 1)] / 1000.0;
+            System.out.println(String.format("%-30s %-7s %7d %5d %14.1f %12s  us/op%s",
+                    name + ":" + labels[i], "sample", threads, all.length, us, "",
+                    i == 0 && errors > 0 ? "  (" + errors + " errors)" : ""));
+        }
+    }
+
+    private static int[] parseInts(String csv) {
+        String[] parts = csv.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            result[i] = Integer.parseInt(parts[i].trim());
+        return result;
+    }
+
+    /**
+     * Runs the benchmarks. Options are read from system properties:
+     * bench.ops (comma separated, default all), bench.modes (thrpt,sample),
+     * bench.threads (1,4,16), bench.warmups (2), bench.iterations (5) and
+     * bench.iterationMillis (5000).
+     *
+     * @param args <dbname> <port> <user>
+     */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] [-Dbench.ops=...] " +
+                            HotelBenchmark.class.getName() +
+                            " <dbname> <port> <user>");
+            return;
+        }
+        Hotel esql = null;
+        try {
+            int[] threadCounts = parseInts(System.getProperty("bench.threads", "1,4,16"));
+            int maxThreads = 1;
+            for (int t : threadCounts)
+                maxThreads = Math.max(maxThreads, t);
+            // one connection per benchmark thread
+            if (System.getProperty("hotel.pool.maxSize") == null)
+                System.setProperty("hotel.pool.maxSize", Integer.toString(maxThreads));
+
+            // use postgres JDBC driver.
+            Class.forName("org.postgresql.Driver").newInstance();
+            esql = new Hotel(args[0], args[1], args[2], "");
+            esql.warmUp();
+            HotelBenchmark bench = new HotelBenchmark(esql);
+
+            String ops = System.getProperty("bench.ops");
+            List<String> opNames = ops == null
+                    ? new ArrayList<String>(bench.operations.keySet())
+                    : Arrays.asList(ops.split(","));
+            bench.run(opNames,
+                    Arrays.asList(System.getProperty("bench.modes", "thrpt,sample").split(",")),
+                    threadCounts,
+                    Integer.getInteger("bench.warmups", 2),
+                    Integer.getInteger("bench.iterations", 5),
+                    Long.getLong("bench.iterationMillis", 5000L));
+            System.out.println("Connection pool: " + esql.getPoolStats());
+            System.out.println("Catalog cache: " + esql.getCatalog());
+            if (esql.getUpdateLog() != null)
+                System.out.println("Update log queue: " + esql.getUpdateLog());
+            System.out.println("Replicas: " + esql.getReplicaRouter());
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }//end main
+}//end HotelBenchmark
@@ -0,0 +1,342 @@
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A query-plan regression checker for the SQL templates behind the menu
+ * functions.
+ *
+ * Every static final SQL_* template of the classes under hotel.plans.src
+ * (the src directory, which checkPlans.sh passes) is run through EXPLAIN
+ * (which does not execute the writes) with parameters sampled from the
+ * database, which should hold a scaled data set from generateData.sh. A
+ * plan is flagged when it
+ *  - sequentially scans a table of at least hotel.plans.largeRows rows,
+ *  - sorts at least that many rows, or
+ *  - runs a nested loop that rescans a large table for every outer row or
+ *    produces at least that many rows.
+ * Templates that read a whole table on purpose, to load an in-memory cache,
+ * are only checked for nested loops. The stream cursor fragments and the
+ * BulkBookingLoader templates, which work on a temp table that only exists
+ * inside a load, are listed as exempt and not explained. A template without
+ * sample parameters is reported as unchecked, and one that Hotel does not
+ * register with Metrics as unnamed, so a template added to a class in src
+ * has to be added to both lists.
+ *
+ * Exits with status 1 if any template is flagged, unchecked or unnamed.
+ */
+public class PlanChecker {
+    // templates that load a cache from a whole table, by design
+    private static final String[] BULK_READS = {
+            "AvailabilityCache.SQL_BOOKED_DAYS",
+            "HotelSpatialIndex.SQL_HOTEL_LOCATIONS",
+            "RecentUpdatesBuffer.SQL_LATEST_UPDATES_OF_MANAGERS"};
+
+    // templates that cannot be explained on their own, with the reason
+    private static final String[][] EXEMPT = {
+            {"Hotel.SQL_DECLARE_STREAM", "a cursor around another template"},
+            {"Hotel.SQL_FETCH_STREAM", "a cursor around another template"},
+            {"BulkBookingLoader.SQL_CREATE_STAGING", "creates the BookingStaging temp table"},
+            {"BulkBookingLoader.SQL_STAGE_BOOKING", "uses the BookingStaging temp table"},
+            {"BulkBookingLoader.SQL_VALIDATE_STAGING", "uses the BookingStaging temp table"},
+            {"BulkBookingLoader.SQL_INSERT_STAGED", "uses the BookingStaging temp table"},
+            {"BulkBookingLoader.SQL_STAGED_REJECTS", "uses the BookingStaging temp table"}};
+
+    private static final Pattern ROWS = Pattern.compile("rows=(\\d+)");
+    private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+
+    private final Hotel esql;
+    private final long largeRows;
+    // the classes that hold SQL templates
+    private final List<Class<?>> templateClasses;
+    // estimated rows of every table, from pg_class
+    private final Map<String, Long> tableRows = new HashMap<String, Long>();
+    // sample parameters by template name
+    private final Map<String, Object[]> samples = new LinkedHashMap<String, Object[]>();
+
+    PlanChecker(Hotel esql, long largeRows, File src) throws SQLException {
+        this.esql = esql;
+        this.largeRows = largeRows;
+        this.templateClasses = templateClasses(src);
+        loadTableRows();
+        loadSamples();
+    }
+
+    private void loadTableRows() throws SQLException {
+        esql.executeQueryAndStream("SELECT relname, reltuples FROM pg_class WHERE relkind IN ('r', 'p')", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                tableRows.put(row.getString(1), (long) row.getDouble(2));
+                return true;
+            }
+        });
+    }
+
+    private void loadSamples() throws SQLException {
+        final Object[] booking = new Object[5];
+        esql.executeQueryAndStream(
+                "SELECT B.customerID, B.hotelID, B.roomNumber, B.bookingDate, H.managerUserID " +
+                        "FROM RoomBookings B JOIN Hotel H ON H.hotelID = B.hotelID LIMIT 1", new RowHandler() {
+                    public boolean handle(ResultRow row) throws SQLException {
+                        booking[0] = row.getInt(1);
+                        booking[1] = row.getInt(2);
+                        booking[2] = row.getInt(3);
+                        booking[3] = row.getDate(4);
+                        booking[4] = row.getInt(5);
+                        return false;
+                    }
+                });
+        if (booking[0] == null)
+            throw new SQLException("no bookings to sample parameters from, load a data set first");
+        Integer customer = (Integer) booking[0];
+        Integer hotel = (Integer) booking[1];
+        Integer room = (Integer) booking[2];
+        java.sql.Date day = (java.sql.Date) booking[3];
+        Integer manager = (Integer) booking[4];
+        // a year of bookings, as a manager would browse the history
+        java.sql.Date yearLater = new java.sql.Date(day.getTime() + 365 * 86400000L);
+
+        sample("Hotel.SQL_INSERT_USER", -1, "plan", "checker", "customer");
+        sample("Hotel.SQL_ROOMS_ON_DATE", day, hotel);
+        sample("CatalogCache.SQL_CATALOG_HOTELS", hotel + "," + hotel);
+        sample("Hotel.SQL_SEARCH_ROOMS", hotel + "," + hotel, Integer.MAX_VALUE, day, 20);
+        sample("Hotel.SQL_ROOM_BOOKED", hotel, room, day);
+        sample("Hotel.SQL_BOOK_ROOM", -1, customer, hotel, room, day, 100);
+        sample("Hotel.SQL_MANAGES_HOTEL", hotel, manager);
+        sample("Hotel.SQL_ROOM_INFO", hotel, room);
+        sample("Hotel.SQL_UPDATE_ROOM", 100, "plan.png", hotel, room);
+        sample("Hotel.SQL_UPDATE_ROOM_AND_LOG", 100, "plan.png", hotel, room, -1, manager);
+        sample("Hotel.SQL_RECENT_UPDATES", manager, 5);
+        sample("Hotel.SQL_RECENT_BOOKINGS", customer);
+        // the first page of a range, which a deep page costs the same as
+        sample("Hotel.SQL_BOOKING_HISTORY_PAGE", day, yearLater, day, Integer.MIN_VALUE, 21);
+        sample("Hotel.SQL_REGULAR_CUSTOMERS", hotel);
+        sample("Hotel.SQL_DAILY_BOOKINGS", hotel, day, yearLater);
+        sample("Hotel.SQL_PLACE_REPAIR_REQUEST", -1, 1, hotel, room, day, -1, manager, -1);
+        sample("Hotel.SQL_REPAIR_HISTORY", manager);
+        sample("Hotel.SQL_ENSURE_BOOKING_PARTITIONS", 2);
+        sample("HotelSpatialIndex.SQL_HOTEL_LOCATIONS");
+        sample("AvailabilityCache.SQL_BOOKED_DAYS");
+        sample("RecentUpdatesBuffer.SQL_LATEST_UPDATES_OF_MANAGERS", 100000, 5);
+        sample("SessionCache.SQL_LOG_IN", manager, "password");
+        sample("IdAllocator.SQL_NEXT_ID_BLOCK", "roombookings", "bookingid");
+        sample("RollupBackfill.SQL_BOOKING_DATE_RANGE");
+        sample("RollupBackfill.SQL_BACKFILL_DAYS", day, yearLater);
+        sample("RoomUpdateLogWriter.SQL_INSERT_ROOM_UPDATE_LOG_BATCH", "-1,-2", manager + "," + manager,
+                hotel + "," + hotel, room + "," + room, "2015-01-01 00:00:00,2015-01-02 00:00:00");
+    }//end loadSamples
+
+    private void sample(String template, Object... params) {
+        this.samples.put(template, params);
+    }
+
+    /**
+     * Explains every template and prints one line per template, followed by
+     * the plan of the flagged ones (or of all of them if verbose).
+     *
+     * @return the number of templates flagged, unchecked or unnamed
+     */
+    int check(boolean verbose) throws SQLException {
+        int failed = 0;
+        for (Map.Entry<String, String> template : templates(this.templateClasses).entrySet()) {
+            String name = template.getKey();
+            if (!Metrics.sql(template.getValue()).getName().equals(name)) {
+                System.out.println("UNNAMED   " + name + ": not registered with Metrics.nameStatements in Hotel");
+                failed++;
+            }
+            String exempt = exemption(name);
+            if (exempt != null) {
+                System.out.println("EXEMPT    " + name + ": " + exempt);
+                continue;
+            }
+            Object[] params = this.samples.get(name);
+            if (params == null) {
+                System.out.println("UNCHECKED " + name + ": no sample parameters");
+                failed++;
+                continue;
+            }
+            List<String> plan = new ArrayList<String>();
+            for (List<String> line : esql.executeQueryAndReturnResult("EXPLAIN " + template.getValue(), params))
+                plan.add(line.get(0));
+            List<String> problems = problems(plan, isBulkRead(name));
+            if (problems.isEmpty()) {
+                System.out.println("OK        " + name);
+            } else {
+                System.out.println("FLAGGED   " + name + ": " + problems);
+                failed++;
+            }
+            if (verbose || !problems.isEmpty()) {
+                for (String line : plan)
+                    System.out.println("          " + line);
+            }
+        }
+        return failed;
+    }//end check
+
+    /**
+     * Finds the problems of a text-format plan. A node line holds the
+     * estimates in "(cost=... rows=N ...)"; its children are the node lines
+     * indented below it, the inner side of a join being the last one.
+     */
+    List<String> problems(List<String> plan, boolean bulkRead) {
+        List<String> problems = new ArrayList<String>();
+        List<int[]> nodes = new ArrayList<int[]>(); // line index and depth of each node
+        for (int i = 0; i < plan.size(); i++) {
+            String line = plan.get(i);
+            if (line.contains("(cost="))
+                nodes.add(new int[]{i, depth(line)});
+        }
+        for (int n = 0; n < nodes.size(); n++) {
+            String line = plan.get(nodes.get(n)[0]);
+            long rows = rows(line);
+            Matcher scan = SEQ_SCAN.matcher(line);
+            if (scan.find() && !bulkRead && isLarge(scan.group(1)))
+                problems.add("sequential scan of " + scan.group(1));
+            if (line.contains("Sort  (") && !bulkRead && rows >= this.largeRows)
+                problems.add("sort of " + rows + " rows");
+            if (line.contains("Nested Loop")) {
+                String inner = innerChild(plan, nodes, n);
+                Matcher innerScan = inner == null ? null : SEQ_SCAN.matcher(inner);
+                if (innerScan != null && innerScan.find() && isLarge(innerScan.group(1)))
+                    problems.add("nested loop rescanning " + innerScan.group(1));
+                else if (inner != null && inner.contains("Materialize") && rows(inner) >= this.largeRows)
+                    problems.add("nested loop rescanning " + rows(inner) + " materialized rows");
+                if (!bulkRead && rows >= this.largeRows)
+                    problems.add("nested loop producing " + rows + " rows");
+            }
+        }
+        return problems;
+    }//end problems
+
+    // the last direct child of node n, or null if it has fewer than two
+    private static String innerChild(List<String> plan, List<int[]> nodes, int n) {
+        int depth = nodes.get(n)[1];
+        int children = 0;
+        String last = null;
+        for (int c = n + 1; c < nodes.size() && nodes.get(c)[1] > depth; c++) {
+            if (last == null || nodes.get(c)[1] <= depth(last)) {
+                last = plan.get(nodes.get(c)[0]);
+                children++;
+            }
+        }
+        return children >= 2 ? last : null;
+    }
+
+    private static int depth(String line) {
+        int i = 0;
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '-' || line.charAt(i) == '>'))
+            i++;
+        return i;
+    }
+
+    private static long rows(String line) {
+        Matcher m = ROWS.matcher(line);
+        return m.find() ? Long.parseLong(m.group(1)) : 0;
+    }
+
+    private boolean isLarge(String table) {
+        Long rows = this.tableRows.get(table.toLowerCase());
+        return rows != null && rows >= this.largeRows;
+    }
+
+    // why a template is not explained, or null if it is
+    private static String exemption(String template) {
+        for (String[] exempt : EXEMPT) {
+            if (exempt[0].equals(template))
+                return exempt[1];
+        }
+        return null;
+    }
+
+    private static boolean isBulkRead(String template) {
+        for (String bulk : BULK_READS) {
+            if (bulk.equals(template))
+                return true;
+        }
+        return false;
+    }
+
+    // the classes of the .java files in src that declare a SQL template
+    private static List<Class<?>> templateClasses(File src) throws SQLException {
+        File[] files = src.listFiles();
+        if (files == null)
+            throw new SQLException("no source directory " + src + ", set hotel.plans.src");
+        Arrays.sort(files);
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".java"))
+                continue;
+            try {
+                Class<?> c = Class.forName(name.substring(0, name.length() - ".java".length()), false,
+                        PlanChecker.class.getClassLoader());
+                if (!templates(Arrays.<Class<?>>asList(c)).isEmpty())
+                    classes.add(c);
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("no class compiled from " + file + ", compile src first");
+            }
+        }
+        return classes;
+    }//end templateClasses
+
+    // every SQL template, named Class.FIELD as in Metrics
+    private static Map<String, String> templates(List<Class<?>> classes) {
+        Map<String, String> templates = new LinkedHashMap<String, String>();
+        for (Class<?> c : classes) {
+            for (Field f : c.getDeclaredFields()) {
+                int modifiers = f.getModifiers();
+                if (!f.getName().startsWith("SQL_") || f.getType() != String.class
+                        || !Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers))
+                    continue;
+                try {
+                    f.setAccessible(true);
+                    templates.put(c.getName() + "." + f.getName(), (String) f.get(null));
+                } catch (IllegalAccessException e) {
+                    // cannot happen once accessible; skip the field
+                }
+            }
+        }
+        return templates;
+    }//end templates
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] [-Dhotel.plans.src=src] [-Dhotel.plans.largeRows=10000] " +
+                            "[-Dhotel.plans.verbose=true] " +
+                            PlanChecker.class.getName() +
+                            " <dbname> <port> <user>");
+            return;
+        }
+        Hotel esql = null;
+        int failed = -1;
+        try {
+            // use postgres JDBC driver.
+            Class.forName("org.postgresql.Driver").newInstance();
+            esql = new Hotel(args[0], args[1], args[2], "");
+            // the planner needs current statistics to pick the plans production would
+            if (!"false".equals(System.getProperty("hotel.plans.analyze")))
+                esql.executeUpdate("ANALYZE");
+            PlanChecker checker = new PlanChecker(esql, Long.getLong("hotel.plans.largeRows", 10000L),
+                    new File(System.getProperty("hotel.plans.src", "src")));
+            failed = checker.check(Boolean.getBoolean("hotel.plans.verbose"));
+            System.out.println(failed == 0 ? "All plans are index-driven." : failed + " template(s) need attention.");
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+        if (failed != 0)
+            System.exit(1);
+    }//end main
+}//end PlanChecker
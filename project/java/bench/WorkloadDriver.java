@@ -0,0 +1,363 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A closed-loop load generator: a fixed number of simulated users, each
+ * running one operation after the other with a think time in between, all
+ * against the same local database.
+ *
+ * Unlike HotelBenchmark, which measures one operation at a time, the driver
+ * replays a mix of room searches, bookings, room updates and manager
+ * reports, with hotels and dates drawn from zipfian distributions so that
+ * most of the traffic hits a few hot hotels on a few hot dates, the way
+ * customers pile onto the same offer. A booking that finds its room taken
+ * is a conflict, and the user retries with another room of the same hotel
+ * and date a few times before giving up.
+ *
+ * Every booking the driver makes is remembered, so that two successful
+ * bookings of the same room and date are reported as double bookings; at
+ * the end RoomBookings itself is checked for them over the booked dates.
+ * Bookings go to dates starting at workload.firstDay, in the year 2099 by
+ * default, so the driver should run against a scratch database.
+ */
+public class WorkloadDriver {
+    // rooms booked more than once on a date of the run
+    static final String SQL_DOUBLE_BOOKINGS =
+            "SELECT hotelID, roomNumber, bookingDate, COUNT(*) FROM RoomBookings " +
+                    "WHERE bookingDate BETWEEN ? AND ? " +
+                    "GROUP BY hotelID, roomNumber, bookingDate HAVING COUNT(*) > 1";
+
+    private static final String[] OPERATIONS = {"search", "book", "update", "report"};
+
+    private final Hotel esql;
+    private final Random setup = new Random(Long.getLong("workload.seed", 42L));
+
+    // the hotels that have rooms, in zipf rank order: hotelID, latitude, longitude, managerUserID
+    private final List<double[]> hotels = new ArrayList<double[]>();
+    private final Map<Integer, List<Integer>> rooms = new HashMap<Integer, List<Integer>>();
+    private final List<Integer> customers = new ArrayList<Integer>();
+
+    private final java.sql.Date firstDay;
+    private final int days;
+    private final Zipf hotelRanks;
+    private final Zipf dayRanks;
+    // the cumulative weights of OPERATIONS
+    private final int[] mix;
+    private final long thinkMillis;
+    private final int retries;
+
+    private final Map<String, LatencyStats> stats = new LinkedHashMap<String, LatencyStats>();
+    private final AtomicLong booked = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong gaveUp = new AtomicLong();
+    private final AtomicLong doubleBookings = new AtomicLong();
+    // the bookingID of every room and date booked by the run, keyed hotelID:roomNumber:day
+    private final ConcurrentMap<String, Integer> bookings = new ConcurrentHashMap<String, Integer>();
+    private volatile boolean running = true;
+
+    WorkloadDriver(Hotel esql) throws SQLException {
+        this.esql = esql;
+        this.firstDay = java.sql.Date.valueOf(System.getProperty("workload.firstDay", "2099-01-01"));
+        this.days = Math.max(1, Integer.getInteger("workload.days", 30));
+        this.mix = parseMix(System.getProperty("workload.mix", "search:60,book:25,update:5,report:10"));
+        this.thinkMillis = Long.getLong("workload.thinkMillis", 100L);
+        this.retries = Integer.getInteger("workload.retries", 3);
+        loadParameters();
+        this.hotelRanks = new Zipf(this.hotels.size(),
+                Double.parseDouble(System.getProperty("workload.hotelSkew", "0.99")));
+        this.dayRanks = new Zipf(this.days, Double.parseDouble(System.getProperty("workload.dateSkew", "0.99")));
+        for (String op : OPERATIONS)
+            this.stats.put(op, new LatencyStats(op));
+    }
+
+    private void loadParameters() throws SQLException {
+        final List<double[]> all = new ArrayList<double[]>();
+        esql.executeQueryAndStream("SELECT hotelID, latitude, longitude, managerUserID FROM Hotel", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                all.add(new double[]{row.getInt(1), row.getDouble(2), row.getDouble(3), row.getInt(4)});
+                return true;
+            }
+        });
+        esql.executeQueryAndStream("SELECT hotelID, roomNumber FROM Rooms", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                List<Integer> numbers = rooms.get(row.getInt(1));
+                if (numbers == null) {
+                    numbers = new ArrayList<Integer>();
+                    rooms.put(row.getInt(1), numbers);
+                }
+                numbers.add(row.getInt(2));
+                return true;
+            }
+        });
+        esql.executeQueryAndStream("SELECT userID FROM Users WHERE userType LIKE 'customer%'", new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                customers.add(row.getInt(1));
+                return true;
+            }
+        });
+        for (double[] hotel : all) {
+            if (rooms.containsKey((int) hotel[0]))
+                hotels.add(hotel);
+        }
+        if (hotels.isEmpty() || customers.isEmpty())
+            throw new SQLException("the database needs hotels, rooms and customers, run loadData.sh first");
+        // which hotels are hot is random, but the same for every run with the same seed
+        Collections.shuffle(hotels, this.setup);
+    }//end loadParameters
+
+    /**
+     * Draws ranks 0..n-1 with probability proportional to 1/(rank+1)^s; s = 0
+     * is uniform, and the larger s the more the first ranks dominate.
+     */
+    static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double s) {
+            this.cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, s);
+                this.cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++)
+                this.cumulative[i] /= sum;
+        }
+
+        int next(Random rnd) {
+            double u = rnd.nextDouble();
+            int low = 0;
+            int high = this.cumulative.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.cumulative[mid] < u)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }//end Zipf
+
+    // "search:60,book:25,..." as cumulative weights in the order of OPERATIONS
+    private static int[] parseMix(String mix) {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        for (String part : mix.split(",")) {
+            String[] nameWeight = part.trim().split(":");
+            weights.put(nameWeight[0].trim(), Integer.parseInt(nameWeight[1].trim()));
+        }
+        int[] cumulative = new int[OPERATIONS.length];
+        int sum = 0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            Integer weight = weights.remove(OPERATIONS[i]);
+            sum += weight == null ? 0 : weight;
+            cumulative[i] = sum;
+        }
+        if (!weights.isEmpty() || sum <= 0)
+            throw new IllegalArgumentException("workload.mix takes positive weights of " + java.util.Arrays.toString(OPERATIONS));
+        return cumulative;
+    }
+
+    private double[] hotHotel(Random rnd) {
+        return this.hotels.get(this.hotelRanks.next(rnd));
+    }
+
+    private java.sql.Date hotDay(Random rnd) {
+        return new java.sql.Date(this.firstDay.getTime() + this.dayRanks.next(rnd) * 86400000L);
+    }
+
+    private int randomRoom(Random rnd, int hotelID) {
+        List<Integer> numbers = this.rooms.get(hotelID);
+        return numbers.get(rnd.nextInt(numbers.size()));
+    }
+
+    // one call of an operation, returning its row count
+    private int run(String op, Random rnd) throws Exception {
+        double[] hotel = hotHotel(rnd);
+        int hotelID = (int) hotel[0];
+        if (op.equals("search")) {
+            return esql.searchRoomsWithin(hotel[1] + rnd.nextGaussian(), hotel[2] + rnd.nextGaussian(), 30,
+                    hotDay(rnd), Integer.MAX_VALUE, 20).size();
+        } else if (op.equals("book")) {
+            return book(rnd, hotelID, hotDay(rnd));
+        } else if (op.equals("update")) {
+            int roomNumber = randomRoom(rnd, hotelID);
+            CatalogCache.RoomRow room = esql.findRoom(hotelID, roomNumber);
+            if (room == null)
+                return 0;
+            return esql.updateRoom((int) hotel[3], hotelID, roomNumber,
+                    Math.max(1, room.price + rnd.nextInt(21) - 10), room.imageURL) ? 1 : 0;
+        } else {
+            java.sql.Date end = new java.sql.Date(this.firstDay.getTime() + (this.days - 1) * 86400000L);
+            return esql.findBookingHistoryPage(this.firstDay, end, null, 20).bookings.size()
+                    + esql.findRegularCustomers(hotelID).size();
+        }
+    }//end run
+
+    // books a room of the hotel on the day, trying other rooms when the first is taken
+    private int book(Random rnd, int hotelID, java.sql.Date day) throws SQLException {
+        int customerID = this.customers.get(rnd.nextInt(this.customers.size()));
+        for (int attempt = 0; attempt <= this.retries; attempt++) {
+            if (attempt > 0)
+                this.retried.incrementAndGet();
+            int roomNumber = randomRoom(rnd, hotelID);
+            BookingResult result = esql.bookRoom(customerID, hotelID, roomNumber, day);
+            if (result.isBooked()) {
+                this.booked.incrementAndGet();
+                Integer other = this.bookings.putIfAbsent(hotelID + ":" + roomNumber + ":" + day, result.bookingID);
+                if (other != null) {
+                    this.doubleBookings.incrementAndGet();
+                    System.err.println("Double booking of room " + roomNumber + " of hotel " + hotelID + " on " + day
+                            + ": bookings " + other + " and " + result.bookingID);
+                }
+                return 1;
+            }
+            this.conflicts.incrementAndGet();
+        }
+        this.gaveUp.incrementAndGet();
+        return 0;
+    }//end book
+
+    // the loop of one simulated user
+    private void user(long seed) {
+        Random rnd = new Random(seed);
+        int total = this.mix[this.mix.length - 1];
+        while (this.running) {
+            int pick = rnd.nextInt(total);
+            int i = 0;
+            while (this.mix[i] <= pick)
+                i++;
+            String op = OPERATIONS[i];
+            long start = System.nanoTime();
+            int rows = -1;
+            try {
+                rows = run(op, rnd);
+            } catch (Exception e) {
+                // counted as an error of the operation
+            }
+            this.stats.get(op).record(System.nanoTime() - start, rows);
+            if (this.thinkMillis > 0) {
+                try {
+                    // exponential think times, as from independent users
+                    Thread.sleep((long) (-this.thinkMillis * Math.log(1 - rnd.nextDouble())));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }//end user
+
+    /**
+     * Runs the users for the warmup, which is not measured, and then for the
+     * measured time, and prints the results.
+     */
+    void run(int users, boolean virtualThreads, long warmupMillis, long millis) throws Exception {
+        ExecutorService executor = virtualThreads
+                ? HotelServer.newRequestExecutor() : Executors.newFixedThreadPool(users);
+        for (int u = 0; u < users; u++) {
+            final long seed = this.setup.nextLong();
+            executor.execute(new Runnable() {
+                public void run() {
+                    user(seed);
+                }
+            });
+        }
+        Thread.sleep(warmupMillis);
+        for (LatencyStats s : this.stats.values())
+            s.reset();
+        this.booked.set(0);
+        this.conflicts.set(0);
+        this.retried.set(0);
+        this.gaveUp.set(0);
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        long elapsed = System.nanoTime() - start;
+        this.running = false;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        report(users, elapsed);
+    }//end run
+
+    private void report(int users, long elapsedNanos) throws SQLException {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format("%d users for %.1f s, %d hotels, %d days", users, seconds,
+                this.hotels.size(), this.days));
+        System.out.println(String.format("%-8s %9s %7s %10s %10s %10s %10s %10s %10s",
+                "op", "count", "errors", "ops/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long total = 0;
+        for (LatencyStats s : this.stats.values()) {
+            total += s.getCount();
+            System.out.println(String.format("%-8s %9d %7d %10.1f %10.3f %10.3f %10.3f %10.3f %10.3f",
+                    s.getName(), s.getCount(), s.getErrors(), s.getCount() / seconds, s.getMeanMillis(),
+                    s.getP50Millis(), s.getP99Millis(), s.getP999Millis(), s.getMaxMillis()));
+        }
+        System.out.println(String.format("total    %9d %7s %10.1f", total, "", total / seconds));
+        System.out.println(String.format("bookings: %d booked, %d conflicts, %d retries, %d gave up",
+                this.booked.get(), this.conflicts.get(), this.retried.get(), this.gaveUp.get()));
+
+        java.sql.Date lastDay = new java.sql.Date(this.firstDay.getTime() + (this.days - 1) * 86400000L);
+        List<List<String>> stored = esql.executeQueryAndReturnResult(SQL_DOUBLE_BOOKINGS, this.firstDay, lastDay);
+        for (List<String> row : stored)
+            System.err.println("Double booking in RoomBookings: " + row);
+        System.out.println(String.format("double bookings: %d seen by the driver, %d in RoomBookings",
+                this.doubleBookings.get(), stored.size()));
+    }//end report
+
+    /**
+     * Runs the workload. Options are read from system properties:
+     * workload.users (100), workload.virtualThreads (true),
+     * workload.warmupSeconds (10), workload.seconds (60), workload.mix
+     * (search:60,book:25,update:5,report:10), workload.thinkMillis (100),
+     * workload.hotelSkew and workload.dateSkew (0.99), workload.firstDay
+     * (2099-01-01), workload.days (30), workload.retries (3) and
+     * workload.seed (42).
+     *
+     * @param args <dbname> <port> <user>
+     */
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] [-Dworkload.users=...] " +
+                            WorkloadDriver.class.getName() +
+                            " <dbname> <port> <user>");
+            return;
+        }
+        Hotel esql = null;
+        try {
+            int users = Integer.getInteger("workload.users", 100);
+            // users wait for connections like the requests of the server do
+            if (System.getProperty("hotel.pool.maxSize") == null)
+                System.setProperty("hotel.pool.maxSize", Integer.toString(Math.min(users, 32)));
+
+            // use postgres JDBC driver.
+            Class.forName("org.postgresql.Driver").newInstance();
+            esql = new Hotel(args[0], args[1], args[2], "");
+            esql.warmUp();
+            new WorkloadDriver(esql).run(users,
+                    Boolean.parseBoolean(System.getProperty("workload.virtualThreads", "true")),
+                    Long.getLong("workload.warmupSeconds", 10L) * 1000L,
+                    Long.getLong("workload.seconds", 60L) * 1000L);
+            System.out.println("Connection pool: " + esql.getPoolStats());
+            System.out.println("Catalog cache: " + esql.getCatalog());
+            System.out.println("Replicas: " + esql.getReplicaRouter());
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }//end main
+}//end WorkloadDriver
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program together with the benchmarks
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java $DIR/../bench/*.java
+
+#explain every SQL template against the loaded data set, e.g. JAVA_OPTS="-Dhotel.plans.verbose=true" checkPlans.sh
+#Use your database name, port number and login
+java $JAVA_OPTS -Dhotel.plans.src=$DIR/../src -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PlanChecker $USER"_DB" $PGPORT $USER
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java
+
+#write a synthetic data set: generateData.sh <outDir> [scale] [seed] [threads]
+#load it with loadData.sh <outDir>; skew settings are -Dhotel.gen.* in JAVA_OPTS
+java $JAVA_OPTS -cp $DIR/../classes DataGenerator "$@"
@@ -0,0 +1,21 @@
+#! /bin/bash
+#start a streaming replica of the database started by startPostgreSQL.sh, on port $REPLICA_PORT (8193 by default)
+#run it once per replica with a different REPLICA_PORT, then pass -Dhotel.replicas=8193,... in JAVA_OPTS
+folder=/tmp/$USER
+REPLICA_PORT=${REPLICA_PORT:-8193}
+export REPLICA_DATA=$folder/myReplica$REPLICA_PORT/data
+export REPLICA_SOCKETS=$folder/myReplica$REPLICA_PORT/sockets
+
+#Clear folder
+rm -rf $folder/myReplica$REPLICA_PORT
+
+#Initialize folders
+mkdir -p $REPLICA_SOCKETS
+
+#Copy the primary, -R writes the settings that make the copy a streaming standby
+pg_basebackup -h localhost -p $PGPORT -D $REPLICA_DATA -R -X stream
+chmod 700 $REPLICA_DATA
+
+sleep 1
+#Start the replica
+pg_ctl -o "-c unix_socket_directories=$REPLICA_SOCKETS -p $REPLICA_PORT -c hot_standby=on" -D $REPLICA_DATA -l $folder/replica$REPLICA_PORT.log start
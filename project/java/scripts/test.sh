@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program together with the unit tests
+javac -d $DIR/../classes -cp $DIR/../lib/pg73jdbc3.jar $DIR/../src/*.java $DIR/../test/*.java || exit 1
+
+#run every unit test, no database needed; stops at the first failure
+for test in $DIR/../test/*Test.java; do
+    java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar $(basename $test .java) || exit 1
+done
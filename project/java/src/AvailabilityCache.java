@@ -0,0 +1,173 @@
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps, for every room that has bookings, a bitset of its booked days so
+ * that availability checks for a day or a date range are bit operations
+ * instead of database round trips.
+ *
+ * Only the bookable window is kept: the days from firstDay, the day of the
+ * load, through lastDay, daysAhead later. Bit i of a room's bitset stands
+ * for the day firstDay + i, where days are counted from 1970-01-01, so the
+ * cache holds at most daysAhead + 1 bits per room however long the history
+ * grows, and loading it reads only the booking partitions of the window.
+ * Days outside the window are not covered and must be checked against the
+ * database. The cache is filled from RoomBookings and updated by every
+ * booking made through this process; the database stays the source of
+ * truth for the final insert.
+ */
+public class AvailabilityCache {
+    // every booked (hotel, room, day) of a window
+    static final String SQL_BOOKED_DAYS =
+            "SELECT hotelID, roomNumber, bookingDate FROM RoomBookings WHERE bookingDate BETWEEN ? AND ?";
+
+    // booked days by room, keyed by key(hotelID, roomNumber)
+    private final Map<Long, BitSet> rooms = new HashMap<Long, BitSet>();
+    private final int firstDay;
+    private final int lastDay;
+    private final long loadedAt;
+
+    AvailabilityCache(int firstDay, int lastDay) {
+        if (lastDay < firstDay)
+            throw new IllegalArgumentException("the window ends before it starts");
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+        this.loadedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Loads the booked days of every room from today through daysAhead days
+     * later from RoomBookings.
+     *
+     * @param esql the database to read the bookings from
+     * @param daysAhead the number of days after today that are covered
+     * @return the new cache
+     * @throws java.sql.SQLException when the bookings cannot be read
+     */
+    public static AvailabilityCache load(Hotel esql, int daysAhead) throws SQLException {
+        if (daysAhead < 0)
+            throw new IllegalArgumentException("daysAhead must not be negative");
+        // today at midnight, like the dates JDBC returns
+        java.sql.Date first = java.sql.Date.valueOf(new java.sql.Date(System.currentTimeMillis()).toString());
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(first);
+        cal.add(Calendar.DAY_OF_MONTH, daysAhead);
+        java.sql.Date last = new java.sql.Date(cal.getTimeInMillis());
+
+        final AvailabilityCache cache = new AvailabilityCache(epochDay(first), epochDay(last));
+        esql.executeQueryAndStream(SQL_BOOKED_DAYS, new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                cache.markBooked(row.getInt(1), row.getInt(2), epochDay(row.getDate(3)));
+                return true;
+            }
+        }, first, last);
+        return cache;
+    }//end load
+
+    /**
+     * @return the time this cache was loaded, in milliseconds since the epoch
+     */
+    public long getLoadedAt() {
+        return this.loadedAt;
+    }
+
+    /**
+     * @param day a day counted from 1970-01-01
+     * @return true if the cache can answer questions about that day
+     */
+    public boolean covers(int day) {
+        return day >= this.firstDay && day <= this.lastDay;
+    }
+
+    /**
+     * @return the first covered day, counted from 1970-01-01
+     */
+    public int getFirstDay() {
+        return this.firstDay;
+    }
+
+    /**
+     * @return the last covered day, counted from 1970-01-01
+     */
+    public int getLastDay() {
+        return this.lastDay;
+    }
+
+    /**
+     * @return true if the room is booked on the given day, which must be covered
+     */
+    public synchronized boolean isBooked(int hotelID, int roomNumber, int day) {
+        BitSet days = this.rooms.get(key(hotelID, roomNumber));
+        return days != null && days.get(day - this.firstDay);
+    }
+
+    /**
+     * @return true if the room is free on every day from firstDay to lastDay
+     * inclusive; both days must be covered
+     */
+    public synchronized boolean isFree(int hotelID, int roomNumber, int firstDay, int lastDay) {
+        BitSet days = this.rooms.get(key(hotelID, roomNumber));
+        if (days == null)
+            return true;
+        int next = days.nextSetBit(firstDay - this.firstDay);
+        return next < 0 || next > lastDay - this.firstDay;
+    }
+
+    /**
+     * Records a booking of the room on the given day. Days outside the
+     * window are ignored, as they are always checked against the database.
+     */
+    public synchronized void markBooked(int hotelID, int roomNumber, int day) {
+        if (!covers(day))
+            return;
+        Long k = key(hotelID, roomNumber);
+        BitSet days = this.rooms.get(k);
+        if (days == null) {
+            days = new BitSet();
+            this.rooms.put(k, days);
+        }
+        days.set(day - this.firstDay);
+    }
+
+    /**
+     * Records that the booking of the room on the given day was cancelled.
+     */
+    public synchronized void markFree(int hotelID, int roomNumber, int day) {
+        if (!covers(day))
+            return;
+        BitSet days = this.rooms.get(key(hotelID, roomNumber));
+        if (days != null)
+            days.clear(day - this.firstDay);
+    }
+
+    /**
+     * Converts a SQL date to the number of days since 1970-01-01.
+     *
+     * @param date the date, as returned by JDBC or Hotel.parseDate
+     * @return the day number
+     */
+    public static int epochDay(java.sql.Date date) {
+        // java.sql.Date is midnight in the default time zone, so read the
+        // calendar fields rather than dividing the milliseconds
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        return daysFromCivil(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH) + 1, cal.get(Calendar.DAY_OF_MONTH));
+    }
+
+    // days since 1970-01-01 of a proleptic Gregorian date
+    static int daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    static long key(int hotelID, int roomNumber) {
+        return ((long) hotelID << 32) | (roomNumber & 0xffffffffL);
+    }
+}//end AvailabilityCache
@@ -0,0 +1,44 @@
+import java.util.List;
+
+/**
+ * One page of the booking history returned by
+ * {@link Hotel#findBookingHistoryPage(java.sql.Date, java.sql.Date, String, int)}.
+ *
+ * Pages are ordered by (bookingDate, bookingID) and the continuation token
+ * is the key of the last booking of the page, written as
+ * "yyyy-MM-dd_bookingID". The next page starts right after that key, so it
+ * costs the same index range scan as the first one however deep it is.
+ */
+public class BookingHistoryPage {
+    // records of bookingID, customer name, hotelID, roomNumber and bookingDate
+    public final List<List<String>> bookings;
+    // the token of the next page, or null if this is the last one
+    public final String next;
+
+    BookingHistoryPage(List<List<String>> bookings, String next) {
+        this.bookings = bookings;
+        this.next = next;
+    }
+
+    static String token(String bookingDate, String bookingID) {
+        return bookingDate.trim() + "_" + bookingID.trim();
+    }
+
+    /**
+     * @return the date and bookingID of a token
+     * @throws IllegalArgumentException when the token was not made by token()
+     */
+    static Object[] parse(String token) {
+        int sep = token.indexOf('_');
+        if (sep < 0)
+            throw new IllegalArgumentException("Invalid page token: " + token);
+        try {
+            return new Object[]{
+                    java.sql.Date.valueOf(token.substring(0, sep)),
+                    Integer.parseInt(token.substring(sep + 1))};
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is one too
+            throw new IllegalArgumentException("Invalid page token: " + token);
+        }
+    }
+}//end BookingHistoryPage
@@ -0,0 +1,30 @@
+/**
+ * The outcome of a booking attempt made with
+ * {@link Hotel#bookRoom(int, int, int, java.sql.Date)}.
+ */
+public class BookingResult {
+    public enum Status {
+        // the room is now booked for the customer
+        BOOKED,
+        // someone else already holds the room on that date
+        NOT_AVAILABLE,
+        // the hotel has no room with that number
+        NO_SUCH_ROOM
+    }
+
+    public final Status status;
+    // the new bookingID, only set when the room was booked
+    public final int bookingID;
+    // the room price, set unless the room does not exist
+    public final int price;
+
+    BookingResult(Status status, int bookingID, int price) {
+        this.status = status;
+        this.bookingID = bookingID;
+        this.price = price;
+    }
+
+    public boolean isBooked() {
+        return this.status == Status.BOOKED;
+    }
+}//end BookingResult
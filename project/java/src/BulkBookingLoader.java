@@ -0,0 +1,398 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Ingests bookings in bulk, e.g. the booking files sent by partner channels.
+ *
+ * Records are taken batchSize at a time. Each batch is written to a temporary
+ * staging table with one JDBC batch, validated against Rooms, Users and the
+ * existing RoomBookings with a single set-based UPDATE, and moved into
+ * RoomBookings with a single INSERT ... SELECT, all in one transaction.
+ * Rows that fail validation are reported back with the reason instead of
+ * aborting the load. The bookingIDs are assigned while staging, from an IdAllocator
+ * that reserves its blocks on another pooled connection.
+ */
+public class BulkBookingLoader {
+    static final String SQL_CREATE_STAGING =
+            "CREATE TEMP TABLE IF NOT EXISTS BookingStaging (" +
+                    "seq integer NOT NULL, bookingID integer, customerID integer, hotelID integer, " +
+                    "roomNumber integer, bookingDate date, reason text) ON COMMIT DELETE ROWS";
+    static final String SQL_STAGE_BOOKING =
+            "INSERT INTO BookingStaging (seq, bookingID, customerID, hotelID, roomNumber, bookingDate) " +
+                    "VALUES (?, ?, ?, ?, ?, ?)";
+    // one pass over the batch marks every row that cannot be booked
+    static final String SQL_VALIDATE_STAGING =
+            "UPDATE BookingStaging S SET reason = CASE " +
+                    "WHEN NOT EXISTS (SELECT 1 FROM Rooms R WHERE R.hotelID = S.hotelID AND R.roomNumber = S.roomNumber) " +
+                    "THEN 'unknown room' " +
+                    "WHEN NOT EXISTS (SELECT 1 FROM Users U WHERE U.userID = S.customerID) " +
+                    "THEN 'unknown customer' " +
+                    "WHEN EXISTS (SELECT 1 FROM RoomBookings RB WHERE RB.hotelID = S.hotelID " +
+                    "AND RB.roomNumber = S.roomNumber AND RB.bookingDate = S.bookingDate) " +
+                    "THEN 'already booked' " +
+                    "WHEN D.rn > 1 THEN 'duplicate in input' END " +
+                    "FROM (SELECT seq, row_number() OVER (PARTITION BY hotelID, roomNumber, bookingDate ORDER BY seq) AS rn " +
+                    "FROM BookingStaging) D " +
+                    "WHERE S.seq = D.seq";
+    // moves the valid rows; a row taken concurrently by another booking is marked instead
+    static final String SQL_INSERT_STAGED =
+            "WITH booked AS (" +
+                    "INSERT INTO RoomBookings (bookingID, customerID, hotelID, roomNumber, bookingDate, price) " +
+                    "SELECT S.bookingID, S.customerID, S.hotelID, S.roomNumber, S.bookingDate, R.price " +
+                    "FROM BookingStaging S JOIN Rooms R ON R.hotelID = S.hotelID AND R.roomNumber = S.roomNumber " +
+                    "WHERE S.reason IS NULL ORDER BY S.seq " +
+                    "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING " +
+                    "RETURNING hotelID, roomNumber, bookingDate) " +
+                    "UPDATE BookingStaging S SET reason = 'already booked' " +
+                    "WHERE S.reason IS NULL AND NOT EXISTS (SELECT 1 FROM booked B " +
+                    "WHERE B.hotelID = S.hotelID AND B.roomNumber = S.roomNumber AND B.bookingDate = S.bookingDate)";
+    static final String SQL_STAGED_REJECTS =
+            "SELECT seq, reason FROM BookingStaging WHERE reason IS NOT NULL ORDER BY seq";
+
+    private final Hotel esql;
+    private final int batchSize;
+    private final IdAllocator bookingIDs;
+
+    /**
+     * @param esql the database to load into
+     * @param batchSize the number of records validated and written per transaction
+     */
+    public BulkBookingLoader(Hotel esql, int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size must be positive");
+        this.esql = esql;
+        this.batchSize = batchSize;
+        this.bookingIDs = new IdAllocator(esql, "RoomBookings", "bookingID");
+    }
+
+    /**
+     * Loads all records of the stream. Each batch is committed on its own,
+     * so a failure only loses the batch being written.
+     *
+     * @param records the bookings to load
+     * @return the per-batch statistics and every rejected record
+     * @throws java.sql.SQLException when a batch cannot be written
+     */
+    public Report load(Iterator<Record> records) throws SQLException {
+        Report report = new Report();
+        PooledConnection conn = this.esql.borrowConnection();
+        try {
+            Connection c = conn.getConnection();
+            Statement ddl = c.createStatement();
+            try {
+                ddl.executeUpdate(SQL_CREATE_STAGING);
+            } finally {
+                ddl.close();
+            }
+            c.setAutoCommit(false);
+
+            List<Record> batch = new ArrayList<Record>(this.batchSize);
+            while (records.hasNext()) {
+                batch.add(records.next());
+                if (batch.size() == this.batchSize) {
+                    report.batches.add(loadBatch(conn, report.batches.size() + 1, batch, report.rejections));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty())
+                report.batches.add(loadBatch(conn, report.batches.size() + 1, batch, report.rejections));
+        } finally {
+            this.esql.releaseConnection(conn);
+        }
+        return report;
+    }//end load
+
+    // stages, validates and inserts one batch in a single transaction
+    private BatchStats loadBatch(PooledConnection conn, int number, List<Record> batch,
+                                 List<Rejection> rejections) throws SQLException {
+        long start = System.nanoTime();
+        Connection c = conn.getConnection();
+        int rejected = 0;
+        try {
+            // the batch stays client-side, see PooledConnection.prepare(String, boolean)
+            PreparedStatement stage = conn.prepare(SQL_STAGE_BOOKING, false);
+            for (int i = 0; i < batch.size(); i++) {
+                Record r = batch.get(i);
+                stage.setInt(1, i);
+                stage.setInt(2, this.bookingIDs.next());
+                stage.setInt(3, r.customerID);
+                stage.setInt(4, r.hotelID);
+                stage.setInt(5, r.roomNumber);
+                stage.setDate(6, r.bookingDate);
+                stage.addBatch();
+            }
+            stage.executeBatch();
+
+            conn.prepare(SQL_VALIDATE_STAGING).executeUpdate();
+            conn.prepare(SQL_INSERT_STAGED).executeUpdate();
+
+            boolean[] isRejected = new boolean[batch.size()];
+            ResultSet rs = conn.prepare(SQL_STAGED_REJECTS).executeQuery();
+            try {
+                while (rs.next()) {
+                    int seq = rs.getInt(1);
+                    isRejected[seq] = true;
+                    Record r = batch.get(seq);
+                    rejections.add(new Rejection(r.line, r.toString(), rs.getString(2)));
+                    rejected++;
+                }
+            } finally {
+                rs.close();
+            }
+            c.commit();
+
+            // keep this process's availability bitmaps and top customers in step with what was loaded
+            AvailabilityCache availability = this.esql.getAvailability();
+            RegularCustomersCache regulars = this.esql.getRegularCustomers();
+            for (int i = 0; i < batch.size(); i++) {
+                if (!isRejected[i]) {
+                    Record r = batch.get(i);
+                    availability.markBooked(r.hotelID, r.roomNumber, AvailabilityCache.epochDay(r.bookingDate));
+                    regulars.recordBooking(r.hotelID, r.customerID);
+                }
+            }
+        } catch (SQLException e) {
+            c.rollback();
+            conn.evict(SQL_VALIDATE_STAGING);
+            conn.evict(SQL_INSERT_STAGED);
+            conn.evict(SQL_STAGED_REJECTS);
+            throw e;
+        }
+        return new BatchStats(number, batch.size(), batch.size() - rejected, rejected,
+                (System.nanoTime() - start) / 1000000L);
+    }//end loadBatch
+
+    /**
+     * One booking to load.
+     */
+    public static class Record {
+        // the line of the input the record was read from, 0 if unknown
+        public final int line;
+        public final int customerID;
+        public final int hotelID;
+        public final int roomNumber;
+        public final java.sql.Date bookingDate;
+
+        public Record(int line, int customerID, int hotelID, int roomNumber, java.sql.Date bookingDate) {
+            this.line = line;
+            this.customerID = customerID;
+            this.hotelID = hotelID;
+            this.roomNumber = roomNumber;
+            this.bookingDate = bookingDate;
+        }
+
+        public String toString() {
+            return customerID + "," + hotelID + "," + roomNumber + "," + bookingDate;
+        }
+    }//end Record
+
+    /**
+     * A record that was not loaded, and why.
+     */
+    public static class Rejection {
+        public final int line;
+        public final String input;
+        public final String reason;
+
+        public Rejection(int line, String input, String reason) {
+            this.line = line;
+            this.input = input;
+            this.reason = reason;
+        }
+
+        public String toString() {
+            return "line " + line + ": " + reason + " (" + input + ")";
+        }
+    }//end Rejection
+
+    /**
+     * The throughput of one batch.
+     */
+    public static class BatchStats {
+        public final int batch;
+        public final int rows;
+        public final int accepted;
+        public final int rejected;
+        public final long millis;
+
+        BatchStats(int batch, int rows, int accepted, int rejected, long millis) {
+            this.batch = batch;
+            this.rows = rows;
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.millis = millis;
+        }
+
+        public double rowsPerSecond() {
+            return rows * 1000.0 / Math.max(1L, millis);
+        }
+
+        public String toString() {
+            return String.format("batch %d: %d rows, %d accepted, %d rejected in %d ms (%.0f rows/s)",
+                    batch, rows, accepted, rejected, millis, rowsPerSecond());
+        }
+    }//end BatchStats
+
+    /**
+     * The outcome of a load.
+     */
+    public static class Report {
+        public final List<BatchStats> batches = new ArrayList<BatchStats>();
+        public final List<Rejection> rejections = new ArrayList<Rejection>();
+
+        public int accepted() {
+            int n = 0;
+            for (BatchStats b : batches)
+                n += b.accepted;
+            return n;
+        }
+    }//end Report
+
+    /**
+     * Reads booking records from a CSV file with a header line. The columns
+     * customerID, hotelID, roomNumber and bookingDate are required, in any
+     * order; other columns such as bookingID are ignored. Dates may be written
+     * as M/d/yyyy, like data/bookings.csv, or yyyy-MM-dd. Lines that cannot be
+     * parsed are collected as rejections instead of being returned.
+     */
+    public static class CsvReader implements Iterator<Record> {
+        private final BufferedReader reader;
+        private final List<Rejection> rejections = new ArrayList<Rejection>();
+        private final SimpleDateFormat slashDate = new SimpleDateFormat("M/d/yyyy");
+        private final SimpleDateFormat isoDate = new SimpleDateFormat("yyyy-MM-dd");
+        private int customerCol = -1, hotelCol = -1, roomCol = -1, dateCol = -1;
+        private int lineNumber = 1;
+        private Record next = null;
+
+        public CsvReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            this.slashDate.setLenient(false);
+            this.isoDate.setLenient(false);
+            String header = reader.readLine();
+            if (header == null)
+                throw new IOException("empty booking file");
+            String[] names = header.split(",");
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i].trim();
+                if (name.equalsIgnoreCase("customerID")) customerCol = i;
+                else if (name.equalsIgnoreCase("hotelID")) hotelCol = i;
+                else if (name.equalsIgnoreCase("roomNumber")) roomCol = i;
+                else if (name.equalsIgnoreCase("bookingDate")) dateCol = i;
+            }
+            if (customerCol < 0 || hotelCol < 0 || roomCol < 0 || dateCol < 0)
+                throw new IOException("booking file needs customerID, hotelID, roomNumber and bookingDate columns");
+        }
+
+        /**
+         * @return the lines that could not be parsed so far
+         */
+        public List<Rejection> getRejections() {
+            return this.rejections;
+        }
+
+        public boolean hasNext() {
+            try {
+                while (this.next == null) {
+                    String line = this.reader.readLine();
+                    if (line == null)
+                        return false;
+                    this.lineNumber++;
+                    if (line.trim().length() > 0)
+                        this.next = parse(line);
+                }
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public Record next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Record r = this.next;
+            this.next = null;
+            return r;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private Record parse(String line) {
+            String[] fields = line.split(",", -1);
+            try {
+                return new Record(this.lineNumber,
+                        Integer.parseInt(fields[customerCol].trim()),
+                        Integer.parseInt(fields[hotelCol].trim()),
+                        Integer.parseInt(fields[roomCol].trim()),
+                        parseDate(fields[dateCol].trim()));
+            } catch (Exception e) {
+                this.rejections.add(new Rejection(this.lineNumber, line, "malformed record"));
+                return null;
+            }
+        }
+
+        private java.sql.Date parseDate(String text) throws ParseException {
+            SimpleDateFormat format = text.indexOf('/') >= 0 ? this.slashDate : this.isoDate;
+            return new java.sql.Date(format.parse(text).getTime());
+        }
+    }//end CsvReader
+
+    /**
+     * Loads a booking file from the command line.
+     *
+     * @param args <dbname> <port> <user> <file> [batchSize]
+     */
+    public static void main(String[] args) {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            BulkBookingLoader.class.getName() +
+                            " <dbname> <port> <user> <file> [batchSize]");
+            return;
+        }
+        Hotel esql = null;
+        try {
+            // use postgres JDBC driver.
+            Class.forName("org.postgresql.Driver").newInstance();
+            esql = new Hotel(args[0], args[1], args[2], "");
+            int batchSize = args.length == 5 ? Integer.parseInt(args[4]) : 1000;
+
+            BufferedReader file = new BufferedReader(new FileReader(args[3]));
+            try {
+                CsvReader reader = new CsvReader(file);
+                long start = System.nanoTime();
+                Report report = new BulkBookingLoader(esql, batchSize).load(reader);
+                long millis = (System.nanoTime() - start) / 1000000L;
+                report.rejections.addAll(0, reader.getRejections());
+
+                for (BatchStats b : report.batches)
+                    System.out.println(b);
+                for (Rejection r : report.rejections)
+                    System.out.println("rejected " + r);
+                System.out.println(String.format("%d bookings loaded, %d rejected in %d ms",
+                        report.accepted(), report.rejections.size(), millis));
+            } finally {
+                file.close();
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }//end main
+}//end BulkBookingLoader
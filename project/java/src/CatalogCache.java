@@ -0,0 +1,299 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache of the Hotel and Rooms rows, which nearly every
+ * operation reads and only updateRoomInfo changes.
+ *
+ * Hotels are kept by hotelID together with their rooms, which is what
+ * viewRooms lists, and rooms by (hotelID, roomNumber), which is what
+ * bookRooms and updateRoomInfo look up; both live in a ClockCache, keyed by
+ * primitive longs and bounded with CLOCK eviction. A miss is one query, also
+ * for all the hotels of a search that missed together. An
+ * update of a room through Hotel.updateRoom invalidates exactly that room and
+ * the listing of its hotel, and a load that was running while an
+ * invalidation happened is not cached. Rows older than the refresh interval
+ * are read again, to pick up changes made by other processes.
+ */
+public class CatalogCache {
+    // hotels and all their rooms in one round trip, one row per room; the hotelIDs
+    // are passed as a comma-separated list
+    static final String SQL_CATALOG_HOTELS =
+            "SELECT H.hotelID, H.hotelName, H.latitude, H.longitude, H.dateEstablished, H.managerUserID, " +
+                    "R.roomNumber, R.price, R.imageURL " +
+                    "FROM Hotel H LEFT JOIN Rooms R ON R.hotelID = H.hotelID " +
+                    "WHERE H.hotelID = ANY (CAST(string_to_array(?, ',') AS integer[])) " +
+                    "ORDER BY H.hotelID, R.roomNumber";
+
+    /**
+     * One row of Hotel with its rooms, sorted by roomNumber.
+     */
+    public static final class HotelRow {
+        public final int hotelID;
+        public final String hotelName;
+        // NaN when unknown
+        public final double latitude;
+        public final double longitude;
+        public final String dateEstablished;
+        public final int managerUserID;
+        public final RoomRow[] rooms;
+        final long loadedAt;
+
+        HotelRow(int hotelID, String hotelName, double latitude, double longitude, String dateEstablished,
+                 int managerUserID, RoomRow[] rooms, long loadedAt) {
+            this.hotelID = hotelID;
+            this.hotelName = hotelName;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.dateEstablished = dateEstablished;
+            this.managerUserID = managerUserID;
+            this.rooms = rooms;
+            this.loadedAt = loadedAt;
+        }
+
+        /**
+         * @return the room, or null if the hotel has no such room
+         */
+        public RoomRow room(int roomNumber) {
+            int low = 0;
+            int high = this.rooms.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int number = this.rooms[mid].roomNumber;
+                if (number < roomNumber)
+                    low = mid + 1;
+                else if (number > roomNumber)
+                    high = mid - 1;
+                else
+                    return this.rooms[mid];
+            }
+            return null;
+        }
+    }//end HotelRow
+
+    /**
+     * One row of Rooms.
+     */
+    public static final class RoomRow {
+        public final int hotelID;
+        public final int roomNumber;
+        public final int price;
+        public final String imageURL;
+        final long loadedAt;
+
+        RoomRow(int hotelID, int roomNumber, int price, String imageURL, long loadedAt) {
+            this.hotelID = hotelID;
+            this.roomNumber = roomNumber;
+            this.price = price;
+            this.imageURL = imageURL;
+            this.loadedAt = loadedAt;
+        }
+    }//end RoomRow
+
+    private final Hotel esql;
+    private final long refreshMillis;
+    private final ClockCache<HotelRow> hotels;
+    private final ClockCache<RoomRow> rooms;
+    // bumped by every invalidation, so that loads racing with one are not cached
+    private long version = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param esql the database to read the rows from
+     * @param maxHotels the number of hotels kept
+     * @param maxRooms the number of rooms kept
+     * @param refreshMillis the age after which a row is read again
+     */
+    public CatalogCache(Hotel esql, int maxHotels, int maxRooms, long refreshMillis) {
+        this.esql = esql;
+        this.refreshMillis = refreshMillis;
+        this.hotels = new ClockCache<HotelRow>(maxHotels);
+        this.rooms = new ClockCache<RoomRow>(maxRooms);
+    }
+
+    /**
+     * Returns a hotel and its rooms, reading them if they are not cached.
+     *
+     * @return the hotel, or null if there is no such hotel
+     * @throws java.sql.SQLException when the hotel cannot be read
+     */
+    public HotelRow hotel(int hotelID) throws SQLException {
+        return hotels(new int[]{hotelID})[0];
+    }
+
+    /**
+     * Returns hotels and their rooms, reading the ones that are not cached
+     * with a single query.
+     *
+     * @param hotelIDs the hotels
+     * @return the hotel of each hotelID, null where there is no such hotel
+     * @throws java.sql.SQLException when the hotels cannot be read
+     */
+    public HotelRow[] hotels(int[] hotelIDs) throws SQLException {
+        HotelRow[] result = new HotelRow[hotelIDs.length];
+        StringBuilder missing = new StringBuilder();
+        long version;
+        synchronized (this) {
+            for (int i = 0; i < hotelIDs.length; i++) {
+                HotelRow hotel = this.hotels.get(hotelIDs[i]);
+                if (hotel != null && fresh(hotel.loadedAt)) {
+                    this.hits.incrementAndGet();
+                    result[i] = hotel;
+                } else {
+                    this.misses.incrementAndGet();
+                    missing.append(missing.length() == 0 ? "" : ",").append(hotelIDs[i]);
+                }
+            }
+            version = this.version;
+        }
+        if (missing.length() == 0)
+            return result;
+
+        Map<Integer, HotelRow> loaded = load(missing.toString());
+        synchronized (this) {
+            if (version == this.version) {
+                for (HotelRow hotel : loaded.values()) {
+                    this.hotels.put(hotel.hotelID, hotel);
+                    for (RoomRow room : hotel.rooms)
+                        this.rooms.put(AvailabilityCache.key(hotel.hotelID, room.roomNumber), room);
+                }
+            }
+        }
+        for (int i = 0; i < hotelIDs.length; i++) {
+            if (result[i] == null)
+                result[i] = loaded.get(hotelIDs[i]);
+        }
+        return result;
+    }//end hotels
+
+    // reads hotels with their rooms, keyed by hotelID
+    private Map<Integer, HotelRow> load(String hotelIDs) throws SQLException {
+        List<List<String>> rows = this.esql.executeQueryAndReturnResult(SQL_CATALOG_HOTELS, hotelIDs);
+        Map<Integer, HotelRow> loaded = new HashMap<Integer, HotelRow>();
+        long now = System.currentTimeMillis();
+        List<RoomRow> rooms = new ArrayList<RoomRow>();
+        // the rows come grouped by hotel
+        for (int i = 0; i < rows.size(); i++) {
+            List<String> row = rows.get(i);
+            int hotelID = Integer.parseInt(row.get(0).trim());
+            // the left join gives one row without a room to a hotel that has none
+            if (row.get(6) != null)
+                rooms.add(new RoomRow(hotelID, Integer.parseInt(row.get(6).trim()),
+                        Integer.parseInt(row.get(7).trim()), row.get(8), now));
+            if (i + 1 == rows.size() || Integer.parseInt(rows.get(i + 1).get(0).trim()) != hotelID) {
+                loaded.put(hotelID, new HotelRow(hotelID, row.get(1), parseCoordinate(row.get(2)),
+                        parseCoordinate(row.get(3)), row.get(4), Integer.parseInt(row.get(5).trim()),
+                        rooms.toArray(new RoomRow[rooms.size()]), now));
+                rooms.clear();
+            }
+        }
+        return loaded;
+    }//end load
+
+    /**
+     * Returns a room, from the room cache, from its cached hotel, or read
+     * with one query.
+     *
+     * @return the room, or null if there is no such room
+     * @throws java.sql.SQLException when the room cannot be read
+     */
+    public RoomRow room(int hotelID, int roomNumber) throws SQLException {
+        long key = AvailabilityCache.key(hotelID, roomNumber);
+        long version;
+        synchronized (this) {
+            RoomRow room = this.rooms.get(key);
+            if (room != null && fresh(room.loadedAt)) {
+                this.hits.incrementAndGet();
+                return room;
+            }
+            // a cached hotel lists all its rooms, so it also knows the ones that do not exist
+            HotelRow hotel = this.hotels.get(hotelID);
+            if (hotel != null && fresh(hotel.loadedAt)) {
+                this.hits.incrementAndGet();
+                room = hotel.room(roomNumber);
+                if (room != null)
+                    this.rooms.put(key, room);
+                return room;
+            }
+            version = this.version;
+        }
+        this.misses.incrementAndGet();
+        List<List<String>> rows = this.esql.executeQueryAndReturnResult(Hotel.SQL_ROOM_INFO, hotelID, roomNumber);
+        if (rows.isEmpty())
+            return null;
+        RoomRow room = new RoomRow(hotelID, roomNumber, Integer.parseInt(rows.get(0).get(0).trim()),
+                rows.get(0).get(1), System.currentTimeMillis());
+        synchronized (this) {
+            if (version == this.version)
+                this.rooms.put(key, room);
+        }
+        return room;
+    }//end room
+
+    /**
+     * Drops a room and the room listing of its hotel, to be called once the
+     * room has been written.
+     */
+    public synchronized void invalidateRoom(int hotelID, int roomNumber) {
+        this.version++;
+        this.rooms.remove(AvailabilityCache.key(hotelID, roomNumber));
+        this.hotels.remove(hotelID);
+    }
+
+    /**
+     * Drops every row.
+     */
+    public synchronized void clear() {
+        this.version++;
+        this.hotels.clear();
+        this.rooms.clear();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the share of lookups served from memory, between 0 and 1
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long total = hits + this.misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized long getEvictions() {
+        return this.hotels.evictions() + this.rooms.evictions();
+    }
+
+    public synchronized int getHotelCount() {
+        return this.hotels.size();
+    }
+
+    public synchronized int getRoomCount() {
+        return this.rooms.size();
+    }
+
+    public synchronized String toString() {
+        return String.format("hotels=%d/%d rooms=%d/%d hits=%d misses=%d hitRatio=%.1f%% evictions=%d",
+                this.hotels.size(), this.hotels.maxSize(), this.rooms.size(), this.rooms.maxSize(),
+                getHits(), getMisses(), getHitRatio() * 100, getEvictions());
+    }
+
+    private boolean fresh(long loadedAt) {
+        return System.currentTimeMillis() - loadedAt < this.refreshMillis;
+    }
+
+    private static double parseCoordinate(String value) {
+        return value == null ? Double.NaN : Double.parseDouble(value.trim());
+    }
+}//end CatalogCache
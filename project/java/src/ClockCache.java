@@ -0,0 +1,148 @@
+/**
+ * A bounded map from long keys to values, stored in flat arrays so that
+ * neither the keys nor the entries are boxed.
+ *
+ * Keys live in an open-addressing table with linear probing, at most half
+ * full, and removals shift the following entries back instead of leaving
+ * tombstones. Once maxSize entries are held, every put of a new key evicts
+ * one entry with the CLOCK algorithm: a hand sweeps the table, clearing the
+ * referenced bit that get() sets, and evicts the first entry that has not
+ * been read since the hand last passed it. Not thread-safe.
+ */
+final class ClockCache<V> {
+    // marks a free slot, so it cannot be used as a key
+    private static final long FREE = Long.MIN_VALUE;
+
+    private final long[] keys;
+    private final Object[] values;
+    private final boolean[] referenced;
+    private final int mask;
+    private final int shift;
+    private final int maxSize;
+    private int size = 0;
+    private int hand = 0;
+    private long evictions = 0;
+
+    ClockCache(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        int capacity = Integer.highestOneBit(Math.max(2, this.maxSize * 2 - 1)) << 1;
+        this.keys = new long[capacity];
+        java.util.Arrays.fill(this.keys, FREE);
+        this.values = new Object[capacity];
+        this.referenced = new boolean[capacity];
+        this.mask = capacity - 1;
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int i = find(key);
+        if (i < 0)
+            return null;
+        this.referenced[i] = true;
+        return (V) this.values[i];
+    }
+
+    void put(long key, V value) {
+        if (key == FREE)
+            throw new IllegalArgumentException("Key " + key + " is reserved");
+        int i = find(key);
+        if (i < 0) {
+            if (this.size == this.maxSize)
+                evict();
+            i = home(key);
+            while (this.keys[i] != FREE)
+                i = (i + 1) & this.mask;
+            this.keys[i] = key;
+            this.size++;
+            // a new entry earns its second chance with its first read, so
+            // one pass of cold keys cannot push out the ones being read
+            this.referenced[i] = false;
+        } else {
+            this.referenced[i] = true;
+        }
+        this.values[i] = value;
+    }
+
+    boolean remove(long key) {
+        int i = find(key);
+        if (i < 0)
+            return false;
+        delete(i);
+        return true;
+    }
+
+    void clear() {
+        java.util.Arrays.fill(this.keys, FREE);
+        java.util.Arrays.fill(this.values, null);
+        java.util.Arrays.fill(this.referenced, false);
+        this.size = 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int maxSize() {
+        return this.maxSize;
+    }
+
+    long evictions() {
+        return this.evictions;
+    }
+
+    // the slot holding the key, or -1
+    private int find(long key) {
+        for (int i = home(key); this.keys[i] != FREE; i = (i + 1) & this.mask) {
+            if (this.keys[i] == key)
+                return i;
+        }
+        return -1;
+    }
+
+    // the first slot probed for a key, from the high bits of a Fibonacci hash
+    private int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> this.shift);
+    }
+
+    private void evict() {
+        while (true) {
+            int i = this.hand;
+            this.hand = (this.hand + 1) & this.mask;
+            if (this.keys[i] == FREE)
+                continue;
+            if (this.referenced[i]) {
+                // a second chance
+                this.referenced[i] = false;
+            } else {
+                delete(i);
+                this.evictions++;
+                return;
+            }
+        }
+    }//end evict
+
+    // empties a slot, moving back the entries of the probe run after it that
+    // would otherwise no longer be found
+    private void delete(int free) {
+        int i = free;
+        while (true) {
+            i = (i + 1) & this.mask;
+            if (this.keys[i] == FREE)
+                break;
+            int home = home(this.keys[i]);
+            // the entry can move to the free slot unless its home lies cyclically in (free, i]
+            boolean stays = free <= i ? (free < home && home <= i) : (free < home || home <= i);
+            if (!stays) {
+                this.keys[free] = this.keys[i];
+                this.values[free] = this.values[i];
+                this.referenced[free] = this.referenced[i];
+                free = i;
+            }
+        }
+        this.keys[free] = FREE;
+        this.values[free] = null;
+        this.referenced[free] = false;
+        this.size--;
+    }//end delete
+}//end ClockCache
@@ -0,0 +1,396 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of physical PostgreSQL connections.
+ *
+ * Connections are created lazily up to maxSize, validated before reuse when
+ * they have been idle for longer than the validation interval, and evicted by
+ * a background thread once they have been idle for longer than the idle
+ * timeout (the pool never shrinks below minIdle). A borrower waits at most
+ * maxWaitMillis for a connection before an SQLException is raised.
+ *
+ * Every connection carries a prepared statement cache of statementCacheSize
+ * entries; the pool aggregates its hit and miss counters.
+ */
+public class ConnectionPool {
+    // the query used to check that an idle connection is still alive.
+    // The JDBC3 driver has no Connection.isValid(), so we ask the server.
+    private static final String VALIDATION_QUERY = "SELECT 1";
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int maxSize;
+    private final int minIdle;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+
+    // idle connections, most recently used first
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // number of physical connections currently open (idle + borrowed + being created)
+    private int total = 0;
+    private boolean closed = false;
+
+    private final Thread evictor;
+
+    // statistics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    /**
+     * Creates a new pool and opens minIdle connections up front so that a
+     * bad URL or a stopped server is reported immediately.
+     *
+     * @param url the JDBC connection URL
+     * @param user the user name used to login to the database
+     * @param password the user login password
+     * @param maxSize the maximum number of open connections
+     * @param minIdle the number of connections kept open while idle
+     * @param maxWaitMillis how long borrow() waits for a free connection
+     * @param idleTimeoutMillis how long a connection may stay idle before it is closed
+     * @param validationIntervalMillis idle time after which a connection is validated on borrow
+     * @param statementCacheSize the number of prepared statements cached per connection
+     * @throws java.sql.SQLException when the initial connections cannot be opened
+     */
+    public ConnectionPool(String url, String user, String password,
+                          int maxSize, int minIdle, long maxWaitMillis,
+                          long idleTimeoutMillis, long validationIntervalMillis,
+                          int statementCacheSize) throws SQLException {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = Math.max(0, Math.min(minIdle, maxSize));
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.statementCacheSize = Math.max(1, statementCacheSize);
+
+        try {
+            for (int i = 0; i < this.minIdle; i++) {
+                this.total++;
+                this.idle.push(open());
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+
+        this.evictor = new Thread(new Runnable() {
+            public void run() {
+                evictLoop();
+            }
+        }, "hotel-pool-evictor");
+        this.evictor.setDaemon(true);
+        this.evictor.start();
+    }//end ConnectionPool
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none is idle
+     * and the pool is not full, or waiting for one to be released otherwise.
+     *
+     * @return a validated connection that must be handed back with release()
+     * @throws java.sql.SQLException when no connection became available within maxWaitMillis
+     */
+    public PooledConnection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(this.maxWaitMillis);
+        boolean hasWaited = false;
+        while (true) {
+            PooledConnection conn = null;
+            boolean create = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed)
+                        throw new SQLException("Connection pool is closed");
+                    if (!idle.isEmpty()) {
+                        conn = idle.pop();
+                        break;
+                    }
+                    if (total < maxSize) {
+                        total++;
+                        create = true;
+                        break;
+                    }
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        throw new SQLException(String.format(
+                                "Timed out after %d ms waiting for a database connection (%d in use)",
+                                maxWaitMillis, total));
+                    }
+                    if (!hasWaited) {
+                        waited.incrementAndGet();
+                        hasWaited = true;
+                    }
+                    try {
+                        remaining = available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection");
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    conn = open();
+                } catch (SQLException e) {
+                    discard(null);
+                    throw e;
+                }
+            } else if (!validate(conn)) {
+                validationFailures.incrementAndGet();
+                discard(conn);
+                continue;
+            }
+
+            if (hasWaited)
+                waitNanos.addAndGet(System.nanoTime() - start);
+            borrowed.incrementAndGet();
+            return conn;
+        }
+    }//end borrow
+
+    /**
+     * Hands a borrowed connection back to the pool. Any open transaction is
+     * rolled back and auto-commit is restored, so the next borrower always
+     * starts from a clean connection.
+     *
+     * @param conn the connection returned by borrow(), may be null
+     */
+    public void release(PooledConnection conn) {
+        if (conn == null)
+            return;
+        try {
+            Connection c = conn.getConnection();
+            if (!c.getAutoCommit()) {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            discard(conn);
+            return;
+        }
+        conn.touch();
+        lock.lock();
+        try {
+            if (closed) {
+                total--;
+                destroyed.incrementAndGet();
+                conn.closeQuietly();
+                return;
+            }
+            idle.push(conn);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }//end release
+
+    /**
+     * Closes a borrowed connection instead of returning it, e.g. after an
+     * I/O error left it in an unknown state.
+     *
+     * @param conn the connection returned by borrow()
+     */
+    public void invalidate(PooledConnection conn) {
+        if (conn != null)
+            discard(conn);
+    }
+
+    /**
+     * Closes all idle connections and stops the eviction thread. Connections
+     * still borrowed are closed when they are released.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (!idle.isEmpty()) {
+                idle.pop().closeQuietly();
+                total--;
+                destroyed.incrementAndGet();
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (this.evictor != null)
+            this.evictor.interrupt();
+    }//end close
+
+    /**
+     * @return a snapshot of the pool statistics
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(total - idle.size(), idle.size(), maxSize,
+                    created.get(), destroyed.get(), borrowed.get(), waited.get(),
+                    timeouts.get(), validationFailures.get(), evicted.get(),
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos.get()),
+                    statementCacheHits.get(), statementCacheMisses.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // opens a new physical connection; the caller has already reserved a slot in total
+    private PooledConnection open() throws SQLException {
+        Connection c = DriverManager.getConnection(url, user, password);
+        created.incrementAndGet();
+        return new PooledConnection(this, c, statementCacheSize);
+    }
+
+    void recordStatementCacheHit() {
+        statementCacheHits.incrementAndGet();
+    }
+
+    void recordStatementCacheMiss() {
+        statementCacheMisses.incrementAndGet();
+    }
+
+    // closes the connection (if any) and frees its slot
+    private void discard(PooledConnection conn) {
+        if (conn != null) {
+            conn.closeQuietly();
+            destroyed.incrementAndGet();
+        }
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // checks connections that sat idle long enough to have been dropped by the server
+    private boolean validate(PooledConnection conn) {
+        if (System.currentTimeMillis() - conn.getLastUsedAt() < validationIntervalMillis)
+            return true;
+        Statement stmt = null;
+        try {
+            stmt = conn.getConnection().createStatement();
+            ResultSet rs = stmt.executeQuery(VALIDATION_QUERY);
+            return rs.next();
+        } catch (SQLException e) {
+            return false;
+        } finally {
+            if (stmt != null) {
+                try {
+                    stmt.close();
+                } catch (SQLException e) {
+                    // ignored.
+                }
+            }
+        }
+    }
+
+    // periodically closes connections idle for longer than idleTimeoutMillis
+    private void evictLoop() {
+        long interval = Math.max(1000L, Math.min(idleTimeoutMillis, 60000L) / 2);
+        while (true) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            lock.lock();
+            try {
+                if (closed)
+                    return;
+                // the least recently used connections sit at the tail of the deque
+                Iterator<PooledConnection> it = idle.descendingIterator();
+                while (it.hasNext() && total > minIdle) {
+                    PooledConnection conn = it.next();
+                    if (now - conn.getLastUsedAt() < idleTimeoutMillis)
+                        break;
+                    it.remove();
+                    conn.closeQuietly();
+                    total--;
+                    destroyed.incrementAndGet();
+                    evicted.incrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }//end evictLoop
+
+    /**
+     * A point-in-time view of the pool counters.
+     */
+    public static class Stats {
+        public final int active;
+        public final int idle;
+        public final int maxSize;
+        public final long created;
+        public final long destroyed;
+        public final long borrowed;
+        public final long waited;
+        public final long timeouts;
+        public final long validationFailures;
+        public final long evicted;
+        public final long totalWaitMillis;
+        public final long statementCacheHits;
+        public final long statementCacheMisses;
+
+        Stats(int active, int idle, int maxSize, long created, long destroyed, long borrowed,
+              long waited, long timeouts, long validationFailures, long evicted, long totalWaitMillis,
+              long statementCacheHits, long statementCacheMisses) {
+            this.active = active;
+            this.idle = idle;
+            this.maxSize = maxSize;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.borrowed = borrowed;
+            this.waited = waited;
+            this.timeouts = timeouts;
+            this.validationFailures = validationFailures;
+            this.evicted = evicted;
+            this.totalWaitMillis = totalWaitMillis;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+        }
+
+        public String toString() {
+            return String.format(
+                    "active=%d idle=%d max=%d created=%d destroyed=%d borrowed=%d " +
+                            "waited=%d timeouts=%d validationFailures=%d evicted=%d totalWaitMs=%d " +
+                            "stmtCacheHits=%d stmtCacheMisses=%d",
+                    active, idle, maxSize, created, destroyed, borrowed,
+                    waited, timeouts, validationFailures, evicted, totalWaitMillis,
+                    statementCacheHits, statementCacheMisses);
+        }
+    }//end Stats
+}//end ConnectionPool
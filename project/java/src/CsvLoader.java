@@ -0,0 +1,495 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a directory of CSV files laid out like project/data into the
+ * database. create_db.sh runs it through java/scripts/loadData.sh.
+ *
+ * Tables are loaded in waves that respect the foreign keys (Users and
+ * MaintenanceCompany, then Hotel, then Rooms, then the booking, repair and
+ * update logs, then the repair requests). All tables of a wave load in
+ * parallel, and large files are split at line boundaries into chunks loaded
+ * by separate connections. Files are read through memory-mapped channels and
+ * written with batched inserts, one commit per batch. Once everything is
+ * loaded the serial sequences are moved past the largest loaded IDs and the
+ * rollups of create_rollups.sql, whose triggers were off, are recounted.
+ * Before a partitioned table is loaded, the partitions of the dates in its
+ * file are created (create_partitions.sql), so that the rows go straight to
+ * their partition rather than through the default one.
+ */
+public class CsvLoader {
+    enum Type { INT, TEXT, DECIMAL, DATE, TIMESTAMP }
+
+    // a chunk is never smaller than this, so small files load as one chunk
+    private static final long MIN_CHUNK_BYTES = 8L << 20;
+    // nor larger than what one memory mapping can hold
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    /**
+     * How one CSV file maps onto one table.
+     */
+    static class Table {
+        final String name;
+        final String file;
+        final String[] columns;
+        final Type[] types;
+        // the serial column whose sequence is reset after the load, or null
+        final String serialColumn;
+
+        Table(String name, String file, String[] columns, Type[] types, String serialColumn) {
+            this.name = name;
+            this.file = file;
+            this.columns = columns;
+            this.types = types;
+            this.serialColumn = serialColumn;
+        }
+
+        String insertSql() {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(name).append(" (");
+            StringBuilder values = new StringBuilder(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                    values.append(", ");
+                }
+                sql.append(columns[i]);
+                values.append('?');
+            }
+            return sql.append(values).append(')').toString();
+        }
+    }//end Table
+
+    static final Table USERS = new Table("Users", "users.csv",
+            new String[]{"userID", "name", "password", "userType"},
+            new Type[]{Type.INT, Type.TEXT, Type.TEXT, Type.TEXT}, "userID");
+    static final Table COMPANY = new Table("MaintenanceCompany", "company.csv",
+            new String[]{"companyID", "name", "addrress"},
+            new Type[]{Type.INT, Type.TEXT, Type.TEXT}, null);
+    static final Table HOTEL = new Table("Hotel", "hotels.csv",
+            new String[]{"hotelID", "hotelName", "latitude", "longitude", "dateEstablished", "managerUserID"},
+            new Type[]{Type.INT, Type.TEXT, Type.DECIMAL, Type.DECIMAL, Type.DATE, Type.INT}, null);
+    static final Table ROOMS = new Table("Rooms", "rooms.csv",
+            new String[]{"hotelID", "roomNumber", "price", "imageURL"},
+            new Type[]{Type.INT, Type.INT, Type.INT, Type.TEXT}, null);
+    static final Table BOOKINGS = new Table("RoomBookings", "bookings.csv",
+            new String[]{"bookingID", "customerID", "hotelID", "roomNumber", "bookingDate"},
+            new Type[]{Type.INT, Type.INT, Type.INT, Type.INT, Type.DATE}, "bookingID");
+    static final Table REPAIRS = new Table("RoomRepairs", "roomRepairs.csv",
+            new String[]{"repairID", "companyID", "hotelID", "roomNumber", "repairDate"},
+            new Type[]{Type.INT, Type.INT, Type.INT, Type.INT, Type.DATE}, "repairID");
+    static final Table REPAIR_REQUESTS = new Table("RoomRepairRequests", "roomRepairRequests.csv",
+            new String[]{"requestNumber", "managerID", "repairID"},
+            new Type[]{Type.INT, Type.INT, Type.INT}, "requestNumber");
+    static final Table UPDATES_LOG = new Table("RoomUpdatesLog", "roomUpdatesLog.csv",
+            new String[]{"updateNumber", "managerID", "hotelID", "roomNumber", "updatedOn"},
+            new Type[]{Type.INT, Type.INT, Type.INT, Type.INT, Type.TIMESTAMP}, "updateNumber");
+
+    // tables of one wave only reference tables of earlier waves
+    static final Table[][] WAVES = {
+            {USERS, COMPANY},
+            {HOTEL},
+            {ROOMS},
+            {BOOKINGS, REPAIRS, UPDATES_LOG},
+            {REPAIR_REQUESTS}
+    };
+
+    // recounts the rollup tables of create_rollups.sql, which the disabled triggers did not maintain
+    static final String[] ROLLUP_REBUILDS = {
+            "rebuild_customer_hotel_bookings",
+            "rebuild_hotel_daily_bookings"
+    };
+
+    // the tables of create_partitions.sql, their partition column and the
+    // function that creates the partitions of a date range
+    static final String[][] PARTITIONS = {
+            {"RoomBookings", "bookingDate", "ensure_booking_partitions"}
+    };
+
+    private final Hotel esql;
+    private final File dir;
+    private final int threads;
+    private final int batchSize;
+
+    /**
+     * @param esql the database to load into
+     * @param dir the directory holding the CSV files
+     * @param threads the number of chunks loaded at the same time
+     * @param batchSize the number of rows per insert batch and commit
+     */
+    public CsvLoader(Hotel esql, File dir, int threads, int batchSize) {
+        this.esql = esql;
+        this.dir = dir;
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Loads every table whose file exists in the directory, then resets the
+     * sequences. The user triggers of the tables, i.e. the rollup ones, are
+     * disabled while loading, and the rollups recounted afterwards.
+     *
+     * @return the load statistics of each table, in load order
+     * @throws java.lang.Exception when a file cannot be read or a batch cannot be written
+     */
+    public List<TableStats> load() throws Exception {
+        List<TableStats> stats = new ArrayList<TableStats>();
+        ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+        try {
+            for (Table[] wave : WAVES) {
+                Map<Table, TableStats> waveStats = new LinkedHashMap<Table, TableStats>();
+                List<Future<?>> pending = new ArrayList<Future<?>>();
+                for (Table table : wave) {
+                    File file = new File(this.dir, table.file);
+                    if (!file.exists())
+                        continue;
+                    ensurePartitions(table, file);
+                    setUserTriggers(table, false);
+                    TableStats ts = new TableStats(table.name);
+                    waveStats.put(table, ts);
+                    for (long[] chunk : split(file))
+                        pending.add(workers.submit(new ChunkLoader(table, file, chunk[0], chunk[1], ts)));
+                }
+                try {
+                    for (Future<?> f : pending)
+                        f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                } finally {
+                    for (Table table : waveStats.keySet())
+                        setUserTriggers(table, true);
+                }
+                for (TableStats ts : waveStats.values()) {
+                    ts.finish();
+                    stats.add(ts);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        resetSequences();
+        rebuildRollups();
+        return stats;
+    }//end load
+
+    // splits the data lines of a file into chunks that end on a line boundary
+    private List<long[]> split(File file) throws IOException {
+        List<long[]> chunks = new ArrayList<long[]>();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            // skip the header line
+            long start = nextLine(channel, 0, size);
+            long remaining = size - start;
+            int count = (int) Math.max(1, Math.min(this.threads, remaining / MIN_CHUNK_BYTES));
+            long chunkSize = Math.min(MAX_CHUNK_BYTES, (remaining + count - 1) / count);
+            while (start < size) {
+                long end = start + chunkSize >= size ? size : nextLine(channel, start + chunkSize, size);
+                chunks.add(new long[]{start, end});
+                start = end;
+            }
+        } finally {
+            raf.close();
+        }
+        return chunks;
+    }//end split
+
+    // returns the position just after the first newline at or after pos
+    private static long nextLine(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n')
+                    return pos + i + 1;
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    // partitioned tables that are not installed are skipped
+    private void ensurePartitions(Table table, File file) throws IOException, SQLException {
+        for (String[] partitioned : PARTITIONS) {
+            if (!partitioned[0].equals(table.name)
+                    || this.esql.executeQuery(String.format("SELECT 1 WHERE to_regproc('%s') IS NOT NULL", partitioned[2])) == 0)
+                continue;
+            java.sql.Date[] range = dateRange(file, Arrays.asList(table.columns).indexOf(partitioned[1]));
+            if (range != null)
+                this.esql.executeQuery("SELECT " + partitioned[2] + "(?, ?)", range[0], range[1]);
+        }
+    }
+
+    // the first and last date in a column of a file, or null if it has no data lines
+    private static java.sql.Date[] dateRange(File file, int column) throws IOException {
+        java.sql.Date first = null;
+        java.sql.Date last = null;
+        BufferedReader reader = new BufferedReader(new FileReader(file), 1 << 20);
+        try {
+            // skip the header line
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", -1);
+                if (fields.length <= column || fields[column].trim().length() == 0)
+                    continue;
+                java.sql.Date date = parseDate(fields[column].trim());
+                if (first == null || date.before(first))
+                    first = date;
+                if (last == null || date.after(last))
+                    last = date;
+            }
+        } finally {
+            reader.close();
+        }
+        return first == null ? null : new java.sql.Date[]{first, last};
+    }//end dateRange
+
+    // the rollup triggers are replaced by one recount at the end
+    private void setUserTriggers(Table table, boolean enabled) throws SQLException {
+        this.esql.executeUpdate("ALTER TABLE " + table.name + (enabled ? " ENABLE" : " DISABLE") + " TRIGGER USER");
+    }
+
+    // moves every serial sequence past the largest loaded ID; the IdAllocators take their
+    // next blocks from there
+    private void resetSequences() throws SQLException {
+        for (Table[] wave : WAVES) {
+            for (Table table : wave) {
+                if (table.serialColumn == null)
+                    continue;
+                this.esql.executeQuery(String.format(
+                        "SELECT setval(pg_get_serial_sequence('%s', '%s'), " +
+                                "(SELECT COALESCE(MAX(%s), 0) + 1 FROM %s), false)",
+                        table.name.toLowerCase(), table.serialColumn.toLowerCase(), table.serialColumn, table.name));
+            }
+        }
+    }//end resetSequences
+
+    // rollups that are not installed are skipped
+    private void rebuildRollups() throws SQLException {
+        for (String function : ROLLUP_REBUILDS) {
+            if (this.esql.executeQuery(String.format("SELECT 1 WHERE to_regproc('%s') IS NOT NULL", function)) > 0)
+                this.esql.executeQuery("SELECT " + function + "()");
+        }
+    }
+
+    /**
+     * Loads the lines of one chunk of a file on its own connection.
+     */
+    private class ChunkLoader implements Runnable {
+        private final Table table;
+        private final File file;
+        private final long start;
+        private final long end;
+        private final TableStats stats;
+
+        ChunkLoader(Table table, File file, long start, long end, TableStats stats) {
+            this.table = table;
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.stats = stats;
+        }
+
+        public void run() {
+            try {
+                load();
+            } catch (Exception e) {
+                throw new RuntimeException(table.name + ": " + e.getMessage(), e);
+            }
+        }
+
+        private void load() throws IOException, SQLException {
+            RandomAccessFile raf = new RandomAccessFile(this.file, "r");
+            PooledConnection conn = esql.borrowConnection();
+            try {
+                MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                Connection c = conn.getConnection();
+                c.setAutoCommit(false);
+                PreparedStatement stmt = conn.prepare(table.insertSql(), false);
+
+                byte[] line = new byte[256];
+                int len = 0;
+                int pending = 0;
+                long rows = 0;
+                while (true) {
+                    boolean eof = !buf.hasRemaining();
+                    byte b = eof ? (byte) '\n' : buf.get();
+                    if (b == '\n') {
+                        if (len > 0 && line[len - 1] == '\r')
+                            len--;
+                        if (len > 0) {
+                            bindLine(stmt, new String(line, 0, len, StandardCharsets.UTF_8));
+                            stmt.addBatch();
+                            rows++;
+                            if (++pending == batchSize) {
+                                stmt.executeBatch();
+                                c.commit();
+                                pending = 0;
+                            }
+                        }
+                        len = 0;
+                        if (eof)
+                            break;
+                    } else {
+                        if (len == line.length) {
+                            byte[] bigger = new byte[line.length * 2];
+                            System.arraycopy(line, 0, bigger, 0, len);
+                            line = bigger;
+                        }
+                        line[len++] = b;
+                    }
+                }
+                if (pending > 0) {
+                    stmt.executeBatch();
+                    c.commit();
+                }
+                stats.rows.addAndGet(rows);
+            } finally {
+                esql.releaseConnection(conn);
+                raf.close();
+            }
+        }//end load
+
+        private void bindLine(PreparedStatement stmt, String line) throws SQLException {
+            String[] fields = line.split(",", -1);
+            if (fields.length < table.columns.length)
+                throw new SQLException("expected " + table.columns.length + " fields in '" + line + "'");
+            for (int i = 0; i < table.columns.length; i++) {
+                String value = fields[i].trim();
+                int index = i + 1;
+                if (value.length() == 0) {
+                    stmt.setNull(index, Types.VARCHAR);
+                    continue;
+                }
+                switch (table.types[i]) {
+                    case INT:
+                        stmt.setInt(index, Integer.parseInt(value));
+                        break;
+                    case DECIMAL:
+                        stmt.setBigDecimal(index, new BigDecimal(value));
+                        break;
+                    case DATE:
+                        stmt.setDate(index, parseDate(value));
+                        break;
+                    case TIMESTAMP:
+                        stmt.setTimestamp(index, Timestamp.valueOf(value));
+                        break;
+                    default:
+                        stmt.setString(index, value);
+                        break;
+                }
+            }
+        }//end bindLine
+    }//end ChunkLoader
+
+    /**
+     * Parses the M/d/yyyy dates of the data files, or yyyy-MM-dd.
+     */
+    static java.sql.Date parseDate(String value) {
+        int first = value.indexOf('/');
+        if (first < 0)
+            return java.sql.Date.valueOf(value);
+        int second = value.indexOf('/', first + 1);
+        return java.sql.Date.valueOf(value.substring(second + 1) + "-"
+                + value.substring(0, first) + "-" + value.substring(first + 1, second));
+    }
+
+    /**
+     * The rows loaded into one table and how fast.
+     */
+    public static class TableStats {
+        public final String table;
+        final AtomicLong rows = new AtomicLong();
+        private final long start = System.nanoTime();
+        private long millis;
+
+        TableStats(String table) {
+            this.table = table;
+        }
+
+        void finish() {
+            this.millis = Math.max(1L, (System.nanoTime() - start) / 1000000L);
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public String toString() {
+            return String.format("%-20s %10d rows in %7d ms (%.0f rows/s)",
+                    table, rows.get(), millis, rows.get() * 1000.0 / millis);
+        }
+    }//end TableStats
+
+    /**
+     * Loads a data directory from the command line.
+     *
+     * @param args <dbname> <port> <user> <dataDir> [threads] [batchSize]
+     */
+    public static void main(String[] args) {
+        if (args.length < 4 || args.length > 6) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            CsvLoader.class.getName() +
+                            " <dbname> <port> <user> <dataDir> [threads] [batchSize]");
+            return;
+        }
+        Hotel esql = null;
+        try {
+            // use postgres JDBC driver.
+            Class.forName("org.postgresql.Driver").newInstance();
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+            int batchSize = args.length > 5 ? Integer.parseInt(args[5]) : 1000;
+            // one connection per loading thread, plus one to coordinate
+            if (System.getProperty("hotel.pool.maxSize") == null)
+                System.setProperty("hotel.pool.maxSize", Integer.toString(threads + 1));
+            esql = new Hotel(args[0], args[1], args[2], "");
+
+            long start = System.nanoTime();
+            List<TableStats> stats = new CsvLoader(esql, new File(args[3]), threads, batchSize).load();
+            long total = 0;
+            for (TableStats ts : stats) {
+                System.out.println(ts);
+                total += ts.getRows();
+            }
+            System.out.println(String.format("%d rows loaded in %d ms", total, (System.nanoTime() - start) / 1000000L));
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }//end main
+}//end CsvLoader
@@ -0,0 +1,567 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a synthetic data set in the layout of project/data, at any scale,
+ * for CsvLoader to load. Scale 1 is about the size of the bundled data: 20
+ * hotels, 100 users and 500 bookings; every count grows linearly with it.
+ *
+ * The output is a pure function of the seed and the settings. Every row is
+ * derived from a generator seeded by (seed, table, row), so each file is
+ * written in one streaming pass, in parallel with the others, and nothing is
+ * kept in memory beyond one line. The data is skewed the way real traffic is:
+ *
+ * - hotels sit in clusters around a few cities, bigger cities first;
+ * - hotel popularity follows a Zipf law over a shuffled hotel order, so the
+ *   hot hotels are spread over the ID range;
+ * - each room is booked on a day with a probability that follows the hotel's
+ *   popularity and a yearly season peaking in summer, capped at
+ *   hotel.gen.maxOccupancy, so a room is never booked twice on one day;
+ * - a share of the bookings of a hotel (hotel.gen.repeatRate) comes from a
+ *   small set of its regular customers.
+ *
+ * Users are laid out as one admin (userID 1), then the managers, then the
+ * customers. Hot hotels saturate at the occupancy cap, so the number of
+ * bookings written is close to, and never above, the target.
+ */
+public class DataGenerator {
+    // the number of hotels, users, ... at scale 1
+    private static final int HOTELS_PER_SCALE = 20;
+    private static final int USERS_PER_SCALE = 100;
+    private static final int BOOKINGS_PER_SCALE = 500;
+    private static final int REPAIRS_PER_SCALE = 10;
+    private static final int UPDATES_PER_SCALE = 50;
+    private static final int HOTELS_PER_MANAGER = 3;
+    private static final int HOTELS_PER_CITY = 50;
+
+    // tags that keep the generators of different tables apart
+    private static final long HOTEL = 1, ROOM = 2, USER = 3, BOOKING = 4,
+            REPAIR = 5, UPDATE = 6, COMPANY = 7, CITY = 8;
+
+    private static final String NEWLINE = "\r\n";
+
+    private final long seed;
+    private final int hotels;
+    private final int users;
+    private final int managers;
+    private final int companies;
+    private final int cities;
+    private final long bookings;
+    private final int repairs;
+    private final int updates;
+    private final int roomsPerHotel;
+    private final double hotelSkew;
+    private final double citySkew;
+    private final double repeatRate;
+    private final int regularsPerHotel;
+    private final double maxOccupancy;
+    private final double seasonality;
+    private final int firstDay;
+    private final int lastDay;
+    // multiplier of the hotel rank permutation, coprime with hotels
+    private final long rankMultiplier;
+    // the sum of the Zipf weights of all hotels, for normalisation
+    private final double hotelWeights;
+
+    /**
+     * @param scale the scale factor
+     * @param seed the seed; equal seeds and settings give equal output
+     */
+    public DataGenerator(long scale, long seed) {
+        if (scale < 1 || scale * HOTELS_PER_SCALE > Integer.MAX_VALUE / 2
+                || scale * USERS_PER_SCALE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("scale out of range: " + scale);
+        this.seed = seed;
+        this.hotels = (int) (scale * HOTELS_PER_SCALE);
+        this.managers = (this.hotels + HOTELS_PER_MANAGER - 1) / HOTELS_PER_MANAGER;
+        this.users = (int) Math.max(scale * USERS_PER_SCALE, this.managers + 2L);
+        this.companies = (int) Math.max(5, scale / 4);
+        this.cities = Math.max(1, this.hotels / HOTELS_PER_CITY);
+        this.bookings = Long.getLong("hotel.gen.bookings", scale * BOOKINGS_PER_SCALE);
+        this.repairs = (int) Math.min(Integer.MAX_VALUE, scale * REPAIRS_PER_SCALE);
+        this.updates = (int) Math.min(Integer.MAX_VALUE, scale * UPDATES_PER_SCALE);
+        this.roomsPerHotel = Integer.getInteger("hotel.gen.roomsPerHotel", 10);
+        this.hotelSkew = doubleProperty("hotel.gen.hotelSkew", 0.8);
+        this.citySkew = doubleProperty("hotel.gen.citySkew", 1.0);
+        this.repeatRate = doubleProperty("hotel.gen.repeatRate", 0.6);
+        this.regularsPerHotel = Integer.getInteger("hotel.gen.regularsPerHotel", 8);
+        this.maxOccupancy = doubleProperty("hotel.gen.maxOccupancy", 0.95);
+        this.seasonality = doubleProperty("hotel.gen.seasonality", 0.5);
+        this.firstDay = AvailabilityCache.daysFromCivil(Integer.getInteger("hotel.gen.firstYear", 2000), 1, 1);
+        this.lastDay = AvailabilityCache.daysFromCivil(Integer.getInteger("hotel.gen.lastYear", 2018), 12, 31);
+        if (this.roomsPerHotel < 1 || this.lastDay < this.firstDay)
+            throw new IllegalArgumentException("bad hotel.gen.* settings");
+
+        long a = 2654435761L % this.hotels;
+        while (gcd(a, this.hotels) != 1)
+            a++;
+        this.rankMultiplier = a;
+        this.hotelWeights = harmonic(this.hotels, this.hotelSkew);
+    }
+
+    /**
+     * Writes all data files into a directory, one thread per file.
+     *
+     * @param dir the output directory, created if needed
+     * @param threads the number of files written at once
+     * @return the per-file statistics, in the order the files were started
+     */
+    public List<CsvLoader.TableStats> generate(File dir, int threads) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("cannot create " + dir);
+        List<Part> parts = new ArrayList<Part>();
+        parts.add(new Part(dir, "bookings.csv", "bookingID,customerID,hotelID,roomNumber,bookingDate") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeBookings(out, line);
+            }
+        });
+        parts.add(new Part(dir, "users.csv", "userID,name,password,userType") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeUsers(out, line);
+            }
+        });
+        parts.add(new Part(dir, "hotels.csv", "hotelID,hotelName,latitude,longitude,dateEstablished,managerUserID") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeHotels(out, line);
+            }
+        });
+        parts.add(new Part(dir, "rooms.csv", "hotelID,roomNumber,price,imageURL") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeRooms(out, line);
+            }
+        });
+        parts.add(new Part(dir, "roomUpdatesLog.csv", "updateNumber,managerID,hotelID,roomNumber,updatedOn") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeUpdates(out, line);
+            }
+        });
+        parts.add(new Part(dir, "roomRepairs.csv", "repairID,companyID,hotelID,roomNumber,repairDate") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeRepairs(out, line);
+            }
+        });
+        parts.add(new Part(dir, "roomRepairRequests.csv", "requestNumber,managerID,repairID") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeRepairRequests(out, line);
+            }
+        });
+        parts.add(new Part(dir, "company.csv", "companyID,name,address") {
+            long write(Writer out, StringBuilder line) throws IOException {
+                return writeCompanies(out, line);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<CsvLoader.TableStats>> futures = new ArrayList<Future<CsvLoader.TableStats>>();
+            for (Part part : parts)
+                futures.add(executor.submit(part));
+            List<CsvLoader.TableStats> stats = new ArrayList<CsvLoader.TableStats>();
+            for (Future<CsvLoader.TableStats> f : futures)
+                stats.add(f.get());
+            return stats;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }//end generate
+
+    private long writeUsers(Writer out, StringBuilder line) throws IOException {
+        for (int userID = 1; userID <= this.users; userID++) {
+            Rng rng = new Rng(this.seed, USER, userID);
+            String type = userID == 1 ? "admin" : userID <= this.managers + 1 ? "manager" : "customer";
+            line.setLength(0);
+            line.append(userID).append(',');
+            name(rng, line, 3 + rng.nextInt(6), true);
+            line.append(',');
+            name(rng, line, 8, false);
+            line.append(',').append(type).append(NEWLINE);
+            out.append(line);
+        }
+        return this.users;
+    }
+
+    private long writeHotels(Writer out, StringBuilder line) throws IOException {
+        int oldest = AvailabilityCache.daysFromCivil(1950, 1, 1);
+        for (int hotelID = 1; hotelID <= this.hotels; hotelID++) {
+            Rng rng = new Rng(this.seed, HOTEL, hotelID);
+            // pick a city by its size, then scatter the hotel around it
+            Rng city = new Rng(this.seed, CITY, zipf(rng.nextDouble(), this.cities, this.citySkew));
+            double latitude = clamp(10 + city.nextDouble() * 80 + rng.nextGaussian() * 0.5);
+            double longitude = clamp(10 + city.nextDouble() * 80 + rng.nextGaussian() * 0.5);
+            line.setLength(0);
+            line.append(hotelID).append(',');
+            name(rng, line, 4 + rng.nextInt(5), true);
+            line.append(',');
+            fixed(line, latitude);
+            line.append(',');
+            fixed(line, longitude);
+            line.append(',');
+            date(line, oldest + rng.nextInt(this.firstDay - oldest), false);
+            line.append(',').append(managerOf(hotelID)).append(NEWLINE);
+            out.append(line);
+        }
+        return this.hotels;
+    }
+
+    private long writeRooms(Writer out, StringBuilder line) throws IOException {
+        long rows = 0;
+        for (int hotelID = 1; hotelID <= this.hotels; hotelID++) {
+            int basePrice = 500 + new Rng(this.seed, HOTEL, -hotelID).nextInt(1500);
+            int rooms = roomsOf(hotelID);
+            for (int roomNumber = 1; roomNumber <= rooms; roomNumber++) {
+                Rng rng = new Rng(this.seed, ROOM, AvailabilityCache.key(hotelID, roomNumber));
+                line.setLength(0);
+                line.append(hotelID).append(',').append(roomNumber).append(',')
+                        .append(basePrice + rng.nextInt(basePrice / 2 + 1)).append(',');
+                name(rng, line, 4, false);
+                line.append(NEWLINE);
+                out.append(line);
+            }
+            rows += rooms;
+        }
+        return rows;
+    }
+
+    private long writeBookings(Writer out, StringBuilder line) throws IOException {
+        int days = this.lastDay - this.firstDay + 1;
+        long bookingID = 0;
+        for (int hotelID = 1; hotelID <= this.hotels; hotelID++) {
+            int rooms = roomsOf(hotelID);
+            // the probability of a room being booked on an average day, and
+            // the highest probability over the season
+            double mean = this.bookings * zipfWeight(rankOf(hotelID)) / ((double) rooms * days);
+            double peak = Math.min(this.maxOccupancy, mean * (1 + this.seasonality));
+            if (peak <= 0)
+                continue;
+            double logMiss = Math.log(1 - peak);
+            for (int roomNumber = 1; roomNumber <= rooms; roomNumber++) {
+                Rng rng = new Rng(this.seed, BOOKING, AvailabilityCache.key(hotelID, roomNumber));
+                // candidate days at the peak rate, thinned by the season; the
+                // gaps between candidates are geometric, so quiet rooms cost
+                // nothing for the days they are not booked
+                int day = this.firstDay - 1;
+                while (true) {
+                    day += 1 + (peak >= 1 ? 0 : (int) Math.min(days, Math.log(1 - rng.nextDouble()) / logMiss));
+                    if (day > this.lastDay)
+                        break;
+                    double p = Math.min(this.maxOccupancy, mean * season(day));
+                    if (rng.nextDouble() * peak >= p)
+                        continue;
+                    line.setLength(0);
+                    line.append(++bookingID).append(',').append(customerFor(hotelID, rng)).append(',')
+                            .append(hotelID).append(',').append(roomNumber).append(',');
+                    date(line, day, false);
+                    line.append(NEWLINE);
+                    out.append(line);
+                }
+            }
+        }
+        return bookingID;
+    }//end writeBookings
+
+    private long writeRepairs(Writer out, StringBuilder line) throws IOException {
+        int days = this.lastDay - this.firstDay + 1;
+        for (int repairID = 1; repairID <= this.repairs; repairID++) {
+            Rng rng = new Rng(this.seed, REPAIR, repairID);
+            int hotelID = repairHotel(repairID);
+            line.setLength(0);
+            line.append(repairID).append(',').append(1 + rng.nextInt(this.companies)).append(',')
+                    .append(hotelID).append(',').append(1 + rng.nextInt(roomsOf(hotelID))).append(',');
+            date(line, this.firstDay + rng.nextInt(days), false);
+            line.append(NEWLINE);
+            out.append(line);
+        }
+        return this.repairs;
+    }
+
+    private long writeRepairRequests(Writer out, StringBuilder line) throws IOException {
+        // one request per repair, placed by the manager of the repaired hotel
+        for (int repairID = 1; repairID <= this.repairs; repairID++) {
+            line.setLength(0);
+            line.append(repairID).append(',').append(managerOf(repairHotel(repairID))).append(',')
+                    .append(repairID).append(NEWLINE);
+            out.append(line);
+        }
+        return this.repairs;
+    }
+
+    private long writeUpdates(Writer out, StringBuilder line) throws IOException {
+        int days = this.lastDay - this.firstDay + 1;
+        for (int updateNumber = 1; updateNumber <= this.updates; updateNumber++) {
+            Rng rng = new Rng(this.seed, UPDATE, updateNumber);
+            int hotelID = 1 + rng.nextInt(this.hotels);
+            int seconds = rng.nextInt(24 * 60 * 60);
+            line.setLength(0);
+            line.append(updateNumber).append(',').append(managerOf(hotelID)).append(',')
+                    .append(hotelID).append(',').append(1 + rng.nextInt(roomsOf(hotelID))).append(',');
+            date(line, this.firstDay + rng.nextInt(days), true);
+            line.append(' ');
+            pad2(line, seconds / 3600).append(':');
+            pad2(line, seconds / 60 % 60).append(':');
+            pad2(line, seconds % 60).append(NEWLINE);
+            out.append(line);
+        }
+        return this.updates;
+    }
+
+    private long writeCompanies(Writer out, StringBuilder line) throws IOException {
+        for (int companyID = 1; companyID <= this.companies; companyID++) {
+            Rng rng = new Rng(this.seed, COMPANY, companyID);
+            line.setLength(0);
+            line.append(companyID).append(',');
+            name(rng, line, 1 + rng.nextInt(4), true);
+            line.append("-com,");
+            name(rng, line, 4, false);
+            line.append(NEWLINE);
+            out.append(line);
+        }
+        return this.companies;
+    }
+
+    // the number of rooms of a hotel, between half and one and a half times the mean
+    private int roomsOf(int hotelID) {
+        int spread = this.roomsPerHotel / 2;
+        return this.roomsPerHotel - spread + new Rng(this.seed, ROOM, hotelID).nextInt(2 * spread + 1);
+    }
+
+    private int managerOf(int hotelID) {
+        return 2 + (hotelID - 1) % this.managers;
+    }
+
+    private int repairHotel(int repairID) {
+        return 1 + new Rng(this.seed, REPAIR, -repairID).nextInt(this.hotels);
+    }
+
+    // the popularity rank of a hotel, 1 being the most popular
+    private long rankOf(int hotelID) {
+        return 1 + (hotelID - 1) * this.rankMultiplier % this.hotels;
+    }
+
+    private double zipfWeight(long rank) {
+        return Math.pow(rank, -this.hotelSkew) / this.hotelWeights;
+    }
+
+    // a customer booking a hotel: one of its regulars or anybody
+    private int customerFor(int hotelID, Rng rng) {
+        int customers = this.users - this.managers - 1;
+        int first = this.managers + 2;
+        if (rng.nextDouble() < this.repeatRate && this.regularsPerHotel > 0) {
+            Rng regulars = new Rng(this.seed, USER, -AvailabilityCache.key(hotelID, rng.nextInt(this.regularsPerHotel)));
+            return first + regulars.nextInt(customers);
+        }
+        return first + rng.nextInt(customers);
+    }
+
+    // the demand on a day relative to the yearly mean, highest in mid-July
+    private double season(int day) {
+        return 1 + this.seasonality * Math.cos(2 * Math.PI * (day - 196) / 365.25);
+    }
+
+    /**
+     * Draws from a Zipf distribution over 1..n by inverting its continuous
+     * approximation; close enough for skewing test data.
+     */
+    static int zipf(double u, int n, double skew) {
+        if (n == 1)
+            return 1;
+        double x;
+        if (Math.abs(skew - 1) < 1e-9) {
+            x = Math.exp(u * Math.log(n + 1));
+        } else {
+            double top = Math.pow(n + 1, 1 - skew);
+            x = Math.pow(1 + u * (top - 1), 1 / (1 - skew));
+        }
+        return (int) Math.max(1, Math.min(n, (long) x));
+    }
+
+    private static double harmonic(int n, double skew) {
+        double sum = 0;
+        for (int i = n; i >= 1; i--)
+            sum += Math.pow(i, -skew);
+        return sum;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static double clamp(double coordinate) {
+        return Math.max(0, Math.min(99.99999, coordinate));
+    }
+
+    // a random lowercase word, optionally capitalised
+    private static void name(Rng rng, StringBuilder line, int length, boolean capital) {
+        for (int i = 0; i < length; i++) {
+            char c = (char) ('a' + rng.nextInt(26));
+            line.append(i == 0 && capital ? Character.toUpperCase(c) : c);
+        }
+    }
+
+    // a non-negative number with five decimals, without String.format
+    private static void fixed(StringBuilder line, double value) {
+        long v = Math.round(value * 100000);
+        line.append(v / 100000).append('.');
+        String frac = Long.toString(v % 100000);
+        for (int i = frac.length(); i < 5; i++)
+            line.append('0');
+        line.append(frac);
+    }
+
+    // a day counted from 1970-01-01, as M/d/yyyy or as yyyy-MM-dd
+    static void date(StringBuilder line, int day, boolean iso) {
+        // inverse of AvailabilityCache.daysFromCivil
+        int z = day + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int d = doy - (153 * mp + 2) / 5 + 1;
+        int m = mp < 10 ? mp + 3 : mp - 9;
+        int y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        if (iso) {
+            line.append(y).append('-');
+            pad2(line, m).append('-');
+            pad2(line, d);
+        } else {
+            line.append(m).append('/').append(d).append('/').append(y);
+        }
+    }
+
+    private static StringBuilder pad2(StringBuilder line, int value) {
+        if (value < 10)
+            line.append('0');
+        return line.append(value);
+    }
+
+    private static double doubleProperty(String name, double def) {
+        String value = System.getProperty(name);
+        return value == null ? def : Double.parseDouble(value);
+    }
+
+    /**
+     * One output file, written by one thread through a buffered writer.
+     */
+    private abstract static class Part implements java.util.concurrent.Callable<CsvLoader.TableStats> {
+        private final File file;
+        private final String header;
+
+        Part(File dir, String name, String header) {
+            this.file = new File(dir, name);
+            this.header = header;
+        }
+
+        public CsvLoader.TableStats call() throws IOException {
+            CsvLoader.TableStats stats = new CsvLoader.TableStats(this.file.getName());
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(this.file), StandardCharsets.US_ASCII), 1 << 20);
+            try {
+                out.write(this.header);
+                out.write(NEWLINE);
+                stats.rows.set(write(out, new StringBuilder(128)));
+            } finally {
+                out.close();
+            }
+            stats.finish();
+            return stats;
+        }
+
+        abstract long write(Writer out, StringBuilder line) throws IOException;
+    }//end Part
+
+    /**
+     * A small SplitMix64 generator. Seeding it from (seed, table, row) makes
+     * every row independent of the order the rows are written in.
+     */
+    static final class Rng {
+        private long state;
+        private double spareGaussian = Double.NaN;
+
+        Rng(long seed, long table, long row) {
+            this.state = mix(mix(seed ^ (table * 0x9E3779B97F4A7C15L)) + row);
+        }
+
+        long nextLong() {
+            return mix(this.state += 0x9E3779B97F4A7C15L);
+        }
+
+        double nextDouble() {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        int nextInt(int bound) {
+            return (int) ((nextLong() >>> 33) * bound >>> 31);
+        }
+
+        double nextGaussian() {
+            if (!Double.isNaN(this.spareGaussian)) {
+                double g = this.spareGaussian;
+                this.spareGaussian = Double.NaN;
+                return g;
+            }
+            double u = 1 - nextDouble();
+            double v = nextDouble();
+            double r = Math.sqrt(-2 * Math.log(u));
+            this.spareGaussian = r * Math.sin(2 * Math.PI * v);
+            return r * Math.cos(2 * Math.PI * v);
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }//end Rng
+
+    /**
+     * Writes a data set from the command line.
+     *
+     * @param args <outDir> [scale] [seed] [threads]
+     */
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 4) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            DataGenerator.class.getName() +
+                            " <outDir> [scale] [seed] [threads]");
+            return;
+        }
+        try {
+            long scale = args.length > 1 ? Long.parseLong(args[1]) : 1;
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+            int threads = args.length > 3 ? Integer.parseInt(args[3])
+                    : Runtime.getRuntime().availableProcessors();
+            long start = System.nanoTime();
+            for (CsvLoader.TableStats stats : new DataGenerator(scale, seed).generate(new File(args[0]), threads))
+                System.out.println(stats);
+            System.out.println("Generated scale " + scale + " with seed " + seed + " in "
+                    + (System.nanoTime() - start) / 1000000L + " ms");
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }//end main
+}//end DataGenerator
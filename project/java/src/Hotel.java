@@ -11,22 +11,26 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.math.BigDecimal;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.lang.Math;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -40,17 +44,210 @@ public class Hotel {
     System.out.println(p.toString());
      */
 
-    // reference to physical database connection.
-    private Connection _connection = null;
+    // pool of physical database connections shared by all sessions of this process.
+    private ConnectionPool _pool = null;
+
+    // routes the read-only queries to the replicas listed in hotel.replicas, see ReplicaRouter
+    private ReplicaRouter _router = null;
+
+    // number of rows fetched per round trip by executeQueryAndStream
+    private int _fetchSize = Integer.getInteger("hotel.fetchSize", 500);
+
+    // in-memory spatial index over the hotel locations, reloaded once it is
+    // older than hotel.index.refreshMillis or after invalidateHotelIndex()
+    private volatile HotelSpatialIndex _hotelIndex = null;
+    private final long _hotelIndexRefreshMillis = Long.getLong("hotel.index.refreshMillis", 300000L);
+
+    // booked days of every room, reloaded once it is older than
+    // hotel.availability.refreshMillis to pick up bookings made by other processes
+    private volatile AvailabilityCache _availability = null;
+    private final long _availabilityRefreshMillis = Long.getLong("hotel.availability.refreshMillis", 600000L);
+    // the availability bitmaps cover today and this many days after it, about the partitions made at startup
+    private final int _availabilityDaysAhead = Integer.getInteger("hotel.availability.daysAhead", 731);
+
+    // top customers of recently viewed hotels, see RegularCustomersCache
+    private final RegularCustomersCache _regulars = new RegularCustomersCache(this,
+            Integer.getInteger("hotel.regulars.maxHotels", 10000),
+            Long.getLong("hotel.regulars.refreshMillis", 60000L));
+
+    // latest room updates of each manager, see RecentUpdatesBuffer
+    private final RecentUpdatesBuffer _recentUpdates = new RecentUpdatesBuffer(this,
+            Integer.getInteger("hotel.recentUpdates.depth", 5),
+            Integer.getInteger("hotel.recentUpdates.maxManagers", 100000),
+            Long.getLong("hotel.recentUpdates.refreshMillis", 60000L));
+
+    // Hotel and Rooms rows, see CatalogCache
+    private final CatalogCache _catalog = new CatalogCache(this,
+            Integer.getInteger("hotel.catalog.maxHotels", 10000),
+            Integer.getInteger("hotel.catalog.maxRooms", 200000),
+            Long.getLong("hotel.catalog.refreshMillis", 300000L));
+
+    // writes the RoomUpdatesLog records behind the updates with hotel.audit.mode=interval,
+    // see RoomUpdateLogWriter; null in the default commit mode, which logs with the update
+    private final RoomUpdateLogWriter _updateLog = "interval".equals(System.getProperty("hotel.audit.mode", "commit"))
+            ? new RoomUpdateLogWriter(this, this._recentUpdates,
+            Integer.getInteger("hotel.audit.capacity", 10000),
+            Integer.getInteger("hotel.audit.batchSize", 500),
+            Long.getLong("hotel.audit.flushMillis", 100L),
+            Integer.getInteger("hotel.audit.retries", 3))
+            : null;
+
+    // the IDs of new rows, a block per round trip, see IdAllocator
+    private final IdAllocator _userIDs = new IdAllocator(this, "Users", "userID");
+    private final IdAllocator _bookingIDs = new IdAllocator(this, "RoomBookings", "bookingID");
+    private final IdAllocator _updateNumbers = new IdAllocator(this, "RoomUpdatesLog", "updateNumber");
+    private final IdAllocator _repairIDs = new IdAllocator(this, "RoomRepairs", "repairID");
+    private final IdAllocator _requestNumbers = new IdAllocator(this, "RoomRepairRequests", "requestNumber");
+
+    // logged in users, see SessionCache
+    private final SessionCache _sessions = new SessionCache(this,
+            Integer.getInteger("hotel.sessions.max", 100000),
+            Long.getLong("hotel.sessions.ttlMillis", 1800000L));
 
     // handling the keyboard inputs through a BufferedReader
     // This variable can be global for convenience.
     static BufferedReader in = new BufferedReader(
             new InputStreamReader(System.in));
 
+    // the cursor executeQueryAndStream reads a query through, fetchSize rows at a time
+    static final String SQL_DECLARE_STREAM = "DECLARE hotel_stream NO SCROLL CURSOR FOR ";
+    static final String SQL_FETCH_STREAM = "FETCH FORWARD %d FROM hotel_stream";
+
+    // SQL templates issued by the menu functions. They run as cached prepared
+    // statements, so each one is parsed and planned once per connection.
+    // the IDs of the inserts come from an IdAllocator
+    static final String SQL_INSERT_USER =
+            "INSERT INTO USERS (userID, name, password, userType) VALUES (?, ?, ?, ?)";
+    // Use CASE WHEN to check if the room is available on the given date, it works like an if eles statement
+    static final String SQL_ROOMS_ON_DATE =
+            "SELECT R.roomNumber, R.price, " +
+                    "(CASE WHEN RB.bookingID IS NULL THEN 'Available' ELSE 'Not Available' END) AS availability " +
+                    "FROM Rooms R " +
+                    "LEFT JOIN RoomBookings RB ON R.hotelID = RB.hotelID AND R.roomNumber = RB.roomNumber AND RB.bookingDate = ? " +
+                    "WHERE R.hotelID = ?";
+    // the available rooms of the hotels found by a search, for dates the availability
+    // bitmaps do not cover; the hotelIDs are passed closest first as a comma-separated
+    // list, and their position ranks the rooms ahead of the price
+    static final String SQL_SEARCH_ROOMS =
+            "SELECT R.hotelID, R.roomNumber, R.price " +
+                    "FROM unnest(CAST(string_to_array(?, ',') AS integer[])) WITH ORDINALITY AS C(hotelID, rank) " +
+                    "JOIN Rooms R ON R.hotelID = C.hotelID " +
+                    "WHERE R.price <= ? AND NOT EXISTS (" +
+                    "SELECT 1 FROM RoomBookings RB " +
+                    "WHERE RB.hotelID = R.hotelID AND RB.roomNumber = R.roomNumber AND RB.bookingDate = ?) " +
+                    "ORDER BY C.rank, R.price, R.roomNumber LIMIT ?";
+    static final String SQL_ROOM_BOOKED =
+            "SELECT * FROM RoomBookings WHERE hotelID = ? AND roomNumber = ? AND bookingDate = ?";
+    // the catalog has already checked that the room exists and knows its price; the
+    // unique (hotelID, roomNumber, bookingDate) constraint turns a concurrent booking
+    // of the same room and date into a no-op, which inserts no row
+    static final String SQL_BOOK_ROOM =
+            "INSERT INTO RoomBookings (bookingID, customerID, hotelID, roomNumber, bookingDate, price) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (hotelID, roomNumber, bookingDate) DO NOTHING";
+    static final String SQL_MANAGES_HOTEL =
+            "SELECT * FROM Hotel WHERE hotelID = ? AND managerUserID = ?";
+    static final String SQL_ROOM_INFO =
+            "SELECT price, imageURL FROM Rooms WHERE hotelID = ? AND roomNumber = ?";
+    static final String SQL_UPDATE_ROOM =
+            "UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ?";
+    // updates the room and logs the update in one round trip and one transaction;
+    // returns no row if there is no such room
+    static final String SQL_UPDATE_ROOM_AND_LOG =
+            "WITH updated AS (" +
+                    "UPDATE Rooms SET price = ?, imageURL = ? WHERE hotelID = ? AND roomNumber = ? " +
+                    "RETURNING hotelID, roomNumber) " +
+                    "INSERT INTO RoomUpdatesLog (updateNumber, managerID, hotelID, roomNumber, updatedOn) " +
+                    "SELECT CAST(? AS integer), CAST(? AS integer), hotelID, roomNumber, NOW() FROM updated " +
+                    "RETURNING updateNumber, managerID, hotelID, roomNumber, updatedOn";
+    // served by the (managerID, updatedOn) index; the latest updates of a manager are the top of its range
+    static final String SQL_RECENT_UPDATES =
+            "SELECT updateNumber, managerID, hotelID, roomNumber, updatedOn FROM RoomUpdatesLog " +
+                    "WHERE managerID = ? ORDER BY updatedOn DESC, updateNumber DESC LIMIT ?";
+    static final String SQL_RECENT_BOOKINGS =
+            "SELECT RB.hotelID, RB.roomNumber, R.price, RB.bookingDate " +
+                    "FROM RoomBookings RB, Rooms R " +
+                    "WHERE RB.hotelID = R.hotelID AND RB.roomNumber = R.roomNumber AND RB.customerID = ? " +
+                    "ORDER BY RB.bookingDate DESC LIMIT 5";
+    // keyset pagination: a page starts right after the (bookingDate, bookingID) of the
+    // previous one, which the (bookingDate, bookingID) index seeks to directly
+    static final String SQL_BOOKING_HISTORY_PAGE =
+            "SELECT RB.bookingID, U.name, RB.hotelID, RB.roomNumber, RB.bookingDate " +
+                    "FROM RoomBookings RB JOIN Users U ON U.userID = RB.customerID " +
+                    "WHERE RB.bookingDate BETWEEN ? AND ? " +
+                    "AND (RB.bookingDate, RB.bookingID) > (CAST(? AS date), CAST(? AS integer)) " +
+                    "ORDER BY RB.bookingDate, RB.bookingID LIMIT ?";
+    // reads the top of the per-hotel booking counts that create_rollups.sql maintains,
+    // rather than counting every booking the hotel ever had
+    static final String SQL_REGULAR_CUSTOMERS =
+            "SELECT C.customerID, U.name, C.bookings " +
+                    "FROM CustomerHotelBookings C JOIN Users U ON U.userID = C.customerID " +
+                    "WHERE C.hotelID = ? " +
+                    "ORDER BY C.bookings DESC, C.customerID LIMIT 5";
+    // the days of a hotel in the HotelDailyBookings rollup of create_rollups.sql, a primary key range scan
+    static final String SQL_DAILY_BOOKINGS =
+            "SELECT day, bookings, revenue FROM HotelDailyBookings " +
+                    "WHERE hotelID = ? AND day BETWEEN ? AND ? ORDER BY day";
+    // inserts the repair and the request for it as one statement
+    static final String SQL_PLACE_REPAIR_REQUEST =
+            "WITH repair AS (" +
+                    "INSERT INTO RoomRepairs (repairID, companyID, hotelID, roomNumber, repairDate) VALUES (?, ?, ?, ?, ?)) " +
+                    "INSERT INTO RoomRepairRequests (requestNumber, managerID, repairID) VALUES (?, ?, ?)";
+    static final String SQL_REPAIR_HISTORY =
+            "SELECT RR.companyID, RR.hotelID, RR.roomNumber, RR.repairDate " +
+                    "FROM RoomRepairs RR " +
+                    "JOIN RoomRepairRequests RRR ON RR.repairID = RRR.repairID " +
+                    "JOIN Hotel H ON RR.hotelID = H.hotelID " +
+                    "WHERE H.managerUserID = ? " +
+                    "ORDER BY RR.repairDate DESC";
+
+    // creates the booking partitions of this year and the coming ones, see create_partitions.sql
+    static final String SQL_ENSURE_BOOKING_PARTITIONS =
+            "SELECT ensure_booking_partitions(CURRENT_DATE, " +
+                    "CAST(CURRENT_DATE + CAST(? AS integer) * INTERVAL '1 year' AS date))";
+
+    static {
+        // report each SQL template under the name of its constant
+        Metrics.nameStatements(Hotel.class, HotelSpatialIndex.class, AvailabilityCache.class,
+                RecentUpdatesBuffer.class, SessionCache.class, CatalogCache.class, RoomUpdateLogWriter.class,
+                IdAllocator.class, BulkBookingLoader.class, RollupBackfill.class);
+    }
+
+    // latency, call and row counts of each logical operation, named after the menu functions
+    private static final LatencyStats OP_CREATE_USER = Metrics.operation("CreateUser");
+    private static final LatencyStats OP_LOG_IN = Metrics.operation("LogIn");
+    private static final LatencyStats OP_VIEW_HOTELS = Metrics.operation("viewHotels");
+    private static final LatencyStats OP_NEAREST_HOTELS = Metrics.operation("viewHotelsNearest");
+    private static final LatencyStats OP_VIEW_ROOMS = Metrics.operation("viewRooms");
+    private static final LatencyStats OP_SEARCH_ROOMS = Metrics.operation("searchRooms");
+    private static final LatencyStats OP_BOOK_ROOMS = Metrics.operation("bookRooms");
+    private static final LatencyStats OP_UPDATE_ROOM = Metrics.operation("updateRoomInfo");
+    private static final LatencyStats OP_RECENT_UPDATES = Metrics.operation("viewRecentUpdates");
+    private static final LatencyStats OP_RECENT_BOOKINGS = Metrics.operation("viewRecentBookingsfromCustomer");
+    private static final LatencyStats OP_BOOKING_HISTORY = Metrics.operation("viewBookingHistoryofHotel");
+    private static final LatencyStats OP_REGULAR_CUSTOMERS = Metrics.operation("viewRegularCustomers");
+    private static final LatencyStats OP_OCCUPANCY = Metrics.operation("viewOccupancy");
+    private static final LatencyStats OP_REPAIR_REQUEST = Metrics.operation("placeRoomRepairRequests");
+    private static final LatencyStats OP_REPAIR_HISTORY = Metrics.operation("viewRoomRepairHistory");
+
     /**
      * Creates a new instance of Hotel
      *
+     * The connection pool is sized through the system properties
+     * hotel.pool.maxSize, hotel.pool.minIdle, hotel.pool.maxWaitMillis,
+     * hotel.pool.idleTimeoutMillis, hotel.pool.validationIntervalMillis and
+     * hotel.pool.statementCacheSize. With hotel.metrics.dumpSeconds set,
+     * the operation and SQL metrics are printed to stderr at that interval.
+     *
+     * Read-only queries go to the streaming replicas listed in hotel.replicas
+     * as comma-separated host:port or port entries, serving the same database
+     * to the same user, and chosen by hotel.replicas.policy (roundRobin or
+     * leastLatency). Each replica has its own pool of
+     * hotel.replicas.pool.maxSize connections, which waits at most
+     * hotel.replicas.pool.maxWaitMillis for one. The reads of a user or hotel
+     * written within hotel.replicas.stickyMillis go to the primary, and a
+     * replica that fails is skipped for hotel.replicas.downMillis.
+     *
      * @param hostname the MySQL or PostgreSQL server hostname
      * @param database the name of the database
      * @param username the user name used to login to the database
@@ -65,8 +262,18 @@ public class Hotel {
             String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
             System.out.println("Connection URL: " + url + "\n");
 
-            // obtain a physical connection
-            this._connection = DriverManager.getConnection(url, user, passwd);
+            // open the connection pool, this obtains the first physical connection
+            this._pool = new ConnectionPool(url, user, passwd,
+                    Integer.getInteger("hotel.pool.maxSize", 8),
+                    Integer.getInteger("hotel.pool.minIdle", 1),
+                    Long.getLong("hotel.pool.maxWaitMillis", 30000L),
+                    Long.getLong("hotel.pool.idleTimeoutMillis", 600000L),
+                    Long.getLong("hotel.pool.validationIntervalMillis", 30000L),
+                    Integer.getInteger("hotel.pool.statementCacheSize", 64));
+            this._router = openReplicas(dbname, user, passwd);
+            if (this._updateLog != null)
+                this._updateLog.start();
+            Metrics.startDumping(Long.getLong("hotel.metrics.dumpSeconds", 0L) * 1000L, System.err);
             System.out.println("Done");
         } catch (Exception e) {
             System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -75,6 +282,35 @@ public class Hotel {
         }//end catch
     }//end Hotel
 
+    // opens a pool per replica listed in hotel.replicas; none are opened up
+    // front, so a replica that is down is only skipped once a read fails on it
+    private static ReplicaRouter openReplicas(String dbname, String user, String passwd) throws SQLException {
+        List<String> names = new ArrayList<String>();
+        List<ConnectionPool> pools = new ArrayList<ConnectionPool>();
+        for (String replica : System.getProperty("hotel.replicas", "").split(",")) {
+            replica = replica.trim();
+            if (replica.isEmpty())
+                continue;
+            String name = replica.indexOf(':') < 0 ? "localhost:" + replica : replica;
+            String url = "jdbc:postgresql://" + name + "/" + dbname;
+            System.out.println("Replica URL: " + url);
+            names.add(name);
+            pools.add(new ConnectionPool(url, user, passwd,
+                    Integer.getInteger("hotel.replicas.pool.maxSize", Integer.getInteger("hotel.pool.maxSize", 8)),
+                    0,
+                    Long.getLong("hotel.replicas.pool.maxWaitMillis", 1000L),
+                    Long.getLong("hotel.pool.idleTimeoutMillis", 600000L),
+                    Long.getLong("hotel.pool.validationIntervalMillis", 30000L),
+                    Integer.getInteger("hotel.pool.statementCacheSize", 64)));
+        }
+        ReplicaRouter.Policy policy = "leastLatency".equals(System.getProperty("hotel.replicas.policy", "roundRobin"))
+                ? ReplicaRouter.Policy.LEAST_LATENCY : ReplicaRouter.Policy.ROUND_ROBIN;
+        return new ReplicaRouter(names, pools, policy,
+                Long.getLong("hotel.replicas.stickyMillis", 5000L),
+                Long.getLong("hotel.replicas.downMillis", 10000L),
+                Integer.getInteger("hotel.replicas.stickySlots", 65536));
+    }//end openReplicas
+
     // Method to calculate euclidean distance between two latitude, longitude pairs.
     public double calculateDistance(double lat1, double long1, double lat2, double long2) {
         double t1 = (lat1 - lat2) * (lat1 - lat2);
@@ -82,22 +318,724 @@ public class Hotel {
         return Math.sqrt(t1 + t2);
     }
 
+    /**
+     * Returns the spatial index over the hotel locations, loading it from the
+     * Hotel table on first use and whenever it has gone stale.
+     *
+     * @return the current hotel index
+     * @throws java.sql.SQLException when the index cannot be loaded
+     */
+    public HotelSpatialIndex getHotelIndex() throws SQLException {
+        HotelSpatialIndex index = this._hotelIndex;
+        if (index != null && System.currentTimeMillis() - index.getLoadedAt() < this._hotelIndexRefreshMillis)
+            return index;
+        synchronized (this) {
+            index = this._hotelIndex;
+            if (index == null || System.currentTimeMillis() - index.getLoadedAt() >= this._hotelIndexRefreshMillis) {
+                index = HotelSpatialIndex.load(this);
+                this._hotelIndex = index;
+            }
+            return index;
+        }
+    }//end getHotelIndex
+
+    /**
+     * Drops the hotel index so that the next search reloads it, to be called
+     * whenever a hotel is added, moved or removed.
+     */
+    public void invalidateHotelIndex() {
+        this._hotelIndex = null;
+    }
+
+    /**
+     * Finds the hotels within the given distance of a point. The index only
+     * narrows the search down to a bounding box; calculateDistance is the
+     * exact check applied to each candidate.
+     *
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @param radius the maximum distance
+     * @return the matching hotels, closest first
+     * @throws java.sql.SQLException when the index cannot be loaded
+     */
+    public List<HotelSpatialIndex.Match> findHotelsWithin(double latitude, double longitude, double radius) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            List<HotelSpatialIndex.Match> result = hotelsWithin(latitude, longitude, radius);
+            rowCount = result.size();
+            return result;
+        } finally {
+            OP_VIEW_HOTELS.record(System.nanoTime() - start, rowCount);
+        }
+    }//end findHotelsWithin
+
+    private List<HotelSpatialIndex.Match> hotelsWithin(double latitude, double longitude, double radius) throws SQLException {
+        List<HotelSpatialIndex.Entry> candidates = new ArrayList<HotelSpatialIndex.Entry>();
+        getHotelIndex().candidatesWithin(latitude, longitude, radius, candidates);
+
+        List<HotelSpatialIndex.Match> result = new ArrayList<HotelSpatialIndex.Match>(candidates.size());
+        for (HotelSpatialIndex.Entry e : candidates) {
+            double distance = calculateDistance(latitude, longitude, e.latitude, e.longitude);
+            if (distance <= radius)
+                result.add(new HotelSpatialIndex.Match(e, distance));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Finds the k hotels closest to a point.
+     *
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @param k the number of hotels wanted
+     * @return at most k hotels, closest first
+     * @throws java.sql.SQLException when the index cannot be loaded
+     */
+    public List<HotelSpatialIndex.Match> findNearestHotels(double latitude, double longitude, int k) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            List<HotelSpatialIndex.Match> result = nearestHotels(latitude, longitude, k);
+            rowCount = result.size();
+            return result;
+        } finally {
+            OP_NEAREST_HOTELS.record(System.nanoTime() - start, rowCount);
+        }
+    }//end findNearestHotels
+
+    private List<HotelSpatialIndex.Match> nearestHotels(double latitude, double longitude, int k) throws SQLException {
+        List<HotelSpatialIndex.Match> result = new ArrayList<HotelSpatialIndex.Match>(Math.max(k, 0));
+        for (HotelSpatialIndex.Entry e : getHotelIndex().nearest(latitude, longitude, k))
+            result.add(new HotelSpatialIndex.Match(e, calculateDistance(latitude, longitude, e.latitude, e.longitude)));
+        return result;
+    }
+
+    /**
+     * Finds the rooms available on a date in the hotels within the given
+     * distance of a point, in one pass instead of a viewRooms per hotel.
+     *
+     * @param maxPrice the highest price wanted, Integer.MAX_VALUE for any
+     * @param limit the number of rooms wanted
+     * @return at most limit rooms, closest hotel first, then cheapest
+     * @throws java.sql.SQLException when failed to read the rooms
+     */
+    public List<RoomMatch> searchRoomsWithin(double latitude, double longitude, double radius,
+                                             java.sql.Date date, int maxPrice, int limit) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            List<RoomMatch> result = searchRooms(hotelsWithin(latitude, longitude, radius), date, maxPrice, limit);
+            rowCount = result.size();
+            return result;
+        } finally {
+            OP_SEARCH_ROOMS.record(System.nanoTime() - start, rowCount);
+        }
+    }//end searchRoomsWithin
+
+    /**
+     * Finds the rooms available on a date in the k hotels closest to a
+     * point, in one pass instead of a viewRooms per hotel.
+     *
+     * @param maxPrice the highest price wanted, Integer.MAX_VALUE for any
+     * @param limit the number of rooms wanted
+     * @return at most limit rooms, closest hotel first, then cheapest
+     * @throws java.sql.SQLException when failed to read the rooms
+     */
+    public List<RoomMatch> searchRoomsNearest(double latitude, double longitude, int k,
+                                              java.sql.Date date, int maxPrice, int limit) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            List<RoomMatch> result = searchRooms(nearestHotels(latitude, longitude, k), date, maxPrice, limit);
+            rowCount = result.size();
+            return result;
+        } finally {
+            OP_SEARCH_ROOMS.record(System.nanoTime() - start, rowCount);
+        }
+    }//end searchRoomsNearest
+
+    // the hotels a search reads from the catalog at a time
+    private static final int SEARCH_CHUNK = 32;
+
+    // Ranks the available rooms of hotels given closest first. When the availability
+    // bitmaps cover the date this is a pass over the catalog cache, which reads the
+    // hotels it misses a chunk at a time and stops once the limit is reached; otherwise
+    // it is one query.
+    private List<RoomMatch> searchRooms(List<HotelSpatialIndex.Match> hotels, java.sql.Date date,
+                                        int maxPrice, int limit) throws SQLException {
+        List<RoomMatch> result = new ArrayList<RoomMatch>();
+        if (hotels.isEmpty() || limit < 1)
+            return result;
+        AvailabilityCache availability = getAvailability();
+        int day = AvailabilityCache.epochDay(date);
+        if (!availability.covers(day)) {
+            StringBuilder hotelIDs = new StringBuilder();
+            Map<Integer, HotelSpatialIndex.Match> byID = new HashMap<Integer, HotelSpatialIndex.Match>();
+            for (HotelSpatialIndex.Match match : hotels) {
+                hotelIDs.append(hotelIDs.length() == 0 ? "" : ",").append(match.hotel.hotelID);
+                byID.put(match.hotel.hotelID, match);
+            }
+            for (List<String> row : executeReadQueryAndReturnResult(ReplicaRouter.NO_KEY, SQL_SEARCH_ROOMS,
+                    hotelIDs.toString(), maxPrice, date, limit)) {
+                HotelSpatialIndex.Match match = byID.get(Integer.parseInt(row.get(0).trim()));
+                result.add(new RoomMatch(match.hotel.hotelID, match.hotel.hotelName,
+                        Integer.parseInt(row.get(1).trim()), Integer.parseInt(row.get(2).trim()), match.distance));
+            }
+            Collections.sort(result);
+            return result;
+        }
+
+        // the hotels after one that completes the limit rank behind every room found so far
+        int next = 0;
+        while (next < hotels.size()
+                && (result.size() < limit || hotels.get(next).distance <= hotels.get(next - 1).distance)) {
+            int[] chunk = new int[Math.min(SEARCH_CHUNK, hotels.size() - next)];
+            for (int i = 0; i < chunk.length; i++)
+                chunk[i] = hotels.get(next + i).hotel.hotelID;
+            CatalogCache.HotelRow[] rows = this._catalog.hotels(chunk);
+            for (int i = 0; i < chunk.length; i++) {
+                HotelSpatialIndex.Match match = hotels.get(next + i);
+                if (rows[i] == null)
+                    continue;
+                for (CatalogCache.RoomRow room : rows[i].rooms) {
+                    if (room.price <= maxPrice && !availability.isBooked(match.hotel.hotelID, room.roomNumber, day))
+                        result.add(new RoomMatch(match.hotel.hotelID, match.hotel.hotelName,
+                                room.roomNumber, room.price, match.distance));
+                }
+            }
+            next += chunk.length;
+        }
+        Collections.sort(result);
+        return result.size() > limit ? new ArrayList<RoomMatch>(result.subList(0, limit)) : result;
+    }//end searchRooms
+
+    /**
+     * Returns the per-room availability bitmaps of the next
+     * hotel.availability.daysAhead days (731 by default), loading them from
+     * RoomBookings on first use and whenever they have gone stale.
+     *
+     * @return the current availability cache
+     * @throws java.sql.SQLException when the bookings cannot be loaded
+     */
+    public AvailabilityCache getAvailability() throws SQLException {
+        AvailabilityCache cache = this._availability;
+        if (cache != null && System.currentTimeMillis() - cache.getLoadedAt() < this._availabilityRefreshMillis)
+            return cache;
+        synchronized (this) {
+            cache = this._availability;
+            if (cache == null || System.currentTimeMillis() - cache.getLoadedAt() >= this._availabilityRefreshMillis) {
+                cache = AvailabilityCache.load(this, this._availabilityDaysAhead);
+                this._availability = cache;
+            }
+            return cache;
+        }
+    }//end getAvailability
+
+    /**
+     * Checks whether a room is booked on a date, from the availability
+     * bitmaps when they cover the date and from RoomBookings otherwise.
+     *
+     * @return true if the room is already booked on that date
+     * @throws java.sql.SQLException when the database has to be asked and fails
+     */
+    public boolean isRoomBooked(int hotelID, int roomNumber, java.sql.Date date) throws SQLException {
+        AvailabilityCache availability = getAvailability();
+        int day = AvailabilityCache.epochDay(date);
+        if (availability.covers(day))
+            return availability.isBooked(hotelID, roomNumber, day);
+        return executeQuery(SQL_ROOM_BOOKED, hotelID, roomNumber, date) > 0;
+    }
+
+    /**
+     * Returns a room from the catalog cache, which reads it on a miss.
+     *
+     * @return the room, or null if there is no such room
+     * @throws java.sql.SQLException when the room has to be read and cannot be
+     */
+    public CatalogCache.RoomRow findRoom(int hotelID, int roomNumber) throws SQLException {
+        return this._catalog.room(hotelID, roomNumber);
+    }
+
+    /**
+     * @return the size and hit ratio of the Hotel and Rooms cache
+     */
+    public CatalogCache getCatalog() {
+        return this._catalog;
+    }
+
+    /**
+     * @return the queue of RoomUpdatesLog records written behind, or null
+     * when they are written with the updates
+     */
+    public RoomUpdateLogWriter getUpdateLog() {
+        return this._updateLog;
+    }
+
+    /**
+     * Lists the rooms of a hotel with their price and availability on a date.
+     * When the availability bitmaps cover the date, both the rooms and their
+     * availability come from memory.
+     *
+     * @param hotelID the hotel
+     * @param date the date to check
+     * @return one record of roomNumber, price and "Available"/"Not Available" per room
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> findRooms(int hotelID, java.sql.Date date) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            AvailabilityCache availability = getAvailability();
+            int day = AvailabilityCache.epochDay(date);
+            List<List<String>> rooms;
+            if (!availability.covers(day)) {
+                rooms = executeReadQueryAndReturnResult(ReplicaRouter.hotel(hotelID), SQL_ROOMS_ON_DATE, date, hotelID);
+            } else {
+                CatalogCache.HotelRow hotel = this._catalog.hotel(hotelID);
+                rooms = new ArrayList<List<String>>();
+                for (CatalogCache.RoomRow room : hotel == null ? new CatalogCache.RoomRow[0] : hotel.rooms) {
+                    boolean booked = availability.isBooked(hotelID, room.roomNumber, day);
+                    rooms.add(new ArrayList<String>(Arrays.asList(String.valueOf(room.roomNumber),
+                            String.valueOf(room.price), booked ? "Not Available" : "Available")));
+                }
+            }
+            rowCount = rooms.size();
+            return rooms;
+        } finally {
+            OP_VIEW_ROOMS.record(System.nanoTime() - start, rowCount);
+        }
+    }//end findRooms
+
+    /**
+     * Books a room for a customer as a single atomic statement. The catalog
+     * cache rejects unknown rooms and supplies the price, the availability
+     * bitmaps reject rooms known to be taken, both without a round trip, and
+     * the bitmaps are updated with the outcome of the insert.
+     *
+     * @param customerID the customer making the booking
+     * @param hotelID the hotel
+     * @param roomNumber the room
+     * @param date the booking date
+     * @return whether the room was booked, with the bookingID and price
+     * @throws java.sql.SQLException when failed to execute the booking
+     */
+    public BookingResult bookRoom(int customerID, int hotelID, int roomNumber, java.sql.Date date) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            BookingResult booking = book(customerID, hotelID, roomNumber, date);
+            rowCount = booking.isBooked() ? 1 : 0;
+            return booking;
+        } finally {
+            OP_BOOK_ROOMS.record(System.nanoTime() - start, rowCount);
+        }
+    }//end bookRoom
+
+    private BookingResult book(int customerID, int hotelID, int roomNumber, java.sql.Date date) throws SQLException {
+        AvailabilityCache availability = getAvailability();
+        int day = AvailabilityCache.epochDay(date);
+        if (availability.covers(day) && availability.isBooked(hotelID, roomNumber, day))
+            return new BookingResult(BookingResult.Status.NOT_AVAILABLE, 0, 0);
+
+        CatalogCache.RoomRow room = this._catalog.room(hotelID, roomNumber);
+        if (room == null)
+            return new BookingResult(BookingResult.Status.NO_SUCH_ROOM, 0, 0);
+
+        int bookingID = this._bookingIDs.next();
+        this._router.noteWrite(ReplicaRouter.user(customerID));
+        this._router.noteWrite(ReplicaRouter.hotel(hotelID));
+        int inserted = executeUpdate(SQL_BOOK_ROOM, bookingID, customerID, hotelID, roomNumber, date, room.price);
+        // either we booked it or someone else did
+        availability.markBooked(hotelID, roomNumber, day);
+        if (inserted == 0)
+            return new BookingResult(BookingResult.Status.NOT_AVAILABLE, 0, room.price);
+        this._regulars.recordBooking(hotelID, customerID);
+        return new BookingResult(BookingResult.Status.BOOKED, bookingID, room.price);
+    }//end book
+
+    /**
+     * Creates a customer account.
+     *
+     * @param name the name of the user
+     * @param password the password of the user
+     * @return the userID of the new user
+     * @throws java.sql.SQLException when failed to insert the user
+     */
+    public int createUser(String name, String password) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            int userID = this._userIDs.next();
+            this._router.noteWrite(ReplicaRouter.user(userID));
+            rowCount = executeUpdate(SQL_INSERT_USER, userID, name, password, "Customer");
+            return userID;
+        } finally {
+            OP_CREATE_USER.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Checks the credentials of a user and opens a session that carries the
+     * user type and managed hotels, so later checks need no query.
+     *
+     * @param userID the user
+     * @param password the password given by the user
+     * @return the session, or null if the credentials do not match
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Session logIn(int userID, String password) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            Session session = this._sessions.logIn(userID, password);
+            rowCount = session == null ? 0 : 1;
+            return session;
+        } finally {
+            OP_LOG_IN.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Checks credentials sent with every request, through the session cached
+     * for them if there is one.
+     *
+     * @return the session, or null if the credentials do not match
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Session authenticate(int userID, String password) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            Session session = this._sessions.authenticate(userID, password);
+            rowCount = session == null ? 0 : 1;
+            return session;
+        } finally {
+            OP_LOG_IN.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * @return the live session of a token, or null if it is unknown or expired
+     */
+    public Session session(String token) {
+        return this._sessions.get(token);
+    }
+
+    /**
+     * Ends the session of a token.
+     */
+    public void logOut(String token) {
+        this._sessions.logOut(token);
+    }
+
+    /**
+     * Asks the database whether a user manages a hotel. Logged in users are
+     * checked with Session.manages() instead.
+     *
+     * @return true if the user is the manager of the hotel
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public boolean managesHotel(int managerID, int hotelID) throws SQLException {
+        return executeQuery(SQL_MANAGES_HOTEL, hotelID, managerID) > 0;
+    }
+
+    /**
+     * Changes the price and image of a room and logs the update. The caller
+     * checks that the manager manages the hotel.
+     *
+     * By default the log record is written by the same statement as the
+     * update. With hotel.audit.mode=interval it is queued and written
+     * behind, within hotel.audit.flushMillis; this only waits on the log
+     * when the queue is full.
+     *
+     * @return false if there is no such room
+     * @throws java.sql.SQLException when failed to execute the update, or
+     * to flush a full log queue after the room was updated
+     */
+    public boolean updateRoom(int managerID, int hotelID, int roomNumber, int price, String imageURL) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            this._router.noteWrite(ReplicaRouter.user(managerID));
+            this._router.noteWrite(ReplicaRouter.hotel(hotelID));
+            if (this._updateLog != null) {
+                rowCount = executeUpdate(SQL_UPDATE_ROOM, price, imageURL, hotelID, roomNumber);
+                this._catalog.invalidateRoom(hotelID, roomNumber);
+                if (rowCount == 0)
+                    return false;
+                this._updateLog.append(this._updateNumbers.next(), managerID, hotelID, roomNumber);
+                return true;
+            }
+            List<List<String>> logged = executeQueryAndReturnResult(SQL_UPDATE_ROOM_AND_LOG,
+                    price, imageURL, hotelID, roomNumber, this._updateNumbers.next(), managerID);
+            this._catalog.invalidateRoom(hotelID, roomNumber);
+            rowCount = logged.size();
+            if (rowCount == 0)
+                return false;
+            this._recentUpdates.record(logged.get(0).toArray(new String[5]));
+            return true;
+        } finally {
+            OP_UPDATE_ROOM.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Finds the latest room updates made by a manager, 5 unless
+     * hotel.recentUpdates.depth says otherwise.
+     *
+     * @return records of updateNumber, managerID, hotelID, roomNumber and updatedOn, latest first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> findRecentUpdates(int managerID) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            // a manager sees their own updates even before the interval is up
+            if (this._updateLog != null && this._updateLog.getDepth() > 0)
+                this._updateLog.flush();
+            List<List<String>> result = this._recentUpdates.get(managerID);
+            rowCount = result.size();
+            return result;
+        } finally {
+            OP_RECENT_UPDATES.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Finds the 5 latest bookings of a customer.
+     *
+     * @return records of hotelID, roomNumber, price and bookingDate, latest first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> findRecentBookings(int customerID) throws SQLException {
+        return timed(OP_RECENT_BOOKINGS, ReplicaRouter.user(customerID), SQL_RECENT_BOOKINGS, customerID);
+    }
+
+    /**
+     * Finds one page of the bookings made between two dates, in date order.
+     *
+     * @param after the token of the previous page, or null for the first page
+     * @param pageSize the number of bookings per page
+     * @return the bookings of the page and the token of the next one
+     * @throws IllegalArgumentException when the token is not one returned by this method
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public BookingHistoryPage findBookingHistoryPage(java.sql.Date begin, java.sql.Date end, String after, int pageSize)
+            throws SQLException {
+        // the first page starts before any booking of the first day
+        Object[] key = after == null ? new Object[]{begin, Integer.MIN_VALUE} : BookingHistoryPage.parse(after);
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            // one extra row tells whether there is a next page
+            List<List<String>> bookings = executeReadQueryAndReturnResult(ReplicaRouter.NO_KEY,
+                    SQL_BOOKING_HISTORY_PAGE, begin, end, key[0], key[1], pageSize + 1);
+            String next = null;
+            if (bookings.size() > pageSize) {
+                bookings = bookings.subList(0, pageSize);
+                List<String> last = bookings.get(pageSize - 1);
+                next = BookingHistoryPage.token(last.get(4), last.get(0));
+            }
+            rowCount = bookings.size();
+            return new BookingHistoryPage(bookings, next);
+        } finally {
+            OP_BOOKING_HISTORY.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Streams the repairs requested for the hotels of a manager, latest first,
+     * as rows of companyID, hotelID, roomNumber and repairDate.
+     *
+     * @return the number of rows handed to the handler
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int streamRepairHistory(int managerID, RowHandler handler) throws SQLException {
+        return timedStream(OP_REPAIR_HISTORY, ReplicaRouter.user(managerID), SQL_REPAIR_HISTORY, handler, managerID);
+    }
+
+    /**
+     * Records a repair of a room dated today, together with the manager's
+     * request for it, as one statement. The caller checks that the manager
+     * manages the hotel.
+     *
+     * @return the repairID of the new repair
+     * @throws java.sql.SQLException when failed to insert the repair
+     */
+    public int placeRepairRequest(int managerID, int companyID, int hotelID, int roomNumber) throws SQLException {
+        java.sql.Date today = new java.sql.Date(System.currentTimeMillis());
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            int repairID = this._repairIDs.next();
+            this._router.noteWrite(ReplicaRouter.user(managerID));
+            rowCount = executeUpdate(SQL_PLACE_REPAIR_REQUEST, repairID, companyID, hotelID, roomNumber, today,
+                    this._requestNumbers.next(), managerID, repairID);
+            return repairID;
+        } finally {
+            OP_REPAIR_REQUEST.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Finds the customers with the most bookings in a hotel.
+     *
+     * @param hotelID the hotel
+     * @return up to 5 records of userID, name and number of bookings, most bookings first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> findRegularCustomers(int hotelID) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            List<List<String>> result = this._regulars.get(hotelID);
+            rowCount = result.size();
+            return result;
+        } finally {
+            OP_REGULAR_CUSTOMERS.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Reports the bookings, revenue and occupancy of a hotel between two
+     * dates, per day, month or year. The days come from the HotelDailyBookings
+     * rollup and are summed while they are streamed, so a range of years
+     * reads a few thousand rows whatever the number of bookings.
+     *
+     * @param hotelID the hotel
+     * @param begin the first day of the range
+     * @param end the last day of the range
+     * @param period the periods the range is cut into
+     * @return the report, or null if there is no such hotel
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public OccupancyReport findOccupancy(int hotelID, java.sql.Date begin, java.sql.Date end,
+                                         OccupancyReport.Period period) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            CatalogCache.HotelRow hotel = this._catalog.hotel(hotelID);
+            if (hotel == null) {
+                rowCount = 0;
+                return null;
+            }
+            final OccupancyReport.Builder report = new OccupancyReport.Builder(hotelID, hotel.hotelName,
+                    hotel.rooms.length, begin, end, period);
+            RowHandler days = new RowHandler() {
+                public boolean handle(ResultRow row) throws SQLException {
+                    report.add(row.getDate(1), row.getLong(2), row.getLong(3));
+                    return true;
+                }
+            };
+            rowCount = executeReadQueryAndStream(ReplicaRouter.hotel(hotelID), SQL_DAILY_BOOKINGS, days,
+                    hotelID, begin, end);
+            return report.build();
+        } finally {
+            OP_OCCUPANCY.record(System.nanoTime() - start, rowCount);
+        }
+    }//end findOccupancy
+
+    /**
+     * @return the in-memory top customers, for loaders that change bookings
+     * behind the methods of this class
+     */
+    public RegularCustomersCache getRegularCustomers() {
+        return this._regulars;
+    }
+
+    // runs a single read-only query operation, recording it under the given operation stats
+    private List<List<String>> timed(LatencyStats operation, long key, String query, Object... params)
+            throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            List<List<String>> result = executeReadQueryAndReturnResult(key, query, params);
+            rowCount = result.size();
+            return result;
+        } finally {
+            operation.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    // streams a single read-only query operation, recording it under the given operation stats
+    private int timedStream(LatencyStats operation, long key, String query, RowHandler handler, Object... params)
+            throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            rowCount = executeReadQueryAndStream(key, query, handler, params);
+            return rowCount;
+        } finally {
+            operation.record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Prepares the in-memory caches so that the first searches are fast, and
+     * the booking partitions of the next hotel.partitions.yearsAhead years
+     * (2 by default) so that new bookings do not go to the default partition.
+     *
+     * Nothing here is needed to start: a step that fails is reported on
+     * standard error and skipped, and its cache is loaded on first use.
+     */
+    public void warmUp() {
+        try {
+            // databases created without create_partitions.sql have no partitions to create
+            if (executeQuery("SELECT 1 WHERE to_regproc('ensure_booking_partitions') IS NOT NULL") > 0)
+                executeQuery(SQL_ENSURE_BOOKING_PARTITIONS, Integer.getInteger("hotel.partitions.yearsAhead", 2));
+        } catch (SQLException e) {
+            System.err.println("Booking partitions not created: " + e.getMessage());
+        }
+        try {
+            getHotelIndex();
+        } catch (SQLException e) {
+            System.err.println("Hotel index not loaded, it will be on first search: " + e.getMessage());
+        }
+        try {
+            getAvailability();
+        } catch (SQLException e) {
+            System.err.println("Availability not loaded, it will be on first use: " + e.getMessage());
+        }
+        try {
+            this._recentUpdates.warmUp();
+        } catch (SQLException e) {
+            System.err.println("Recent updates not loaded, they will be per manager: " + e.getMessage());
+        }
+    }//end warmUp
+
     /**
      * Method to execute an update SQL statement.  Update SQL instructions
      * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
      *
-     * @param sql the input SQL string
+     * @param sql the input SQL string, with ? placeholders for the parameters
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows affected
      * @throws java.sql.SQLException when update failed
      */
-    public void executeUpdate(String sql) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
-
-        // issues the update instruction
-        stmt.executeUpdate(sql);
-
-        // close the instruction
-        stmt.close();
+    public int executeUpdate(String sql, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        PooledConnection conn = null;
+        try {
+            conn = this._pool.borrow();
+            // fetches the cached prepared statement and binds the parameters
+            PreparedStatement stmt = conn.prepare(sql);
+            bind(stmt, params);
+
+            // issues the update instruction
+            rowCount = stmt.executeUpdate();
+            return rowCount;
+        } catch (SQLException e) {
+            if (conn != null)
+                conn.evict(sql);
+            throw e;
+        } finally {
+            if (conn != null)
+                this._pool.release(conn);
+            Metrics.sql(sql).record(System.nanoTime() - start, rowCount);
+        }
     }//end executeUpdate
 
     /**
@@ -105,42 +1043,61 @@ public class Hotel {
      * method issues the query to the DBMS and outputs the results to
      * standard out.
      *
-     * @param query the input query string
+     * @param query the input query string, with ? placeholders for the parameters
+     * @param params the values bound to the placeholders, in order
      * @return the number of rows returned
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public int executeQueryAndPrintResult(String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
-
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery(query);
-
-        /*
-         ** obtains the metadata object for the returned result set.  The metadata
-         ** contains row and column info.
-         */
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int numCol = rsmd.getColumnCount();
-        int rowCount = 0;
-
-        // iterates through the result set and output them to standard out.
-        boolean outputHeader = true;
-        while (rs.next()) {
-            if (outputHeader) {
-                for (int i = 1; i <= numCol; i++) {
-                    System.out.print(rsmd.getColumnName(i) + "\t");
-                }
-                System.out.println();
-                outputHeader = false;
-            }
-            for (int i = 1; i <= numCol; ++i)
-                System.out.print(rs.getString(i) + "\t");
-            System.out.println();
-            ++rowCount;
-        }//end while
-        stmt.close();
-        return rowCount;
+    public int executeQueryAndPrintResult(String query, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        PooledConnection conn = null;
+        try {
+            conn = this._pool.borrow();
+            // fetches the cached prepared statement and binds the parameters
+            PreparedStatement stmt = conn.prepare(query);
+            bind(stmt, params);
+
+            // issues the query instruction
+            ResultSet rs = stmt.executeQuery();
+            try {
+                /*
+                 ** obtains the metadata object for the returned result set.  The metadata
+                 ** contains row and column info.
+                 */
+                ResultSetMetaData rsmd = rs.getMetaData();
+                int numCol = rsmd.getColumnCount();
+                int rows = 0;
+
+                // iterates through the result set and output them to standard out.
+                boolean outputHeader = true;
+                while (rs.next()) {
+                    if (outputHeader) {
+                        for (int i = 1; i <= numCol; i++) {
+                            System.out.print(rsmd.getColumnName(i) + "\t");
+                        }
+                        System.out.println();
+                        outputHeader = false;
+                    }
+                    for (int i = 1; i <= numCol; ++i)
+                        System.out.print(rs.getString(i) + "\t");
+                    System.out.println();
+                    ++rows;
+                }//end while
+                rowCount = rows;
+                return rows;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            if (conn != null)
+                conn.evict(query);
+            throw e;
+        } finally {
+            if (conn != null)
+                this._pool.release(conn);
+            Metrics.sql(query).record(System.nanoTime() - start, rowCount);
+        }
     }//end executeQuery
 
     /**
@@ -148,100 +1105,361 @@ public class Hotel {
      * method issues the query to the DBMS and returns the results as
      * a list of records. Each record in turn is a list of attribute values
      *
-     * @param query the input query string
+     * @param query the input query string, with ? placeholders for the parameters
+     * @param params the values bound to the placeholders, in order
      * @return the query result as a list of records
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public List<List<String>> executeQueryAndReturnResult(String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
-
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery(query);
-
-        /*
-         ** obtains the metadata object for the returned result set.  The metadata
-         ** contains row and column info.
-         */
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int numCol = rsmd.getColumnCount();
-        int rowCount = 0;
-
-        // iterates through the result set and saves the data returned by the query.
-        boolean outputHeader = false;
-        List<List<String>> result = new ArrayList<List<String>>();
-        while (rs.next()) {
-            List<String> record = new ArrayList<String>();
-            for (int i = 1; i <= numCol; ++i)
-                record.add(rs.getString(i));
-            result.add(record);
-        }//end while
-        stmt.close();
-        return result;
+    public List<List<String>> executeQueryAndReturnResult(String query, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        PooledConnection conn = null;
+        try {
+            conn = this._pool.borrow();
+            List<List<String>> result = returnResult(conn, query, params);
+            rowCount = result.size();
+            return result;
+        } finally {
+            if (conn != null)
+                this._pool.release(conn);
+            Metrics.sql(query).record(System.nanoTime() - start, rowCount);
+        }
     }//end executeQueryAndReturnResult
 
+    /**
+     * Runs a read-only query like executeQueryAndReturnResult, on a replica
+     * when one is configured and up, see ReplicaRouter. A read that fails
+     * on the replica runs again on the primary.
+     *
+     * @param key the user or hotel the read is about, so that it goes to the
+     * primary after a write under the same key, or ReplicaRouter.NO_KEY
+     * @param query the input query string, with ? placeholders for the parameters
+     * @param params the values bound to the placeholders, in order
+     * @return the query result as a list of records
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<List<String>> executeReadQueryAndReturnResult(long key, final String query, final Object... params)
+            throws SQLException {
+        return this._router.read(key, new ReplicaRouter.Read<List<List<String>>>() {
+            public List<List<String>> onReplica(PooledConnection conn) throws SQLException {
+                long start = System.nanoTime();
+                int rowCount = -1;
+                try {
+                    List<List<String>> result = returnResult(conn, query, params);
+                    rowCount = result.size();
+                    return result;
+                } finally {
+                    Metrics.sql(query).record(System.nanoTime() - start, rowCount);
+                }
+            }
+
+            public List<List<String>> onPrimary() throws SQLException {
+                return executeQueryAndReturnResult(query, params);
+            }
+
+            public boolean isStarted() {
+                return false;
+            }
+        });
+    }//end executeReadQueryAndReturnResult
+
+    // runs a query on a borrowed connection and returns its records
+    private static List<List<String>> returnResult(PooledConnection conn, String query, Object[] params)
+            throws SQLException {
+        try {
+            // fetches the cached prepared statement and binds the parameters
+            PreparedStatement stmt = conn.prepare(query);
+            bind(stmt, params);
+
+            // issues the query instruction
+            ResultSet rs = stmt.executeQuery();
+            try {
+                /*
+                 ** obtains the metadata object for the returned result set.  The metadata
+                 ** contains row and column info.
+                 */
+                ResultSetMetaData rsmd = rs.getMetaData();
+                int numCol = rsmd.getColumnCount();
+
+                // iterates through the result set and saves the data returned by the query.
+                List<List<String>> result = new ArrayList<List<String>>();
+                while (rs.next()) {
+                    List<String> record = new ArrayList<String>();
+                    for (int i = 1; i <= numCol; ++i)
+                        record.add(rs.getString(i));
+                    result.add(record);
+                }//end while
+                return result;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            conn.evict(query);
+            throw e;
+        }
+    }//end returnResult
+
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT).  This
      * method issues the query to the DBMS and returns the number of results
      *
-     * @param query the input query string
+     * @param query the input query string, with ? placeholders for the parameters
+     * @param params the values bound to the placeholders, in order
      * @return the number of rows returned
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public int executeQuery(String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
+    public int executeQuery(String query, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        PooledConnection conn = null;
+        try {
+            conn = this._pool.borrow();
+            // fetches the cached prepared statement and binds the parameters
+            PreparedStatement stmt = conn.prepare(query);
+            bind(stmt, params);
 
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery(query);
+            // issues the query instruction
+            ResultSet rs = stmt.executeQuery();
+            try {
+                int rows = 0;
+
+                // iterates through the result set and count number of results.
+                while (rs.next()) {
+                    rows++;
+                }//end while
+                rowCount = rows;
+                return rows;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            if (conn != null)
+                conn.evict(query);
+            throw e;
+        } finally {
+            if (conn != null)
+                this._pool.release(conn);
+            Metrics.sql(query).record(System.nanoTime() - start, rowCount);
+        }
+    }
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT) through
+     * a server-side cursor. Rows are fetched fetchSize at a time and pushed
+     * to the handler through a reusable typed row view, so memory stays flat
+     * no matter how many rows the query returns.
+     *
+     * @param query the input query string, with ? placeholders for the parameters
+     * @param handler receives each row, and may stop the stream early
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows handed to the handler
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryAndStream(String query, RowHandler handler, Object... params) throws SQLException {
+        long start = System.nanoTime();
+        int rowCount = -1;
+        PooledConnection conn = null;
+        try {
+            conn = this._pool.borrow();
+            rowCount = stream(conn, query, handler, params);
+            return rowCount;
+        } finally {
+            if (conn != null)
+                this._pool.release(conn);
+            Metrics.sql(query).record(System.nanoTime() - start, rowCount);
+        }
+    }//end executeQueryAndStream
+
+    /**
+     * Streams a read-only query like executeQueryAndStream, on a replica
+     * when one is configured and up, see ReplicaRouter. A read that fails
+     * on the replica before any row reached the handler runs again
+     * on the primary.
+     *
+     * @param key the user or hotel the read is about, or ReplicaRouter.NO_KEY
+     * @param query the input query string, with ? placeholders for the parameters
+     * @param handler receives each row, and may stop the stream early
+     * @param params the values bound to the placeholders, in order
+     * @return the number of rows handed to the handler
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeReadQueryAndStream(long key, final String query, final RowHandler handler,
+                                         final Object... params) throws SQLException {
+        final int[] handed = {0};
+        return this._router.read(key, new ReplicaRouter.Read<Integer>() {
+            public Integer onReplica(PooledConnection conn) throws SQLException {
+                long start = System.nanoTime();
+                int rowCount = -1;
+                try {
+                    rowCount = stream(conn, query, new RowHandler() {
+                        public boolean handle(ResultRow row) throws SQLException {
+                            handed[0]++;
+                            return handler.handle(row);
+                        }
+                    }, params);
+                    return rowCount;
+                } finally {
+                    Metrics.sql(query).record(System.nanoTime() - start, rowCount);
+                }
+            }
+
+            public Integer onPrimary() throws SQLException {
+                return executeQueryAndStream(query, handler, params);
+            }
+
+            public boolean isStarted() {
+                return handed[0] > 0;
+            }
+        });
+    }//end executeReadQueryAndStream
+
+    // streams a query on a borrowed connection through a server-side cursor
+    private int stream(PooledConnection conn, String query, RowHandler handler, Object[] params) throws SQLException {
+        // the pg73 driver has no setFetchSize(), so the cursor is declared and
+        // fetched by hand. It lives until the end of the transaction: the pool
+        // rolls it back and restores auto-commit when the connection is released
+        conn.getConnection().setAutoCommit(false);
+        String declare = SQL_DECLARE_STREAM + query;
+        String fetch = String.format(SQL_FETCH_STREAM, this._fetchSize);
+        try {
+            PreparedStatement stmt = conn.prepare(declare);
+            bind(stmt, params);
+            stmt.execute();
+
+            ResultRow row = new ResultRow();
+            int rows = 0;
+            while (true) {
+                ResultSet rs = conn.prepare(fetch).executeQuery();
+                int fetched = 0;
+                try {
+                    row.fetched(rs);
+                    while (row.next()) {
+                        rows++;
+                        fetched++;
+                        if (!handler.handle(row))
+                            return rows;
+                    }//end while
+                } finally {
+                    rs.close();
+                }
+                if (fetched < this._fetchSize)
+                    return rows;
+            }//end while
+        } catch (SQLException e) {
+            conn.evict(declare);
+            conn.evict(fetch);
+            throw e;
+        }
+    }//end stream
+
+    /**
+     * @return the number of rows fetched per round trip by executeQueryAndStream
+     */
+    public int getFetchSize() {
+        return this._fetchSize;
+    }
 
-        int rowCount = 0;
+    /**
+     * @param fetchSize the number of rows fetched per round trip by executeQueryAndStream
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 1)
+            throw new IllegalArgumentException("fetch size must be positive");
+        this._fetchSize = fetchSize;
+    }
 
-        // iterates through the result set and count number of results.
-        while (rs.next()) {
-            rowCount++;
-        }//end while
-        stmt.close();
-        return rowCount;
+    /**
+     * Borrows a connection from the pool for work that needs more than one
+     * statement on the same connection, such as a transaction. It must be
+     * handed back with releaseConnection().
+     *
+     * @return a pooled connection
+     * @throws java.sql.SQLException when no connection becomes available
+     */
+    public PooledConnection borrowConnection() throws SQLException {
+        return this._pool.borrow();
     }
 
     /**
-     * Method to fetch the last value from sequence. This
-     * method issues the query to the DBMS and returns the current
-     * value of sequence used for autogenerated keys
+     * Hands a connection obtained from borrowConnection() back to the pool,
+     * rolling back anything left uncommitted.
      *
-     * @param sequence name of the DB sequence
-     * @return current value of a sequence
-     * @throws java.sql.SQLException when failed to execute the query
+     * @param conn the borrowed connection
      */
-    public int getCurrSeqVal(String sequence) throws SQLException {
-        Statement stmt = this._connection.createStatement();
+    public void releaseConnection(PooledConnection conn) {
+        this._pool.release(conn);
+    }
+
+    /**
+     * Binds typed parameters to the placeholders of a prepared statement.
+     * Supported types are Integer, Long, Double, BigDecimal, String,
+     * java.sql.Date, java.sql.Timestamp and Boolean; null binds SQL NULL.
+     *
+     * @param stmt the prepared statement
+     * @param params the parameter values, in placeholder order
+     * @throws java.sql.SQLException when a value cannot be bound
+     */
+    static void bind(PreparedStatement stmt, Object[] params) throws SQLException {
+        if (params == null)
+            return;
+        for (int i = 0; i < params.length; i++) {
+            Object p = params[i];
+            int index = i + 1;
+            if (p == null)
+                stmt.setNull(index, Types.VARCHAR);
+            else if (p instanceof Integer)
+                stmt.setInt(index, (Integer) p);
+            else if (p instanceof Long)
+                stmt.setLong(index, (Long) p);
+            else if (p instanceof Double)
+                stmt.setDouble(index, (Double) p);
+            else if (p instanceof BigDecimal)
+                stmt.setBigDecimal(index, (BigDecimal) p);
+            else if (p instanceof String)
+                stmt.setString(index, (String) p);
+            else if (p instanceof java.sql.Date)
+                stmt.setDate(index, (java.sql.Date) p);
+            else if (p instanceof Timestamp)
+                stmt.setTimestamp(index, (Timestamp) p);
+            else if (p instanceof Boolean)
+                stmt.setBoolean(index, (Boolean) p);
+            else
+                stmt.setObject(index, p);
+        }
+    }//end bind
 
-        ResultSet rs = stmt.executeQuery(String.format("Select currval('%s')", sequence));
-        if (rs.next())
-            return rs.getInt(1);
-        return -1;
+    /**
+     * @return a snapshot of the connection pool statistics, including the
+     * prepared statement cache hit and miss counters
+     */
+    public ConnectionPool.Stats getPoolStats() {
+        return this._pool.getStats();
     }
 
-    public int getNewUserID(String sql) throws SQLException {
-        Statement stmt = this._connection.createStatement();
-        ResultSet rs = stmt.executeQuery(sql);
-        if (rs.next())
-            return rs.getInt(1);
-        return -1;
+    /**
+     * @return the routing of the read-only queries, with the statistics of each replica
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return this._router;
     }
 
     /**
-     * Method to close the physical connection if it is open.
+     * Method to close all pooled physical connections.
      */
     public void cleanup() {
-        try {
-            if (this._connection != null) {
-                this._connection.close();
-            }//end if
-        } catch (SQLException e) {
-            // ignored.
-        }//end try
+        if (this._updateLog != null) {
+            try {
+                this._updateLog.close();
+            } catch (SQLException e) {
+                System.err.println("RoomUpdatesLog: " + this._updateLog.getDepth() + " records not written: " + e.getMessage());
+            }
+        }//end if
+        if (this._router != null) {
+            this._router.close();
+        }//end if
+        if (this._pool != null) {
+            this._pool.close();
+        }//end if
     }//end cleanup
 
     /**
@@ -270,6 +1488,7 @@ public class Hotel {
             String dbport = args[1];
             String user = args[2];
             esql = new Hotel(dbname, dbport, user, "");
+            esql.warmUp();
 
             boolean keepon = true;
             while (keepon) {
@@ -279,13 +1498,13 @@ public class Hotel {
                 System.out.println("1. Create user");
                 System.out.println("2. Log in");
                 System.out.println("9. < EXIT");
-                String authorisedUser = null;
+                Session session = null;
                 switch (readChoice()) {
                     case 1:
                         CreateUser(esql);
                         break;
                     case 2:
-                        authorisedUser = LogIn(esql);
+                        session = LogIn(esql);
                         break;
                     case 9:
                         keepon = false;
@@ -294,11 +1513,11 @@ public class Hotel {
                         System.out.println("Unrecognized choice!");
                         break;
                 }//end switch
-                if (authorisedUser != null) {
-                    String query = "SELECT U.userType FROM Users U WHERE U.userId = " + authorisedUser;
-                    String userType = esql.executeQueryAndReturnResult(query).get(0).get(0);
+                if (session != null) {
+                    // the session already knows the user type and the managed hotels
+                    String authorisedUser = Integer.toString(session.userID);
                     // Customer menu
-                    if (userType.toLowerCase().contains("customer")) {
+                    if (session.isCustomer()) {
                         boolean usermenu = true;
                         while (usermenu) {
                             System.out.println("           MAIN MENU              ");
@@ -307,6 +1526,7 @@ public class Hotel {
                             System.out.println("2. View Rooms");
                             System.out.println("3. Book a Room");
                             System.out.println("4. View recent booking history");
+                            System.out.println("5. Search available rooms");
                             System.out.println("----------------------------------");
                             System.out.println("20. Log out");
                             switch (readChoice()) {
@@ -322,7 +1542,11 @@ public class Hotel {
                                 case 4:
                                     viewRecentBookingsfromCustomer(esql, authorisedUser);
                                     break;
+                                case 5:
+                                    searchRooms(esql);
+                                    break;
                                 case 20:
+                                    esql.logOut(session.token);
                                     usermenu = false;
                                     break;
                                 default:
@@ -347,6 +1571,8 @@ public class Hotel {
                             System.out.println("8. View 5 regular Customers");
                             System.out.println("9. Place room repair Request to a company");
                             System.out.println("10. View room repair Requests history");
+                            System.out.println("11. Search available rooms");
+                            System.out.println("12. View occupancy and revenue of the hotel");
 
                             System.out.println("----------------------------------------------");
                             System.out.println("20. Log out");
@@ -365,7 +1591,7 @@ public class Hotel {
                                     viewRecentBookingsfromCustomer(esql, authorisedUser);
                                     break;
                                 case 5:
-                                    updateRoomInfo(esql, authorisedUser);
+                                    updateRoomInfo(esql, session);
                                     break;
                                 case 6:
                                     viewRecentUpdates(esql, authorisedUser);
@@ -374,15 +1600,22 @@ public class Hotel {
                                     viewBookingHistoryofHotel(esql);
                                     break;
                                 case 8:
-                                    viewRegularCustomers(esql, authorisedUser);
+                                    viewRegularCustomers(esql, session);
                                     break;
                                 case 9:
-                                    placeRoomRepairRequests(esql, authorisedUser);
+                                    placeRoomRepairRequests(esql, session);
                                     break;
                                 case 10:
                                     viewRoomRepairHistory(esql, authorisedUser);
                                     break;
+                                case 11:
+                                    searchRooms(esql);
+                                    break;
+                                case 12:
+                                    viewOccupancy(esql, session);
+                                    break;
                                 case 20:
+                                    esql.logOut(session.token);
                                     usermenu = false;
                                     break;
                                 default:
@@ -399,6 +1632,11 @@ public class Hotel {
             // make sure to clean up the created table and close the connection.
             try {
                 if (esql != null) {
+                    System.out.println("Connection pool: " + esql.getPoolStats());
+                    System.out.println("Catalog cache: " + esql.getCatalog());
+                    if (esql.getUpdateLog() != null)
+                        System.out.println("Update log queue: " + esql.getUpdateLog());
+                    System.out.println("Replicas: " + esql.getReplicaRouter());
                     System.out.print("Disconnecting from database...");
                     esql.cleanup();
                     System.out.println("Done\n\nBye !");
@@ -445,11 +1683,7 @@ public class Hotel {
             String name = in.readLine();
             System.out.print("\tEnter password: ");
             String password = in.readLine();
-            String type = "Customer";
-            // Trigger here
-            String query = String.format("INSERT INTO USERS (name, password, userType) VALUES ('%s','%s', '%s')", name, password, type);
-            esql.executeUpdate(query);
-            System.out.println("User successfully created with userID = " + esql.getNewUserID("SELECT last_value FROM users_userID_seq"));
+            System.out.println("User successfully created with userID = " + esql.createUser(name, password));
 
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -459,20 +1693,23 @@ public class Hotel {
 
     /*
      * Check log in credentials for an existing user
-     * @return User login or null is the user does not exist
+     * @return the session of the user or null is the user does not exist
      **/
-    public static String LogIn(Hotel esql) {
+    public static Session LogIn(Hotel esql) {
         try {
             System.out.print("\tEnter userID: ");
             String userID = in.readLine();
             System.out.print("\tEnter password: ");
             String password = in.readLine();
 
-            String query = String.format("SELECT * FROM USERS WHERE userID = '%s' AND password = '%s'", userID, password);
-            int userNum = esql.executeQuery(query);
-            if (userNum > 0)
-                return userID;
-            return null;
+            // userID is an integer column, anything else cannot match
+            int id;
+            try {
+                id = Integer.parseInt(userID.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return esql.logIn(id, password);
         } catch (Exception e) {
             System.err.println(e.getMessage());
             return null;
@@ -491,22 +1728,16 @@ public class Hotel {
             System.out.print("\tEnter longitude: ");
             double longitude = Double.parseDouble(in.readLine());
 
-            // SQL query to select hotels within 30 units of distance
-            String query = String.format(
-                    "SELECT * FROM Hotel H WHERE calculate_distance(%f, %f, H.latitude, H.longitude) <= 30",
-                    latitude, longitude
-            );
-
-            // Execute the query and print the results
-            int rowCount = esql.executeQueryAndReturnResult(query);
-            if (rowCount == 0) {
+            // Search the hotel index for hotels within 30 units of distance
+            List<HotelSpatialIndex.Match> result = esql.findHotelsWithin(latitude, longitude, 30);
+            if (result.isEmpty()) {
                 System.out.println("Sorry, no hotel found within 30 units from given place.");
+                return;
             }
-            // Print the query out
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
+            // Print the hotels, closest first
             System.out.println("\t\t\tHotel:");
-            for (List<String> row : result) {
-                System.out.println(row.get(0) + "\t" + row.get(1));
+            for (HotelSpatialIndex.Match match : result) {
+                System.out.println(match.hotel.hotelID + "\t" + match.hotel.hotelName);
             }
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -522,29 +1753,16 @@ public class Hotel {
             String inputDate = in.readLine();
 
             // Check the date format
-            SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy");
-            dateFormat.setLenient(false);
-            Date date;
+            java.sql.Date date;
             try {
-                date = dateFormat.parse(inputDate);
+                date = parseDate(inputDate);
             } catch (ParseException e) {
                 System.err.println("Invalid date format! Please enter as 'MM-dd-yyyy'.");
                 return;
             }
 
-            // Define the SQL query to select rooms with their price and availability on the given date
-            // Use CASE WHEN to check if the room is available on the given date, it works like an if eles statement
-            String query = String.format(
-                    "SELECT R.roomNumber, R.price, " +
-                            "(CASE WHEN RB.bookingID IS NULL THEN 'Available' ELSE 'Not Available' END) AS availability " +
-                            "FROM Rooms R " +
-                            "LEFT JOIN RoomBookings RB ON R.hotelID = RB.hotelID AND R.roomNumber = RB.roomNumber AND RB.bookingDate = '%s' " +
-                            "WHERE R.hotelID = %d",
-                    inputDate, hotelID
-            );
-
-            // Execute the SQL query
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
+            // Select rooms with their price, availability comes from the booking bitmaps
+            List<List<String>> result = esql.findRooms(hotelID, date);
             if (result.isEmpty()) {
                 System.out.println("No room found for the given hotel ID and date.");
                 return;
@@ -560,6 +1778,54 @@ public class Hotel {
         }
     }
 
+    public static void searchRooms(Hotel esql) {
+        try {
+            // Get user input
+            System.out.print("\tEnter latitude: ");
+            double latitude = Double.parseDouble(in.readLine());
+            System.out.print("\tEnter longitude: ");
+            double longitude = Double.parseDouble(in.readLine());
+            System.out.print("\tEnter a radius, or n<count> for the nearest hotels (default 30): ");
+            String where = in.readLine().trim();
+            System.out.print("\tEnter date (MM-dd-yyyy): ");
+            String inputDate = in.readLine();
+            System.out.print("\tEnter maximum price (empty for any): ");
+            String inputPrice = in.readLine().trim();
+
+            // Check the date format
+            java.sql.Date date;
+            try {
+                date = parseDate(inputDate);
+            } catch (ParseException e) {
+                System.err.println("Invalid date format! Please enter as 'MM-dd-yyyy'.");
+                return;
+            }
+            int maxPrice = inputPrice.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(inputPrice);
+            int limit = Integer.getInteger("hotel.search.limit", 20);
+
+            // Rooms come from the hotel index, the catalog and the booking bitmaps in one pass
+            List<RoomMatch> result;
+            if (where.startsWith("n"))
+                result = esql.searchRoomsNearest(latitude, longitude, Integer.parseInt(where.substring(1).trim()),
+                        date, maxPrice, limit);
+            else
+                result = esql.searchRoomsWithin(latitude, longitude, where.isEmpty() ? 30 : Double.parseDouble(where),
+                        date, maxPrice, limit);
+            if (result.isEmpty()) {
+                System.out.println("Sorry, no available room found.");
+                return;
+            }
+            // Print the rooms, closest hotel first, then cheapest
+            System.out.println("Hotel ID \t | \t Room Number \t | \t Price \t | \t Distance \t | \t Hotel");
+            for (RoomMatch room : result) {
+                System.out.println(room.hotelID + "\t\t | \t " + room.roomNumber + "\t\t | \t " + room.price
+                        + "\t | \t " + String.format("%.2f", room.distance) + "\t\t | \t " + room.hotelName.trim());
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
     public static void bookRooms(Hotel esql, String userID) {
         try {
             // Get user ID
@@ -571,50 +1837,41 @@ public class Hotel {
             System.out.print("\tEnter room number: ");
             int roomNumber = readInput();
             System.out.print("\tEnter booking date (MM-dd-yyyy): ");
-            String bookingDate = in.readLine();
-
-            // Check if the room is available on the given date
-            String checkAvailabilityQuery = String.format(
-                    "SELECT * FROM RoomBookings " +
-                            "WHERE hotelID = %d AND roomNumber = %d AND bookingDate = '%s'",
-                    hotelID, roomNumber, bookingDate
-            );
-            int roomAvailability = esql.executeQuery(checkAvailabilityQuery);
-
-            if (roomAvailability == 0) {
-                // Room is available
-                // Fetch the room price from the Rooms table
-                String roomPriceQuery = String.format(
-                        "SELECT price FROM Rooms WHERE hotelID = %d AND roomNumber = '%s'",
-                        hotelID, roomNumber
-                );
-                List<List<String>> roomPriceResult = esql.executeQueryAndReturnResult(roomPriceQuery);
-                String roomPrice = roomPriceResult.get(0).get(0);
-
-                // Insert the booking into the RoomBookings table
-                // Trigger here
-                String insertBookingQuery = String.format(
-                        "INSERT INTO RoomBookings (customerID, hotelID, roomNumber, bookingDate) " +
-                                "VALUES (%d, %d, %d, '%s')",
-                        customerID, hotelID, roomNumber, bookingDate
-                );
-                esql.executeUpdate(insertBookingQuery);
+            java.sql.Date bookingDate;
+            try {
+                bookingDate = parseDate(in.readLine());
+            } catch (ParseException e) {
+                System.err.println("Invalid date format! Please enter as 'MM-dd-yyyy'.");
+                return;
+            }
 
-                // Display the room price to the customer
-                System.out.println("Booking successfully! Room price: $" + roomPrice);
-            } else {
-                // Room is not available, display a message
-                System.out.println("The room is not available on the selected date.");
+            // Book the room if it is available on the given date; the price comes from the
+            // catalog cache, and the insert skips a room already booked that day, so two
+            // customers cannot both get it
+            BookingResult booking = esql.bookRoom(customerID, hotelID, roomNumber, bookingDate);
+            switch (booking.status) {
+                case BOOKED:
+                    // Display the room price to the customer
+                    System.out.println("Booking successfully! Booking ID: " + booking.bookingID
+                            + ", Room price: $" + booking.price);
+                    break;
+                case NO_SUCH_ROOM:
+                    System.out.println("No such room in this hotel.");
+                    break;
+                default:
+                    // Room is not available, display a message
+                    System.out.println("The room is not available on the selected date.");
+                    break;
             }
         } catch (Exception e) {
             System.err.println(e.getMessage());
         }
     }
 
-    public static void updateRoomInfo(Hotel esql, String userID) {
+    public static void updateRoomInfo(Hotel esql, Session session) {
         try {
             // Get manager ID
-            int managerID = Integer.parseInt(userID);
+            int managerID = session.userID;
 
             System.out.print("\tEnter hotelID: ");
             int hotelID = readInput();
@@ -622,23 +1879,17 @@ public class Hotel {
             int roomNumber = readInput();
 
             // Check if the manager manages the hotel with the given hotelID
-            String managerCheckQuery = String.format(
-                    "SELECT * FROM Hotel WHERE hotelID = %d AND managerUserID = %d",
-                    hotelID, managerID
-            );
-            int managerCheck = esql.executeQuery(managerCheckQuery);
-
-            if (managerCheck > 0) {
+            if (session.manages(hotelID)) {
                 // Manager can update the room information
                 // Get current room information
-                String currentInfoQuery = String.format(
-                        "SELECT price, imageURL FROM Rooms WHERE hotelID = %d AND roomNumber = %d",
-                        hotelID, roomNumber
-                );
-                List<List<String>> currentInfoResult = esql.executeQueryAndReturnResult(currentInfoQuery);
+                CatalogCache.RoomRow currentInfo = esql.findRoom(hotelID, roomNumber);
+                if (currentInfo == null) {
+                    System.out.println("No such room in this hotel.");
+                    return;
+                }
                 // not sure if old info is needed
-                int oldPrice = Integer.parseInt(currentInfoResult.get(0).get(0));
-                String oldImageURL = currentInfoResult.get(0).get(1);
+                int oldPrice = currentInfo.price;
+                String oldImageURL = currentInfo.imageURL;
 
                 // Get the new room information
                 System.out.print("\tEnter new price: ");
@@ -646,23 +1897,13 @@ public class Hotel {
                 System.out.print("\tEnter new image URL: ");
                 String newImageURL = in.readLine();
 
-                // Update room information in the Rooms table
-                String updateRoomQuery = String.format(
-                        "UPDATE Rooms SET price = %d, imageURL = '%s' WHERE hotelID = %d AND roomNumber = %d",
-                        newPrice, newImageURL, hotelID, roomNumber
-                );
-                esql.executeUpdate(updateRoomQuery);
-
-                // Log the update in the RoomUpdatesLog table
-                // Trigger here
-                String updateLogQuery = String.format(
-                        "INSERT INTO RoomUpdatesLog (managerID, hotelID, roomNumber, updatedOn) " +
-                                "VALUES (%d, %d, %d, 'NOW()')",
-                        managerID, hotelID, roomNumber
-                );
-                esql.executeUpdate(updateLogQuery);
-
-                System.out.println("Room information updated successfully!");
+                // Update room information in the Rooms table and log the update in the RoomUpdatesLog table
+                if (esql.updateRoom(managerID, hotelID, roomNumber, newPrice, newImageURL))
+                    System.out.println("Room information updated successfully!");
+                else
+                    System.out.println("No such room in this hotel.");
+            } else {
+                System.out.println("You do not manage this hotel.");
             }
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -675,12 +1916,7 @@ public class Hotel {
             int managerID = Integer.parseInt(userID);
 
             // Fetch the last 5 recent updates for the hotel
-            String recentUpdatesQuery = String.format(
-                    "SELECT * FROM RoomUpdatesLog " +
-                            "WHERE managerID = %d ORDER BY updatedOn DESC LIMIT 5",
-                    managerID
-            );
-            List<List<String>> recentUpdates = esql.executeQueryAndReturnResult(recentUpdatesQuery);
+            List<List<String>> recentUpdates = esql.findRecentUpdates(managerID);
 
             if (recentUpdates.isEmpty()) {
                 System.out.println("No recent updates found.");
@@ -706,15 +1942,7 @@ public class Hotel {
             int customerID = Integer.parseInt(userID);
 
             // Retrieve the last 5 recent bookings of the customer from the RoomBookings table
-            // TODO: check this query cause I am not sure if it is correct
-            String bookingHistoryQuery = String.format(
-                    "SELECT RB.hotelID, RB.roomNumber, R.price, RB.bookingDate " +
-                            "FROM RoomBookings RB, Rooms R " +
-                            "WHERE RB.hotelID = R.hotelID AND RB.roomNumber = R.roomNumber AND RB.customerID = %d " +
-                            "ORDER BY RB.bookingDate DESC LIMIT 5",
-                    customerID
-            );
-            List<List<String>> bookingHistoryResult = esql.executeQueryAndReturnResult(bookingHistoryQuery);
+            List<List<String>> bookingHistoryResult = esql.findRecentBookings(customerID);
 
             // Display the booking history
             System.out.println("**************** Your last 5 recent bookings: ****************");
@@ -745,81 +1973,58 @@ public class Hotel {
             String endDate = in.readLine();
 
             // check the date input
-            SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy");
-            dateFormat.setLenient(false);
-
+            java.sql.Date begin;
+            java.sql.Date end;
             try {
-                Date begin = dateFormat.parse(beginDate);
-                Date end = dateFormat.parse(endDate);
+                begin = parseDate(beginDate);
+                end = parseDate(endDate);
             } catch (Exception e) {
                 System.err.println("Invalid date format.");
                 return;
             }
 
-            // Retrieve the booking information from the RoomBookings table within the date range
-            // TODO: check this query cause I am not sure if it is correct as customerID in RoomBookings is int and userID in Users is string
-            String bookingQuery = String.format(
-                    "SELECT RB.bookingID, U.name, RB.hotelID, RB.roomNumber, RB.bookingDate " +
-                            "FROM RoomBookings RB, Users U " +
-                            "WHERE RB.customerID = U.userID AND RB.bookingDate BETWEEN '%s' AND '%s' " +
-                            "ORDER BY RB.bookingDate",
-                    beginDate, endDate
-            );
-            List<List<String>> bookingResult = esql.executeQueryAndReturnResult(bookingQuery);
-
-            // Display the booking information
+            // Show the booking information from the RoomBookings table within the date range
+            // one page at a time, so only one page is ever held in memory
+            int pageSize = Integer.getInteger("hotel.history.pageSize", 20);
             System.out.println("**************** Booking information: ****************");
-            for (List<String> booking : bookingResult) {
-                String bookingID = booking.get(0);
-                String customerName = booking.get(1);
-                String hotelID = booking.get(2);
-                String roomNumber = booking.get(3);
-                String bookingDate = booking.get(4);
-
-                System.out.println(" --> Booking ID: " + bookingID
-                        + ", Customer Name: " + customerName
-                        + ", Hotel ID: " + hotelID
-                        + ", Room Number: " + roomNumber
-                        + ", Booking Date: " + bookingDate
-                );
-            }
+            String after = null;
+            do {
+                BookingHistoryPage page = esql.findBookingHistoryPage(begin, end, after, pageSize);
+                for (List<String> booking : page.bookings) {
+                    System.out.println(" --> Booking ID: " + booking.get(0)
+                            + ", Customer Name: " + booking.get(1)
+                            + ", Hotel ID: " + booking.get(2)
+                            + ", Room Number: " + booking.get(3)
+                            + ", Booking Date: " + booking.get(4)
+                    );
+                }
+                after = page.next;
+                if (after != null) {
+                    System.out.print("\tPress Enter for the next page, or q to stop: ");
+                    String answer = in.readLine();
+                    if (answer == null || answer.trim().equalsIgnoreCase("q"))
+                        break;
+                }
+            } while (after != null);
         } catch (Exception e) {
             System.err.println(e.getMessage());
         }
     }
 
-    public static void viewRegularCustomers(Hotel esql, String userID) {
+    public static void viewRegularCustomers(Hotel esql, Session session) {
         try {
-            // Get the manager ID
-            int managerID = Integer.parseInt(userID);
-
             // Get the hotelID from the manager
             System.out.print("\tEnter the hotel ID: ");
             int hotelID = readInput();
 
             // Check if the manager is managing the given hotel
-            String hotelQuery = String.format(
-                    "SELECT * FROM Hotel WHERE hotelID = %d AND managerUserID = %d",
-                    hotelID, managerID
-            );
-            int hotelCount = esql.executeQuery(hotelQuery);
-
-            if (hotelCount == 0) {
+            if (!session.manages(hotelID)) {
                 System.out.println("You do not manage this hotel.");
                 return;
             }
 
             // Retrieve the top 5 customers with the most bookings in the given hotel
-            // TODO: check this query cause I am not sure if it is correct as customerID in RoomBookings is int and userID in Users is string
-            String customerQuery = String.format(
-                    "SELECT U.userID, U.name, COUNT(RB.bookingID) as bookings " +
-                            "FROM Users U, RoomBookings RB " +
-                            "WHERE U.userID = RB.customerID AND RB.hotelID = %d " +
-                            "GROUP BY U.userID, U.name " +
-                            "ORDER BY bookings DESC LIMIT 5",
-                    hotelID
-            );
-            List<List<String>> customerResult = esql.executeQueryAndReturnResult(customerQuery);
+            List<List<String>> customerResult = esql.findRegularCustomers(hotelID);
 
             // Display the top 5 customers
             System.out.println("******* Top 5 regular customers: ********");
@@ -838,10 +2043,56 @@ public class Hotel {
         }
     }
 
-    public static void placeRoomRepairRequests(Hotel esql, String userID) {
+    public static void viewOccupancy(Hotel esql, Session session) {
+        try {
+            System.out.print("\tEnter the hotel ID: ");
+            int hotelID = readInput();
+            if (!session.manages(hotelID)) {
+                System.out.println("You do not manage this hotel.");
+                return;
+            }
+
+            System.out.print("\tEnter the start date (MM-dd-yyyy): ");
+            String beginDate = in.readLine();
+            System.out.print("\tEnter the end date (MM-dd-yyyy): ");
+            String endDate = in.readLine();
+            java.sql.Date begin;
+            java.sql.Date end;
+            try {
+                begin = parseDate(beginDate);
+                end = parseDate(endDate);
+            } catch (Exception e) {
+                System.err.println("Invalid date format.");
+                return;
+            }
+
+            System.out.print("\tPer day, month or year (d/m/y, m by default): ");
+            String answer = in.readLine();
+            answer = answer == null ? "" : answer.trim().toLowerCase();
+            OccupancyReport.Period period = answer.startsWith("d") ? OccupancyReport.Period.DAY
+                    : answer.startsWith("y") ? OccupancyReport.Period.YEAR : OccupancyReport.Period.MONTH;
+
+            OccupancyReport report = esql.findOccupancy(hotelID, begin, end, period);
+            if (report == null) {
+                System.out.println("There is no such hotel.");
+                return;
+            }
+            System.out.println("******* Occupancy of " + report.hotelName + " (" + report.rooms + " rooms): ********");
+            for (OccupancyReport.Row row : report.rows) {
+                System.out.println(String.format(" --> %s to %s\t| Bookings: %d\t| Revenue: %d\t| Occupancy: %.1f%%",
+                        row.first, row.last, row.bookings, row.revenue, row.occupancy * 100));
+            }
+            System.out.println(String.format(" Total\t| Bookings: %d\t| Revenue: %d\t| Occupancy: %.1f%%",
+                    report.bookings, report.revenue, report.occupancy * 100));
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    public static void placeRoomRepairRequests(Hotel esql, Session session) {
         try {
             // Get the manager ID
-            int managerID = Integer.parseInt(userID);
+            int managerID = session.userID;
 
             // Get the hotelID, roomNumber, and companyID from the manager
             System.out.print("\tEnter the hotel ID: ");
@@ -852,45 +2103,16 @@ public class Hotel {
             int companyID = readInput();
 
             // Check if the manager is managing the given hotel
-            String hotelQuery = String.format(
-                    "SELECT * FROM Hotel WHERE hotelID = %d AND managerUserID = %d",
-                    hotelID, managerID
-            );
-            int hotelCount = esql.executeQuery(hotelQuery);
-
-            if (hotelCount == 0) {
+            if (!session.manages(hotelID)) {
                 System.out.println("You do not manage this hotel.");
                 return;
             }
 
-            // Get the current date
-            SimpleDateFormat sdf = new SimpleDateFormat("MM-dd-yyyy");
-            String currentDate = sdf.format(new Date());
-
-            // Insert the repair into the RoomRepairs table
-            // Trigger here
-            String insertRepairQuery = String.format(
-                    "INSERT INTO RoomRepairs (companyID, hotelID, roomNumber, repairDate) VALUES (%d, %d, %d, '%s')",
-                    companyID, hotelID, roomNumber, currentDate
-            );
-            esql.executeUpdate(insertRepairQuery);
-
-            // Get the inserted repair's repairID
-            String repairIDQuery = String.format(
-                    "SELECT repairID FROM RoomRepairs WHERE companyID = %d AND hotelID = %d AND roomNumber = %d ORDER BY repairID DESC LIMIT 1",
-                    companyID, hotelID, roomNumber
-            );
-            int repairID = Integer.parseInt(esql.executeQueryAndReturnResult(repairIDQuery).get(0).get(0));
-
-            // Insert the repair request into the RoomRepairRequests table
-            //Trigger here
-            String insertRequestQuery = String.format(
-                    "INSERT INTO RoomRepairRequests (managerID, repairID) VALUES (%d, %d)",
-                    managerID, repairID
-            );
-            esql.executeUpdate(insertRequestQuery);
+            // Insert the repair dated today into the RoomRepairs table and the request
+            // for it into the RoomRepairRequests table
+            int repairID = esql.placeRepairRequest(managerID, companyID, hotelID, roomNumber);
 
-            System.out.println("Repair request placed successfully.");
+            System.out.println("Repair request placed successfully. Repair ID: " + repairID);
 
         } catch (Exception e) {
             System.err.println(e.getMessage());
@@ -903,27 +2125,18 @@ public class Hotel {
             int managerID = Integer.parseInt(userID);
 
             // Fetch room repair history for the hotels
-            String repairHistoryQuery = String.format(
-                    "SELECT RR.companyID, RR.hotelID, RR.roomNumber, RR.repairDate " +
-                            "FROM RoomRepairs RR " +
-                            "JOIN RoomRepairRequests RRR ON RR.repairID = RRR.repairID " +
-                            "JOIN Hotel H ON RR.hotelID = H.hotelID " +
-                            "WHERE H.managerUserID = %d " +
-                            "ORDER BY RR.repairDate DESC",
-                    managerID
-            );
-
-            List<List<String>> repairHistory = esql.executeQueryAndReturnResult(repairHistoryQuery);
-
-            if (repairHistory.isEmpty()) {
-                System.out.println("No room repair history found.");
-                return;
-            }
+            // Stream the repair history, the header is printed with the first row
+            int rowCount = esql.streamRepairHistory(managerID, new RowHandler() {
+                public boolean handle(ResultRow row) throws SQLException {
+                    if (row.getRowNumber() == 1)
+                        System.out.println("Company ID | Hotel ID | Room No. | Repair Date");
+                    System.out.println(row.getInt(1) + " | " + row.getInt(2) + " | " + row.getInt(3) + " | " + row.getDate(4));
+                    return true;
+                }
+            });
 
-            // Display the repair history
-            System.out.println("Company ID | Hotel ID | Room No. | Repair Date");
-            for (List<String> row : repairHistory) {
-                System.out.println(row.get(0) + " | " + row.get(1) + " | " + row.get(2) + " | " + row.get(3));
+            if (rowCount == 0) {
+                System.out.println("No room repair history found.");
             }
 
         } catch (Exception e) {
@@ -931,6 +2144,18 @@ public class Hotel {
         }
     }
 
+    /*
+     * Parses a date typed as MM-dd-yyyy into a SQL date
+     * @throws ParseException when the input is not a valid date
+     **/
+    public static java.sql.Date parseDate(String input) throws ParseException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd-yyyy");
+        dateFormat.setLenient(false);
+        if (input == null)
+            throw new ParseException("No date given", 0);
+        return new java.sql.Date(dateFormat.parse(input.trim()).getTime());
+    }
+
     /*
      *  Read the input from keyboard and check if the input contains integer 0 to 9 only
      * */
@@ -0,0 +1,873 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the operations of the Hotel menus as HTTP/JSON endpoints on the
+ * JDK's built-in HTTP server, so one process and one connection pool serve
+ * any number of clients.
+ *
+ * Every request runs on its own virtual thread when the JVM has them (Java
+ * 21 and later) and on a cached thread pool otherwise; either way the
+ * requests share the connections of the Hotel pool, sized with
+ * hotel.pool.maxSize. Parameters come from the query string and, for POST
+ * and PUT, from a form-encoded or flat JSON body. Dates are MM-dd-yyyy as
+ * in the menus. Endpoints marked (user) or (manager) need either the
+ * token of a session, as "Authorization: Bearer <token>", or HTTP Basic
+ * credentials of userID:password; manager endpoints refuse customers. Both
+ * are resolved from the session cache of Hotel, so authorization does not
+ * query the database once the user is known.
+ *
+ * POST /users                 name, password            create a customer
+ * POST /sessions              userID, password          log in, returns the token
+ * DELETE /sessions   (user)   log out the bearer token
+ * GET  /hotels                latitude, longitude, [radius | k]
+ * GET  /rooms                 hotelID, date
+ * GET  /search                latitude, longitude, [radius | k], date, [maxPrice, limit]
+ *                             available rooms, closest hotel first, then cheapest
+ * PUT  /rooms        (manager) hotelID, roomNumber, price, imageURL
+ * POST /bookings     (user)   hotelID, roomNumber, date
+ * GET  /bookings     (user)   the 5 latest bookings of the user
+ * GET  /manager/updates       the 5 latest room updates of the manager
+ * GET  /manager/bookings      from, to, [after, limit]  a page of the booking history,
+ *                             "after" being the "next" token of the previous page
+ * GET  /manager/customers     hotelID                   the 5 regular customers
+ * GET  /manager/occupancy     hotelID, from, to, [period]  bookings, revenue and occupancy
+ *                             per day, month (the default) or year
+ * POST /manager/repairs       hotelID, roomNumber, companyID
+ * GET  /manager/repairs       the repair history, streamed
+ * GET  /stats                 connection pool, cache, update log and replica statistics
+ * GET  /metrics               operation and SQL latency table, as text
+ */
+public class HotelServer {
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private final Hotel esql;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // the booking history page sizes, by default and at most
+    private final int pageSize = Integer.getInteger("hotel.history.pageSize", 20);
+    private final int maxPageSize = Integer.getInteger("hotel.history.maxPageSize", 1000);
+    // the number of rooms a search returns, by default and at most
+    private final int searchLimit = Integer.getInteger("hotel.search.limit", 20);
+    private final int maxSearchLimit = Integer.getInteger("hotel.search.maxLimit", 1000);
+
+    /**
+     * Creates a server for the given database; call start() to serve.
+     *
+     * @param esql the database the operations run against
+     * @param address the address to listen on
+     * @throws java.io.IOException when the address cannot be bound
+     */
+    public HotelServer(Hotel esql, InetSocketAddress address) throws IOException {
+        this.esql = esql;
+        this.server = HttpServer.create(address, Integer.getInteger("hotel.server.backlog", 1024));
+        this.executor = newRequestExecutor();
+        this.server.setExecutor(this.executor);
+
+        route("/users", new Endpoint("POST", Access.ANYONE) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                int userID = HotelServer.this.esql.createUser(request.text("name"), request.text("password"));
+                JsonWriter json = request.begin(201);
+                json.beginObject().name("userID").value(userID).endObject();
+            }
+        });
+        route("/sessions", new Endpoint("POST", Access.ANYONE) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                Session session;
+                try {
+                    session = HotelServer.this.esql.logIn(request.integer("userID"), request.text("password"));
+                } catch (HttpError e) {
+                    // a malformed userID cannot be a user
+                    session = null;
+                }
+                if (session == null)
+                    throw new HttpError(401, "Wrong userID or password.");
+                JsonWriter json = request.begin(201);
+                json.beginObject()
+                        .name("token").value(session.token)
+                        .name("userID").value(session.userID)
+                        .name("userType").value(session.userType)
+                        .name("expiresInSeconds").value((session.expiresAt - System.currentTimeMillis()) / 1000)
+                        .name("managedHotels").beginArray();
+                for (int hotelID : session.getManagedHotels())
+                    json.value(hotelID);
+                json.endArray().endObject();
+            }
+        }, new Endpoint("DELETE", Access.USER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                HotelServer.this.esql.logOut(request.session.token);
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("loggedOut").value(true).endObject();
+            }
+        });
+        route("/hotels", new Endpoint("GET", Access.ANYONE) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                double latitude = request.decimal("latitude");
+                double longitude = request.decimal("longitude");
+                List<HotelSpatialIndex.Match> hotels = request.has("k")
+                        ? HotelServer.this.esql.findNearestHotels(latitude, longitude, request.integer("k"))
+                        : HotelServer.this.esql.findHotelsWithin(latitude, longitude,
+                        request.has("radius") ? request.decimal("radius") : 30);
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("hotels").beginArray();
+                for (HotelSpatialIndex.Match match : hotels) {
+                    json.beginObject()
+                            .name("hotelID").value(match.hotel.hotelID)
+                            .name("hotelName").value(match.hotel.hotelName.trim())
+                            .name("distance").value(match.distance)
+                            .endObject();
+                }
+                json.endArray().endObject();
+            }
+        });
+        route("/search", new Endpoint("GET", Access.ANYONE) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                double latitude = request.decimal("latitude");
+                double longitude = request.decimal("longitude");
+                java.sql.Date date = request.date("date");
+                int maxPrice = request.has("maxPrice") ? request.integer("maxPrice") : Integer.MAX_VALUE;
+                int limit = request.has("limit") ? request.integer("limit") : HotelServer.this.searchLimit;
+                if (limit < 1 || limit > HotelServer.this.maxSearchLimit)
+                    throw new HttpError(400, "Parameter limit must be between 1 and " + HotelServer.this.maxSearchLimit + ".");
+                List<RoomMatch> rooms = request.has("k")
+                        ? HotelServer.this.esql.searchRoomsNearest(latitude, longitude, request.integer("k"),
+                        date, maxPrice, limit)
+                        : HotelServer.this.esql.searchRoomsWithin(latitude, longitude,
+                        request.has("radius") ? request.decimal("radius") : 30, date, maxPrice, limit);
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("rooms").beginArray();
+                for (RoomMatch room : rooms) {
+                    json.beginObject()
+                            .name("hotelID").value(room.hotelID)
+                            .name("hotelName").value(room.hotelName.trim())
+                            .name("roomNumber").value(room.roomNumber)
+                            .name("price").value(room.price)
+                            .name("distance").value(room.distance)
+                            .endObject();
+                }
+                json.endArray().endObject();
+            }
+        });
+        route("/rooms", new Endpoint("GET", Access.ANYONE) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                int hotelID = request.integer("hotelID");
+                List<List<String>> rooms = HotelServer.this.esql.findRooms(hotelID, request.date("date"));
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("hotelID").value(hotelID).name("rooms").beginArray();
+                for (List<String> room : rooms) {
+                    json.beginObject()
+                            .name("roomNumber").number(room.get(0))
+                            .name("price").number(room.get(1))
+                            .name("available").value("Available".equals(room.get(2)))
+                            .endObject();
+                }
+                json.endArray().endObject();
+            }
+        }, new Endpoint("PUT", Access.MANAGER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                int hotelID = request.integer("hotelID");
+                request.requireManagerOf(hotelID);
+                if (!HotelServer.this.esql.updateRoom(request.userID, hotelID, request.integer("roomNumber"),
+                        request.integer("price"), request.text("imageURL")))
+                    throw new HttpError(404, "No such room in this hotel.");
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("updated").value(true).endObject();
+            }
+        });
+        route("/bookings", new Endpoint("POST", Access.USER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                BookingResult booking = HotelServer.this.esql.bookRoom(request.userID,
+                        request.integer("hotelID"), request.integer("roomNumber"), request.date("date"));
+                switch (booking.status) {
+                    case BOOKED:
+                        JsonWriter json = request.begin(201);
+                        json.beginObject()
+                                .name("bookingID").value(booking.bookingID)
+                                .name("price").value(booking.price)
+                                .endObject();
+                        break;
+                    case NO_SUCH_ROOM:
+                        throw new HttpError(404, "No such room in this hotel.");
+                    default:
+                        throw new HttpError(409, "The room is not available on the selected date.");
+                }
+            }
+        }, new Endpoint("GET", Access.USER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                List<List<String>> bookings = HotelServer.this.esql.findRecentBookings(request.userID);
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("bookings").beginArray();
+                for (List<String> booking : bookings) {
+                    json.beginObject()
+                            .name("hotelID").number(booking.get(0))
+                            .name("roomNumber").number(booking.get(1))
+                            .name("price").number(booking.get(2))
+                            .name("bookingDate").value(booking.get(3))
+                            .endObject();
+                }
+                json.endArray().endObject();
+            }
+        });
+        route("/manager/updates", new Endpoint("GET", Access.MANAGER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                List<List<String>> updates = HotelServer.this.esql.findRecentUpdates(request.userID);
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("updates").beginArray();
+                for (List<String> update : updates) {
+                    json.beginObject()
+                            .name("updateNumber").number(update.get(0))
+                            .name("managerID").number(update.get(1))
+                            .name("hotelID").number(update.get(2))
+                            .name("roomNumber").number(update.get(3))
+                            .name("updatedOn").value(update.get(4))
+                            .endObject();
+                }
+                json.endArray().endObject();
+            }
+        });
+        route("/manager/bookings", new Endpoint("GET", Access.MANAGER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                java.sql.Date from = request.date("from");
+                java.sql.Date to = request.date("to");
+                // the range can be large, so it is served a page at a time; "after" is the
+                // "next" token of the previous page
+                int limit = request.has("limit") ? request.integer("limit") : HotelServer.this.pageSize;
+                if (limit < 1 || limit > HotelServer.this.maxPageSize)
+                    throw new HttpError(400, "Parameter limit must be between 1 and " + HotelServer.this.maxPageSize + ".");
+                BookingHistoryPage page;
+                try {
+                    page = HotelServer.this.esql.findBookingHistoryPage(from, to,
+                            request.has("after") ? request.text("after") : null, limit);
+                } catch (IllegalArgumentException e) {
+                    throw new HttpError(400, e.getMessage());
+                }
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("bookings").beginArray();
+                for (List<String> booking : page.bookings) {
+                    json.beginObject()
+                            .name("bookingID").number(booking.get(0))
+                            .name("customerName").value(trim(booking.get(1)))
+                            .name("hotelID").number(booking.get(2))
+                            .name("roomNumber").number(booking.get(3))
+                            .name("bookingDate").value(booking.get(4))
+                            .endObject();
+                }
+                json.endArray().name("next").value(page.next).endObject();
+            }
+        });
+        route("/manager/customers", new Endpoint("GET", Access.MANAGER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                int hotelID = request.integer("hotelID");
+                request.requireManagerOf(hotelID);
+                List<List<String>> customers = HotelServer.this.esql.findRegularCustomers(hotelID);
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("customers").beginArray();
+                for (List<String> customer : customers) {
+                    json.beginObject()
+                            .name("customerID").number(customer.get(0))
+                            .name("name").value(trim(customer.get(1)))
+                            .name("bookings").number(customer.get(2))
+                            .endObject();
+                }
+                json.endArray().endObject();
+            }
+        });
+        route("/manager/occupancy", new Endpoint("GET", Access.MANAGER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                int hotelID = request.integer("hotelID");
+                request.requireManagerOf(hotelID);
+                java.sql.Date from = request.date("from");
+                java.sql.Date to = request.date("to");
+                OccupancyReport.Period period;
+                try {
+                    period = OccupancyReport.Period.valueOf(
+                            (request.has("period") ? request.text("period") : "month").trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new HttpError(400, "Parameter period must be day, month or year.");
+                }
+                OccupancyReport report = HotelServer.this.esql.findOccupancy(hotelID, from, to, period);
+                if (report == null)
+                    throw new HttpError(404, "No such hotel.");
+                JsonWriter json = request.begin(200);
+                json.beginObject()
+                        .name("hotelID").value(report.hotelID)
+                        .name("hotelName").value(trim(report.hotelName))
+                        .name("rooms").value(report.rooms)
+                        .name("bookings").value(report.bookings)
+                        .name("revenue").value(report.revenue)
+                        .name("occupancy").value(report.occupancy)
+                        .name("periods").beginArray();
+                for (OccupancyReport.Row row : report.rows) {
+                    json.beginObject()
+                            .name("from").value(row.first.toString())
+                            .name("to").value(row.last.toString())
+                            .name("bookings").value(row.bookings)
+                            .name("revenue").value(row.revenue)
+                            .name("occupancy").value(row.occupancy)
+                            .endObject();
+                }
+                json.endArray().endObject();
+            }
+        });
+        route("/manager/repairs", new Endpoint("POST", Access.MANAGER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                int hotelID = request.integer("hotelID");
+                request.requireManagerOf(hotelID);
+                int repairID = HotelServer.this.esql.placeRepairRequest(request.userID,
+                        request.integer("companyID"), hotelID, request.integer("roomNumber"));
+                JsonWriter json = request.begin(201);
+                json.beginObject().name("repairID").value(repairID).endObject();
+            }
+        }, new Endpoint("GET", Access.MANAGER) {
+            void serve(Request request) throws IOException, SQLException, HttpError {
+                final JsonWriter json = request.begin(200);
+                json.beginObject().name("repairs").beginArray();
+                HotelServer.this.esql.streamRepairHistory(request.userID, new RowHandler() {
+                    public boolean handle(ResultRow row) throws SQLException {
+                        try {
+                            json.beginObject()
+                                    .name("companyID").value(row.getInt(1))
+                                    .name("hotelID").value(row.getInt(2))
+                                    .name("roomNumber").value(row.getInt(3))
+                                    .name("repairDate").value(String.valueOf(row.getDate(4)))
+                                    .endObject();
+                        } catch (IOException e) {
+                            return false;
+                        }
+                        return true;
+                    }
+                });
+                json.endArray().endObject();
+            }
+        });
+        route("/stats", new Endpoint("GET", Access.ANYONE) {
+            void serve(Request request) throws IOException {
+                ConnectionPool.Stats stats = HotelServer.this.esql.getPoolStats();
+                CatalogCache catalog = HotelServer.this.esql.getCatalog();
+                RoomUpdateLogWriter updateLog = HotelServer.this.esql.getUpdateLog();
+                ReplicaRouter router = HotelServer.this.esql.getReplicaRouter();
+                JsonWriter json = request.begin(200);
+                json.beginObject().name("pool").beginObject()
+                        .name("active").value(stats.active)
+                        .name("idle").value(stats.idle)
+                        .name("maxSize").value(stats.maxSize)
+                        .name("borrowed").value(stats.borrowed)
+                        .name("waited").value(stats.waited)
+                        .name("timeouts").value(stats.timeouts)
+                        .name("totalWaitMillis").value(stats.totalWaitMillis)
+                        .name("statementCacheHits").value(stats.statementCacheHits)
+                        .name("statementCacheMisses").value(stats.statementCacheMisses)
+                        .endObject().name("catalog").beginObject()
+                        .name("hotels").value(catalog.getHotelCount())
+                        .name("rooms").value(catalog.getRoomCount())
+                        .name("hits").value(catalog.getHits())
+                        .name("misses").value(catalog.getMisses())
+                        .name("hitRatio").value(catalog.getHitRatio())
+                        .name("evictions").value(catalog.getEvictions())
+                        .endObject();
+                if (updateLog != null) {
+                    json.name("updateLog").beginObject()
+                            .name("depth").value(updateLog.getDepth())
+                            .name("maxDepth").value(updateLog.getMaxDepth())
+                            .name("capacity").value(updateLog.getCapacity())
+                            .name("written").value(updateLog.getWritten())
+                            .name("batches").value(updateLog.getBatches())
+                            .name("failures").value(updateLog.getFailures())
+                            .name("dropped").value(updateLog.getDropped())
+                            .name("stalls").value(updateLog.getStalls())
+                            .endObject();
+                }
+                json.name("replicas").beginObject()
+                        .name("policy").value(router.getPolicy().toString())
+                        .name("primaryReads").value(router.getPrimaryReads())
+                        .name("stickyReads").value(router.getStickyReads())
+                        .name("replicas").beginArray();
+                for (ReplicaRouter.Replica replica : router.getReplicas()) {
+                    ConnectionPool.Stats replicaStats = replica.getPool().getStats();
+                    json.beginObject()
+                            .name("name").value(replica.getName())
+                            .name("reads").value(replica.getReads())
+                            .name("failures").value(replica.getFailures())
+                            .name("averageMillis").value(replica.getAverageMillis())
+                            .name("down").value(replica.isDown())
+                            .name("active").value(replicaStats.active)
+                            .name("idle").value(replicaStats.idle)
+                            .endObject();
+                }
+                json.endArray().endObject();
+                json.endObject();
+            }
+        });
+        route("/metrics", new Endpoint("GET", Access.ANYONE) {
+            void serve(Request request) throws IOException {
+                byte[] report = Metrics.report().getBytes(StandardCharsets.UTF_8);
+                request.exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                request.exchange.sendResponseHeaders(200, report.length);
+                request.exchange.getResponseBody().write(report);
+            }
+        });
+    }//end HotelServer
+
+    /**
+     * Starts serving requests in the background.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to the given delay for the running
+     * ones to finish, and stops the request threads.
+     *
+     * @param delaySeconds the longest time to wait for running requests
+     */
+    public void stop(int delaySeconds) {
+        this.server.stop(delaySeconds);
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @return the address the server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, or a
+     * cached thread pool when the JVM has no virtual threads. It is looked
+     * up reflectively so the server still builds and runs on older JDKs.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void route(final String path, final Endpoint... endpoints) {
+        this.server.createContext(path, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                // contexts match by prefix, only the exact path is served
+                if (!exchange.getRequestURI().getPath().equals(path)) {
+                    sendError(exchange, 404, "No such resource.");
+                    return;
+                }
+                StringBuilder allowed = new StringBuilder();
+                for (Endpoint endpoint : endpoints) {
+                    if (endpoint.method.equals(exchange.getRequestMethod())) {
+                        endpoint.handle(exchange);
+                        return;
+                    }
+                    allowed.append(allowed.length() == 0 ? "" : ", ").append(endpoint.method);
+                }
+                exchange.getResponseHeaders().set("Allow", allowed.toString());
+                sendError(exchange, 405, "Use " + allowed + ".");
+            }
+        });
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        try {
+            // once a streamed response has started its status cannot change
+            if (exchange.getResponseCode() != -1)
+                return;
+            StringWriter body = new StringWriter();
+            new JsonWriter(body).beginObject().name("error").value(message).endObject();
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", JSON);
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    enum Access { ANYONE, USER, MANAGER }
+
+    /**
+     * One method of one path. Authenticates the caller as required, runs the
+     * operation and turns failures into JSON errors.
+     */
+    private abstract class Endpoint {
+        final String method;
+        private final Access access;
+
+        Endpoint(String method, Access access) {
+            this.method = method;
+            this.access = access;
+        }
+
+        void handle(HttpExchange exchange) throws IOException {
+            Request request = null;
+            try {
+                request = new Request(exchange);
+                if (this.access != Access.ANYONE)
+                    request.authenticate(this.access == Access.MANAGER);
+                serve(request);
+                request.finish();
+            } catch (HttpError e) {
+                sendError(exchange, e.status, e.getMessage());
+            } catch (SQLException e) {
+                sendError(exchange, 500, e.getMessage());
+            } catch (RuntimeException e) {
+                sendError(exchange, 500, String.valueOf(e));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void serve(Request request) throws IOException, SQLException, HttpError;
+    }//end Endpoint
+
+    /**
+     * The parameters and the caller of one exchange, and its response.
+     */
+    private class Request {
+        private final HttpExchange exchange;
+        private final Map<String, String> params = new HashMap<String, String>();
+        private JsonWriter json;
+        // the authenticated caller, if the endpoint needs one
+        Session session;
+        int userID;
+
+        Request(HttpExchange exchange) throws IOException, HttpError {
+            this.exchange = exchange;
+            parseForm(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            if ("POST".equals(method) || "PUT".equals(method)) {
+                String body = readBody(exchange.getRequestBody()).trim();
+                if (body.startsWith("{"))
+                    parseJson(body);
+                else
+                    parseForm(body);
+            }
+        }
+
+        /**
+         * Finds the session of the caller from its bearer token or Basic
+         * credentials.
+         */
+        void authenticate(boolean manager) throws SQLException, HttpError {
+            String header = this.exchange.getRequestHeaders().getFirst("Authorization");
+            if (header != null && header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+                this.session = HotelServer.this.esql.session(header.substring(7).trim());
+            } else if (header != null && header.regionMatches(true, 0, "Basic ", 0, 6)) {
+                String credentials = decodeBase64(header.substring(6).trim());
+                int colon = credentials == null ? -1 : credentials.indexOf(':');
+                if (colon > 0) {
+                    try {
+                        this.session = HotelServer.this.esql.authenticate(
+                                Integer.parseInt(credentials.substring(0, colon)), credentials.substring(colon + 1));
+                    } catch (NumberFormatException e) {
+                        // not a userID, so not a user
+                    }
+                }
+            }
+            if (this.session == null) {
+                this.exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"hotel\"");
+                throw new HttpError(401, "Log in with your userID and password, or POST /sessions for a token.");
+            }
+            this.userID = this.session.userID;
+            if (manager && this.session.isCustomer())
+                throw new HttpError(403, "Only managers can do this.");
+        }
+
+        void requireManagerOf(int hotelID) throws HttpError {
+            if (!this.session.manages(hotelID))
+                throw new HttpError(403, "You do not manage this hotel.");
+        }
+
+        boolean has(String name) {
+            return this.params.containsKey(name);
+        }
+
+        String text(String name) throws HttpError {
+            String value = this.params.get(name);
+            if (value == null)
+                throw new HttpError(400, "Missing parameter " + name + ".");
+            return value;
+        }
+
+        int integer(String name) throws HttpError {
+            try {
+                return Integer.parseInt(text(name).trim());
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "Parameter " + name + " must be an integer.");
+            }
+        }
+
+        double decimal(String name) throws HttpError {
+            try {
+                return Double.parseDouble(text(name).trim());
+            } catch (NumberFormatException e) {
+                throw new HttpError(400, "Parameter " + name + " must be a number.");
+            }
+        }
+
+        java.sql.Date date(String name) throws HttpError {
+            try {
+                return Hotel.parseDate(text(name));
+            } catch (ParseException e) {
+                throw new HttpError(400, "Parameter " + name + " must be a date as 'MM-dd-yyyy'.");
+            }
+        }
+
+        /**
+         * Sends the status line and headers, and returns the writer for the
+         * JSON body. The body is sent chunked, so it can be streamed.
+         */
+        JsonWriter begin(int status) throws IOException {
+            this.exchange.getResponseHeaders().set("Content-Type", JSON);
+            this.exchange.sendResponseHeaders(status, 0);
+            this.json = new JsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(this.exchange.getResponseBody(), StandardCharsets.UTF_8), 8192));
+            return this.json;
+        }
+
+        void finish() throws IOException {
+            if (this.json != null)
+                this.json.flush();
+        }
+
+        private void parseForm(String form) throws UnsupportedEncodingException {
+            if (form == null || form.length() == 0)
+                return;
+            for (String pair : form.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq < 0)
+                    this.params.put(URLDecoder.decode(pair, "UTF-8"), "");
+                else
+                    this.params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+
+        // reads a flat JSON object of strings, numbers, booleans and nulls
+        private void parseJson(String body) throws HttpError {
+            int[] pos = {1};
+            skipSpace(body, pos);
+            if (peek(body, pos) == '}')
+                return;
+            while (true) {
+                skipSpace(body, pos);
+                String name = jsonString(body, pos);
+                skipSpace(body, pos);
+                expect(body, pos, ':');
+                skipSpace(body, pos);
+                String value;
+                if (peek(body, pos) == '"') {
+                    value = jsonString(body, pos);
+                } else {
+                    int start = pos[0];
+                    while (pos[0] < body.length() && ",} \t\r\n".indexOf(body.charAt(pos[0])) < 0)
+                        pos[0]++;
+                    value = body.substring(start, pos[0]);
+                    if (value.length() == 0 || value.startsWith("{") || value.startsWith("["))
+                        throw new HttpError(400, "Only flat JSON objects are accepted.");
+                    if ("null".equals(value))
+                        value = null;
+                }
+                if (value != null)
+                    this.params.put(name, value);
+                skipSpace(body, pos);
+                char c = peek(body, pos);
+                pos[0]++;
+                if (c == '}')
+                    return;
+                if (c != ',')
+                    throw new HttpError(400, "Malformed JSON body.");
+            }
+        }
+    }//end Request
+
+    private static String jsonString(String s, int[] pos) throws HttpError {
+        expect(s, pos, '"');
+        StringBuilder out = new StringBuilder();
+        while (true) {
+            char c = peek(s, pos);
+            pos[0]++;
+            if (c == '"')
+                return out.toString();
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            char e = peek(s, pos);
+            pos[0]++;
+            switch (e) {
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'u':
+                    if (pos[0] + 4 > s.length())
+                        throw new HttpError(400, "Malformed JSON body.");
+                    try {
+                        out.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw new HttpError(400, "Malformed JSON body.");
+                    }
+                    pos[0] += 4;
+                    break;
+                default:
+                    out.append(e);
+                    break;
+            }
+        }
+    }
+
+    private static char peek(String s, int[] pos) throws HttpError {
+        if (pos[0] >= s.length())
+            throw new HttpError(400, "Malformed JSON body.");
+        return s.charAt(pos[0]);
+    }
+
+    private static void expect(String s, int[] pos, char c) throws HttpError {
+        if (peek(s, pos) != c)
+            throw new HttpError(400, "Malformed JSON body.");
+        pos[0]++;
+    }
+
+    private static void skipSpace(String s, int[] pos) {
+        while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0])))
+            pos[0]++;
+    }
+
+    private static String readBody(InputStream in) throws IOException, HttpError {
+        int limit = Integer.getInteger("hotel.server.maxBodyBytes", 65536);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            body.write(buffer, 0, n);
+            if (body.size() > limit)
+                throw new HttpError(413, "Request body too large.");
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // decodes standard base64, or returns null if the text is not base64
+    static String decodeBase64(String text) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '=')
+                break;
+            int v = alphabet.indexOf(c);
+            if (v < 0)
+                return null;
+            bits = (bits << 6) | v;
+            count += 6;
+            if (count >= 8) {
+                count -= 8;
+                out.write((bits >> count) & 0xff);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A failure to report to the client with the given HTTP status.
+     */
+    static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }//end HttpError
+
+    /**
+     * Runs the server until the JVM is stopped.
+     *
+     * @param args <dbname> <port> <user> [httpPort]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            HotelServer.class.getName() +
+                            " <dbname> <port> <user> [httpPort]");
+            return;
+        }
+        Hotel esql = null;
+        try {
+            // use postgres JDBC driver.
+            Class.forName("org.postgresql.Driver").newInstance();
+            esql = new Hotel(args[0], args[1], args[2], "");
+            esql.warmUp();
+            int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : 8080;
+            final HotelServer server = new HotelServer(esql, new InetSocketAddress(httpPort));
+            final Hotel served = esql;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    server.stop(Integer.getInteger("hotel.server.stopSeconds", 5));
+                    System.out.println("Connection pool: " + served.getPoolStats());
+                    System.out.println("Catalog cache: " + served.getCatalog());
+                    served.cleanup();
+                    if (served.getUpdateLog() != null)
+                        System.out.println("Update log queue: " + served.getUpdateLog());
+                    System.out.println("Replicas: " + served.getReplicaRouter());
+                }
+            });
+            server.start();
+            System.out.println("Serving on port " + server.getAddress().getPort());
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            if (esql != null)
+                esql.cleanup();
+        }
+    }//end main
+}//end HotelServer
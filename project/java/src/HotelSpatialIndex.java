@@ -0,0 +1,240 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An in-memory 2-d tree over the latitude/longitude of every hotel, used to
+ * answer "hotels near this point" without evaluating calculate_distance on
+ * every row of the Hotel table.
+ *
+ * The tree is implicit: the entries array is arranged so that the node of a
+ * range [lo, hi) sits at its middle, with its left subtree in [lo, mid) and
+ * its right subtree in (mid, hi). Even depths split on latitude and odd
+ * depths on longitude. An index is immutable; Hotel swaps in a freshly
+ * loaded one when the hotel list may have changed.
+ */
+public class HotelSpatialIndex {
+    // the coordinates and names of all hotels, in kd-tree order
+    static final String SQL_HOTEL_LOCATIONS =
+            "SELECT hotelID, hotelName, latitude, longitude FROM Hotel " +
+                    "WHERE latitude IS NOT NULL AND longitude IS NOT NULL";
+
+    private final Entry[] nodes;
+    private final long loadedAt;
+
+    private HotelSpatialIndex(Entry[] nodes) {
+        this.nodes = nodes;
+        this.loadedAt = System.currentTimeMillis();
+        build(0, nodes.length, 0);
+    }
+
+    /**
+     * Loads the locations of all hotels and builds a new index over them,
+     * reading them from a replica when there is one.
+     *
+     * @param esql the database to read the Hotel table from
+     * @return the new index
+     * @throws java.sql.SQLException when the hotels cannot be read
+     */
+    public static HotelSpatialIndex load(Hotel esql) throws SQLException {
+        final List<Entry> entries = new ArrayList<Entry>();
+        esql.executeReadQueryAndStream(ReplicaRouter.NO_KEY, SQL_HOTEL_LOCATIONS, new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                entries.add(new Entry(row.getInt(1), row.getString(2),
+                        row.getDouble(3), row.getDouble(4)));
+                return true;
+            }
+        });
+        return build(entries);
+    }//end load
+
+    /**
+     * Builds an index over the given hotels.
+     *
+     * @param entries the hotels to index
+     * @return the new index
+     */
+    public static HotelSpatialIndex build(List<Entry> entries) {
+        return new HotelSpatialIndex(entries.toArray(new Entry[entries.size()]));
+    }
+
+    /**
+     * @return the number of indexed hotels
+     */
+    public int size() {
+        return this.nodes.length;
+    }
+
+    /**
+     * @return the time this index was built, in milliseconds since the epoch
+     */
+    public long getLoadedAt() {
+        return this.loadedAt;
+    }
+
+    /**
+     * Collects every hotel inside the square of side 2 * radius centred on the
+     * given point. This is the prefilter for a radius search: the caller still
+     * has to check the exact distance of each candidate.
+     *
+     * @param latitude the latitude of the centre
+     * @param longitude the longitude of the centre
+     * @param radius the search radius
+     * @param out receives the candidates
+     */
+    public void candidatesWithin(double latitude, double longitude, double radius, List<Entry> out) {
+        rangeSearch(0, this.nodes.length, 0,
+                latitude - radius, latitude + radius,
+                longitude - radius, longitude + radius, out);
+    }
+
+    /**
+     * Finds the k hotels closest to the given point.
+     *
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @param k the number of hotels wanted
+     * @return at most k hotels, closest first
+     */
+    public List<Entry> nearest(double latitude, double longitude, int k) {
+        if (k <= 0)
+            return new ArrayList<Entry>();
+        // max-heap on distance, so the worst of the current k is at the head
+        PriorityQueue<Neighbor> best = new PriorityQueue<Neighbor>(k, Collections.reverseOrder());
+        nearestSearch(0, this.nodes.length, 0, latitude, longitude, k, best);
+
+        Neighbor[] sorted = best.toArray(new Neighbor[best.size()]);
+        Arrays.sort(sorted);
+        List<Entry> result = new ArrayList<Entry>(sorted.length);
+        for (Neighbor n : sorted)
+            result.add(n.entry);
+        return result;
+    }//end nearest
+
+    // arranges nodes[lo, hi) into an implicit kd-tree
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1)
+            return;
+        Arrays.sort(this.nodes, lo, hi, (depth & 1) == 0 ? BY_LATITUDE : BY_LONGITUDE);
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    private void rangeSearch(int lo, int hi, int depth,
+                             double minLat, double maxLat, double minLong, double maxLong,
+                             List<Entry> out) {
+        if (lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1;
+        Entry e = this.nodes[mid];
+        if (e.latitude >= minLat && e.latitude <= maxLat
+                && e.longitude >= minLong && e.longitude <= maxLong)
+            out.add(e);
+
+        boolean splitOnLatitude = (depth & 1) == 0;
+        double coord = splitOnLatitude ? e.latitude : e.longitude;
+        double min = splitOnLatitude ? minLat : minLong;
+        double max = splitOnLatitude ? maxLat : maxLong;
+        if (min <= coord)
+            rangeSearch(lo, mid, depth + 1, minLat, maxLat, minLong, maxLong, out);
+        if (coord <= max)
+            rangeSearch(mid + 1, hi, depth + 1, minLat, maxLat, minLong, maxLong, out);
+    }
+
+    private void nearestSearch(int lo, int hi, int depth, double latitude, double longitude,
+                               int k, PriorityQueue<Neighbor> best) {
+        if (lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1;
+        Entry e = this.nodes[mid];
+        double dLat = latitude - e.latitude;
+        double dLong = longitude - e.longitude;
+        double dist2 = dLat * dLat + dLong * dLong;
+        if (best.size() < k) {
+            best.add(new Neighbor(e, dist2));
+        } else if (dist2 < best.peek().dist2) {
+            best.poll();
+            best.add(new Neighbor(e, dist2));
+        }
+
+        // search the side of the split containing the point first, then the
+        // other side only if the splitting plane is closer than the k-th best
+        double diff = (depth & 1) == 0 ? dLat : dLong;
+        if (diff < 0) {
+            nearestSearch(lo, mid, depth + 1, latitude, longitude, k, best);
+            if (best.size() < k || diff * diff < best.peek().dist2)
+                nearestSearch(mid + 1, hi, depth + 1, latitude, longitude, k, best);
+        } else {
+            nearestSearch(mid + 1, hi, depth + 1, latitude, longitude, k, best);
+            if (best.size() < k || diff * diff < best.peek().dist2)
+                nearestSearch(lo, mid, depth + 1, latitude, longitude, k, best);
+        }
+    }//end nearestSearch
+
+    private static final Comparator<Entry> BY_LATITUDE = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            return Double.compare(a.latitude, b.latitude);
+        }
+    };
+
+    private static final Comparator<Entry> BY_LONGITUDE = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            return Double.compare(a.longitude, b.longitude);
+        }
+    };
+
+    /**
+     * The location of one hotel.
+     */
+    public static class Entry {
+        public final int hotelID;
+        public final String hotelName;
+        public final double latitude;
+        public final double longitude;
+
+        public Entry(int hotelID, String hotelName, double latitude, double longitude) {
+            this.hotelID = hotelID;
+            this.hotelName = hotelName;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }//end Entry
+
+    /**
+     * A hotel found by a search together with its exact distance from the
+     * search point, ordered by distance.
+     */
+    public static class Match implements Comparable<Match> {
+        public final Entry hotel;
+        public final double distance;
+
+        public Match(Entry hotel, double distance) {
+            this.hotel = hotel;
+            this.distance = distance;
+        }
+
+        public int compareTo(Match other) {
+            return Double.compare(this.distance, other.distance);
+        }
+    }//end Match
+
+    // a candidate of a nearest-neighbour search, ordered by squared distance
+    private static class Neighbor implements Comparable<Neighbor> {
+        final Entry entry;
+        final double dist2;
+
+        Neighbor(Entry entry, double dist2) {
+            this.entry = entry;
+            this.dist2 = dist2;
+        }
+
+        public int compareTo(Neighbor other) {
+            return Double.compare(this.dist2, other.dist2);
+        }
+    }//end Neighbor
+}//end HotelSpatialIndex
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A minimal streaming JSON writer, enough for the flat objects and arrays
+ * HotelServer sends. Values are written as they are given, so a long result
+ * can be streamed row by row without building it in memory first.
+ */
+public class JsonWriter {
+    private final Writer out;
+    // whether the innermost open object or array has no member yet
+    private boolean[] first = new boolean[16];
+    private int depth = 0;
+    // set between a name and its value
+    private boolean afterName = false;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * Writes the name of the next member of the current object.
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        this.out.write(':');
+        this.afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null)
+            this.out.write("null");
+        else
+            string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        this.out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        separate();
+        this.out.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        this.out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes a number given as text, such as a column read from the
+     * database, or null.
+     */
+    public JsonWriter number(String value) throws IOException {
+        separate();
+        this.out.write(value == null ? "null" : value.trim());
+        return this;
+    }
+
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    private JsonWriter open(char c) throws IOException {
+        separate();
+        this.out.write(c);
+        if (++this.depth == this.first.length) {
+            boolean[] grown = new boolean[this.first.length * 2];
+            System.arraycopy(this.first, 0, grown, 0, this.first.length);
+            this.first = grown;
+        }
+        this.first[this.depth] = true;
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        if (this.depth == 0)
+            throw new IllegalStateException("nothing to close");
+        this.depth--;
+        this.out.write(c);
+        return this;
+    }
+
+    // writes the comma before a value or name unless it is the first one
+    private void separate() throws IOException {
+        if (this.afterName) {
+            this.afterName = false;
+            return;
+        }
+        if (this.depth > 0) {
+            if (!this.first[this.depth])
+                this.out.write(',');
+            this.first[this.depth] = false;
+        }
+    }
+
+    private void string(String s) throws IOException {
+        this.out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    this.out.write("\\\"");
+                    break;
+                case '\\':
+                    this.out.write("\\\\");
+                    break;
+                case '\n':
+                    this.out.write("\\n");
+                    break;
+                case '\r':
+                    this.out.write("\\r");
+                    break;
+                case '\t':
+                    this.out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        String hex = Integer.toHexString(c);
+                        this.out.write("\\u");
+                        for (int pad = hex.length(); pad < 4; pad++)
+                            this.out.write('0');
+                        this.out.write(hex);
+                    } else {
+                        this.out.write(c);
+                    }
+                    break;
+            }
+        }
+        this.out.write('"');
+    }
+}//end JsonWriter
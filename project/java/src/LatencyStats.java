@@ -0,0 +1,151 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call count, error count, rows and a latency histogram of one operation or
+ * one SQL template.
+ *
+ * The histogram is log-linear: latencies below 32ns get a bucket each, and
+ * every power of two above is split into 16 buckets, so any latency a long
+ * can hold is kept within 1/16 (6.25%) of its value in 960 buckets.
+ * Recording is a handful of atomic increments on preallocated counters; it
+ * neither locks nor allocates.
+ */
+public class LatencyStats implements LatencyStatsMBean {
+    private static final int LINEAR = 32;
+    private static final int SUB_BUCKETS = 16;
+    private static final int BUCKETS = LINEAR + (63 - 5) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records one call.
+     *
+     * @param nanos how long the call took
+     * @param rows the rows it returned or changed, or a negative number if it failed
+     */
+    public void record(long nanos, long rows) {
+        if (nanos < 0)
+            nanos = 0;
+        this.buckets.incrementAndGet(bucket(nanos));
+        this.count.incrementAndGet();
+        this.totalNanos.addAndGet(nanos);
+        if (rows < 0)
+            this.errors.incrementAndGet();
+        else
+            this.rows.addAndGet(rows);
+        long max = this.maxNanos.get();
+        while (nanos > max && !this.maxNanos.compareAndSet(max, nanos))
+            max = this.maxNanos.get();
+    }
+
+    /**
+     * Returns the latency under which the given fraction of calls completed,
+     * accurate to the bucket width.
+     *
+     * @param fraction between 0 and 1, e.g. 0.99
+     * @return the latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long percentileNanos(double fraction) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), this.maxNanos.get());
+        }
+        return this.maxNanos.get();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    public long getRows() {
+        return this.rows.get();
+    }
+
+    public double getMeanMillis() {
+        long n = this.count.get();
+        return n == 0 ? 0 : this.totalNanos.get() / 1e6 / n;
+    }
+
+    public double getP50Millis() {
+        return percentileNanos(0.50) / 1e6;
+    }
+
+    public double getP99Millis() {
+        return percentileNanos(0.99) / 1e6;
+    }
+
+    public double getP999Millis() {
+        return percentileNanos(0.999) / 1e6;
+    }
+
+    public double getMaxMillis() {
+        return this.maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Clears all counters. Calls recorded while the reset runs may be
+     * partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            this.buckets.set(i, 0);
+        this.count.set(0);
+        this.errors.set(0);
+        this.rows.set(0);
+        this.totalNanos.set(0);
+        this.maxNanos.set(0);
+    }
+
+    public String toString() {
+        return String.format("%-40s %9d %7d %10d %10.3f %10.3f %10.3f %10.3f %10.3f",
+                this.name, getCount(), getErrors(), getRows(), getMeanMillis(),
+                getP50Millis(), getP99Millis(), getP999Millis(), getMaxMillis());
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < LINEAR)
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return LINEAR + (exponent - 5) * SUB_BUCKETS + (int) ((nanos >>> (exponent - 4)) & (SUB_BUCKETS - 1));
+    }
+
+    // the largest latency that falls into a bucket
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR)
+            return bucket;
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 5;
+        long sub = (bucket - LINEAR) % SUB_BUCKETS;
+        long width = 1L << (exponent - 4);
+        return ((SUB_BUCKETS + sub) << (exponent - 4)) + width - 1;
+    }
+}//end LatencyStats
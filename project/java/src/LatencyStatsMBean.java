@@ -0,0 +1,25 @@
+/**
+ * The JMX view of one LatencyStats: call counts, errors, rows and latency
+ * percentiles, in milliseconds, since the start or the last reset.
+ */
+public interface LatencyStatsMBean {
+    String getName();
+
+    long getCount();
+
+    long getErrors();
+
+    long getRows();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    void reset();
+}
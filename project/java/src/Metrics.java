@@ -0,0 +1,177 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The process-wide registry of LatencyStats: one per logical operation
+ * (viewRooms, bookRooms, ...) and one per SQL template run through the Hotel
+ * query helpers.
+ *
+ * SQL templates are known by the name of the SQL_* constant that holds them,
+ * registered with nameStatements(); statements that are not registered are
+ * counted together under "sql.other", so ad-hoc SQL cannot grow the
+ * registry. Every LatencyStats is published as the MBean
+ * hotel:type=Operation,name=... or hotel:type=Sql,name=..., and report()
+ * renders all of them as a text table, which startDumping() prints
+ * periodically.
+ */
+public class Metrics {
+    private static final ConcurrentMap<String, LatencyStats> operations =
+            new ConcurrentHashMap<String, LatencyStats>();
+    // keyed by the SQL text; the statements are constants, so their hash codes are cached
+    private static final ConcurrentMap<String, LatencyStats> statements =
+            new ConcurrentHashMap<String, LatencyStats>();
+    private static final LatencyStats otherStatements = register("Sql", new LatencyStats("sql.other"));
+
+    private static ScheduledExecutorService dumper = null;
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the stats of a logical operation, creating them on first use.
+     * Callers keep the result in a field, so the hot path does no lookup.
+     *
+     * @param name the operation, e.g. "viewRooms"
+     * @return its stats
+     */
+    public static LatencyStats operation(String name) {
+        LatencyStats stats = operations.get(name);
+        if (stats != null)
+            return stats;
+        LatencyStats created = new LatencyStats(name);
+        stats = operations.putIfAbsent(name, created);
+        if (stats != null)
+            return stats;
+        return register("Operation", created);
+    }
+
+    /**
+     * Returns the stats of a SQL template. This is a single map lookup on
+     * the statement text and does not allocate.
+     *
+     * @param sql the statement text
+     * @return its stats, or the shared stats of unregistered statements
+     */
+    public static LatencyStats sql(String sql) {
+        LatencyStats stats = statements.get(sql);
+        return stats != null ? stats : otherStatements;
+    }
+
+    /**
+     * Registers every static final String field named SQL_* of the given
+     * classes as a SQL template, named Class.FIELD.
+     *
+     * @param classes the classes that hold SQL templates
+     */
+    public static void nameStatements(Class<?>... classes) {
+        for (Class<?> c : classes) {
+            for (Field f : c.getDeclaredFields()) {
+                int modifiers = f.getModifiers();
+                if (!f.getName().startsWith("SQL_") || f.getType() != String.class
+                        || !Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers))
+                    continue;
+                try {
+                    f.setAccessible(true);
+                    String sql = (String) f.get(null);
+                    LatencyStats created = new LatencyStats(c.getName() + "." + f.getName());
+                    if (sql != null && statements.putIfAbsent(sql, created) == null)
+                        register("Sql", created);
+                } catch (IllegalAccessException e) {
+                    // cannot happen once accessible; skip the field
+                }
+            }
+        }
+    }//end nameStatements
+
+    /**
+     * Renders every operation and SQL template that has been called as a
+     * text table, operations first.
+     *
+     * @return the table, one line per entry
+     */
+    public static String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-40s %9s %7s %10s %10s %10s %10s %10s %10s%n",
+                "operation / statement", "count", "errors", "rows",
+                "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        List<LatencyStats> sqls = new ArrayList<LatencyStats>(statements.values());
+        sqls.add(otherStatements);
+        appendCalled(out, new ArrayList<LatencyStats>(operations.values()));
+        appendCalled(out, sqls);
+        return out.toString();
+    }
+
+    /**
+     * Prints report() every period on a daemon thread, until stopDumping().
+     * Only the first call in a process starts a dump.
+     *
+     * @param periodMillis the time between two dumps
+     * @param out where to print
+     */
+    public static synchronized void startDumping(long periodMillis, final PrintStream out) {
+        if (dumper != null || periodMillis <= 0)
+            return;
+        dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "hotel-metrics-dump");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        dumper.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                out.print(report());
+                out.flush();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic dump, if any.
+     */
+    public static synchronized void stopDumping() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    private static void appendCalled(StringBuilder out, List<LatencyStats> all) {
+        Collections.sort(all, new Comparator<LatencyStats>() {
+            public int compare(LatencyStats a, LatencyStats b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        for (LatencyStats stats : all) {
+            if (stats.getCount() > 0)
+                out.append(stats).append(String.format("%n"));
+        }
+    }
+
+    private static LatencyStats register(String type, LatencyStats stats) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("hotel:type=" + type + ",name=" + ObjectName.quote(stats.getName()));
+            if (!server.isRegistered(name))
+                server.registerMBean(stats, name);
+        } catch (Exception e) {
+            // JMX is optional, the stats still count and show in report()
+        }
+        return stats;
+    }
+}//end Metrics
@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The occupancy and revenue of a hotel over a date range, returned by
+ * {@link Hotel#findOccupancy(int, java.sql.Date, java.sql.Date, OccupancyReport.Period)}.
+ *
+ * The range is cut into days, calendar months or calendar years, the first
+ * and last ones clipped to the range. Each period sums the per-day rows of
+ * the HotelDailyBookings rollup, which arrive in day order, so the report
+ * is built in one pass that holds a single period at a time. Periods without
+ * bookings are reported with zeros. Occupancy is the share of the hotel's
+ * room-nights that were booked, counting the rooms the hotel has today.
+ */
+public class OccupancyReport {
+    public enum Period { DAY, MONTH, YEAR }
+
+    /**
+     * The bookings of one period.
+     */
+    public static final class Row {
+        public final java.sql.Date first;
+        public final java.sql.Date last;
+        public final int days;
+        public final long bookings;
+        public final long revenue;
+        public final double occupancy;
+
+        Row(java.sql.Date first, java.sql.Date last, int days, long bookings, long revenue, int rooms) {
+            this.first = first;
+            this.last = last;
+            this.days = days;
+            this.bookings = bookings;
+            this.revenue = revenue;
+            this.occupancy = occupancy(bookings, days, rooms);
+        }
+    }//end Row
+
+    public final int hotelID;
+    public final String hotelName;
+    public final int rooms;
+    public final java.sql.Date begin;
+    public final java.sql.Date end;
+    public final Period period;
+    // one row per period, in date order
+    public final List<Row> rows;
+    public final long bookings;
+    public final long revenue;
+    public final double occupancy;
+
+    private OccupancyReport(Builder builder) {
+        this.hotelID = builder.hotelID;
+        this.hotelName = builder.hotelName;
+        this.rooms = builder.rooms;
+        this.begin = builder.begin;
+        this.end = builder.end;
+        this.period = builder.period;
+        this.rows = Collections.unmodifiableList(builder.rows);
+        long bookings = 0;
+        long revenue = 0;
+        int days = 0;
+        for (Row row : this.rows) {
+            bookings += row.bookings;
+            revenue += row.revenue;
+            days += row.days;
+        }
+        this.bookings = bookings;
+        this.revenue = revenue;
+        this.occupancy = occupancy(bookings, days, this.rooms);
+    }
+
+    private static double occupancy(long bookings, int days, int rooms) {
+        return days <= 0 || rooms <= 0 ? 0.0 : (double) bookings / ((double) days * rooms);
+    }
+
+    /**
+     * Sums the days of the rollup into periods. The days are added in date
+     * order; a day outside the range is ignored.
+     */
+    static final class Builder {
+        private final int hotelID;
+        private final String hotelName;
+        private final int rooms;
+        private final java.sql.Date begin;
+        private final java.sql.Date end;
+        private final Period period;
+        private final int endDay;
+        private final List<Row> rows = new ArrayList<Row>();
+        // the current period, as days since 1970-01-01, and its sums
+        private int first;
+        private int last;
+        private long bookings = 0;
+        private long revenue = 0;
+
+        Builder(int hotelID, String hotelName, int rooms, java.sql.Date begin, java.sql.Date end, Period period) {
+            this.hotelID = hotelID;
+            this.hotelName = hotelName;
+            this.rooms = rooms;
+            this.begin = begin;
+            this.end = end;
+            this.period = period;
+            this.endDay = AvailabilityCache.epochDay(end);
+            this.first = AvailabilityCache.epochDay(begin);
+            this.last = lastOfPeriod(this.first);
+        }
+
+        void add(java.sql.Date date, long bookings, long revenue) {
+            int day = AvailabilityCache.epochDay(date);
+            if (day < this.first || day > this.endDay)
+                return;
+            while (day > this.last)
+                next();
+            this.bookings += bookings;
+            this.revenue += revenue;
+        }
+
+        OccupancyReport build() {
+            while (this.first <= this.endDay)
+                next();
+            return new OccupancyReport(this);
+        }
+
+        // closes the current period and opens the one after it
+        private void next() {
+            this.rows.add(new Row(date(this.first), date(this.last), this.last - this.first + 1,
+                    this.bookings, this.revenue, this.rooms));
+            this.first = this.last + 1;
+            this.last = lastOfPeriod(this.first);
+            this.bookings = 0;
+            this.revenue = 0;
+        }
+
+        // the last day of the period starting on a day, clipped to the end of the range
+        private int lastOfPeriod(int day) {
+            Calendar cal = calendar(day);
+            if (this.period == Period.YEAR)
+                cal.set(Calendar.MONTH, Calendar.DECEMBER);
+            if (this.period != Period.DAY)
+                cal.set(Calendar.DAY_OF_MONTH, cal.getActualMaximum(Calendar.DAY_OF_MONTH));
+            int last = AvailabilityCache.daysFromCivil(cal.get(Calendar.YEAR), cal.get(Calendar.MONTH) + 1,
+                    cal.get(Calendar.DAY_OF_MONTH));
+            return Math.min(last, this.endDay);
+        }
+
+        private static java.sql.Date date(int day) {
+            return new java.sql.Date(calendar(day).getTimeInMillis());
+        }
+
+        // midnight of a day in the default time zone, like the dates JDBC returns
+        private static Calendar calendar(int day) {
+            Calendar cal = Calendar.getInstance();
+            cal.clear();
+            cal.set(1970, Calendar.JANUARY, 1);
+            cal.add(Calendar.DAY_OF_MONTH, day);
+            return cal;
+        }
+    }//end Builder
+}//end OccupancyReport
@@ -0,0 +1,169 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * A physical database connection owned by a {@link ConnectionPool}. Callers
+ * borrow it from the pool, use {@link #getConnection()} and hand it back with
+ * {@link ConnectionPool#release(PooledConnection)}; they never close it.
+ *
+ * Each pooled connection keeps an LRU cache of prepared statements keyed by
+ * their SQL text. The driver only interpolates the parameters into the text
+ * it sends, so queries and DML are also prepared on the server: the first
+ * execution sends PREPARE and later ones EXECUTE, and the server parses and
+ * plans the template once per connection. Other statements, e.g. DDL or
+ * DECLARE, cannot be prepared there and stay client-side.
+ */
+public class PooledConnection {
+    // the physical connection
+    private final Connection _connection;
+
+    // the pool owning this connection, it keeps the cache counters
+    private final ConnectionPool pool;
+
+    // prepared statements by SQL text, least recently used first
+    private final StatementCache statements;
+
+    // bookkeeping used by the pool for validation and idle eviction
+    private final long createdAt;
+    private long lastUsedAt;
+
+    PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize) {
+        this.pool = pool;
+        this._connection = connection;
+        this.statements = new StatementCache(statementCacheSize);
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = this.createdAt;
+    }
+
+    /**
+     * @return the physical connection backing this pooled connection
+     */
+    public Connection getConnection() {
+        return this._connection;
+    }
+
+    /**
+     * Returns the cached prepared statement for the given SQL template,
+     * preparing it on a cache miss, on the server when it is a query or DML.
+     * The statement stays owned by the cache: callers close the result sets
+     * they open but never the statement, and call evict() when it fails.
+     *
+     * @param sql the SQL template with ? placeholders
+     * @return a prepared statement with its parameters cleared
+     * @throws java.sql.SQLException when the statement cannot be prepared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, isServerPreparable(sql));
+    }
+
+    /**
+     * Like prepare(String), choosing whether a new statement is prepared on
+     * the server. Statements run with executeBatch() stay client-side.
+     *
+     * @param sql the SQL template with ? placeholders
+     * @param serverPrepare whether a statement prepared on a cache miss is prepared on the server
+     * @return a prepared statement with its parameters cleared
+     * @throws java.sql.SQLException when the statement cannot be prepared
+     */
+    public PreparedStatement prepare(String sql, boolean serverPrepare) throws SQLException {
+        PreparedStatement stmt = this.statements.get(sql);
+        if (stmt != null) {
+            this.pool.recordStatementCacheHit();
+            stmt.clearParameters();
+            return stmt;
+        }
+        this.pool.recordStatementCacheMiss();
+        stmt = this._connection.prepareStatement(sql);
+        if (serverPrepare)
+            ((PGStatement) stmt).setUseServerPrepare(true);
+        this.statements.put(sql, stmt);
+        return stmt;
+    }//end prepare
+
+    /**
+     * Drops the cached statement of a template after an execution failed.
+     * The driver names a server-side statement before its first PREPARE is
+     * sent and never prepares it again, so one whose PREPARE failed would
+     * fail every later execution; the next prepare() starts afresh.
+     *
+     * @param sql the SQL template that failed
+     */
+    public void evict(String sql) {
+        PreparedStatement stmt = this.statements.remove(sql);
+        if (stmt != null)
+            closeQuietly(stmt);
+    }
+
+    // whether the server can PREPARE the statement
+    private static boolean isServerPreparable(String sql) {
+        String s = sql.trim();
+        int end = 0;
+        while (end < s.length() && Character.isLetter(s.charAt(end)))
+            end++;
+        String verb = s.substring(0, end).toUpperCase(Locale.ROOT);
+        return verb.equals("SELECT") || verb.equals("WITH") || verb.equals("VALUES")
+                || verb.equals("INSERT") || verb.equals("UPDATE") || verb.equals("DELETE");
+    }
+
+    long getCreatedAt() {
+        return this.createdAt;
+    }
+
+    long getLastUsedAt() {
+        return this.lastUsedAt;
+    }
+
+    void touch() {
+        this.lastUsedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the physical connection, ignoring any error.
+     */
+    void closeQuietly() {
+        for (PreparedStatement stmt : this.statements.values())
+            closeQuietly(stmt);
+        this.statements.clear();
+        try {
+            this._connection.close();
+        } catch (SQLException e) {
+            // ignored.
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // ignored.
+        }
+    }
+
+    /**
+     * An access-ordered map that closes the least recently used statement
+     * once it holds more than its capacity.
+     */
+    private static class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        StatementCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= capacity)
+                return false;
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    }//end StatementCache
+}//end PooledConnection
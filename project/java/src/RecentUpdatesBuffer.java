@@ -0,0 +1,158 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the latest room updates of each manager in a fixed-size ring, so
+ * that viewRecentUpdates is served from memory instead of from the
+ * ever-growing RoomUpdatesLog.
+ *
+ * Rings are filled at startup by warmUp(), which reads the latest updates
+ * of every hotel manager through the (managerID, updatedOn) index, and then
+ * by every room update made through this process. A manager without a ring,
+ * because the process started cold or the ring was evicted, is read with the
+ * same index-backed query. Rings older than the refresh interval are read
+ * again to pick up updates made by other processes, and the least recently
+ * used rings are evicted beyond maxManagers.
+ */
+public class RecentUpdatesBuffer {
+    // the latest updates of every current hotel manager, one index range scan per manager
+    static final String SQL_LATEST_UPDATES_OF_MANAGERS =
+            "SELECT L.updateNumber, L.managerID, L.hotelID, L.roomNumber, L.updatedOn " +
+                    "FROM (SELECT DISTINCT managerUserID FROM Hotel LIMIT ?) M " +
+                    "CROSS JOIN LATERAL (" +
+                    "SELECT * FROM RoomUpdatesLog U WHERE U.managerID = M.managerUserID " +
+                    "ORDER BY U.updatedOn DESC, U.updateNumber DESC LIMIT ?) L " +
+                    "ORDER BY L.managerID, L.updatedOn, L.updateNumber";
+
+    private final Hotel esql;
+    private final int depth;
+    private final long refreshMillis;
+    private final Map<Integer, Ring> managers;
+    private final int maxManagers;
+
+    /**
+     * @param esql the database to read the log from
+     * @param depth the number of updates kept per manager
+     * @param maxManagers the number of managers kept
+     * @param refreshMillis the age after which a ring is read again
+     */
+    public RecentUpdatesBuffer(Hotel esql, int depth, final int maxManagers, long refreshMillis) {
+        if (depth < 1)
+            throw new IllegalArgumentException("depth must be positive");
+        this.esql = esql;
+        this.depth = depth;
+        this.refreshMillis = refreshMillis;
+        this.maxManagers = maxManagers;
+        this.managers = new LinkedHashMap<Integer, Ring>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, Ring> eldest) {
+                return size() > maxManagers;
+            }
+        };
+    }
+
+    /**
+     * @return the number of updates kept per manager
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * Fills the rings of the hotel managers from the log, oldest update
+     * first so that each ring ends up holding the latest ones.
+     *
+     * @throws java.sql.SQLException when the log cannot be read
+     */
+    public void warmUp() throws SQLException {
+        final Map<Integer, Ring> loaded = new LinkedHashMap<Integer, Ring>();
+        this.esql.executeQueryAndStream(SQL_LATEST_UPDATES_OF_MANAGERS, new RowHandler() {
+            public boolean handle(ResultRow row) throws SQLException {
+                int managerID = row.getInt(2);
+                Ring ring = loaded.get(managerID);
+                if (ring == null) {
+                    ring = new Ring(RecentUpdatesBuffer.this.depth);
+                    loaded.put(managerID, ring);
+                }
+                ring.push(new String[]{row.getString(1), row.getString(2), row.getString(3),
+                        row.getString(4), row.getString(5)});
+                return true;
+            }
+        }, this.maxManagers, this.depth);
+        synchronized (this) {
+            this.managers.putAll(loaded);
+        }
+    }//end warmUp
+
+    /**
+     * Returns the latest updates of a manager, reading them from the log if
+     * the manager has no ring or it has gone stale.
+     *
+     * @param managerID the manager
+     * @return records of updateNumber, managerID, hotelID, roomNumber and updatedOn, latest first
+     * @throws java.sql.SQLException when the log cannot be read
+     */
+    public List<List<String>> get(int managerID) throws SQLException {
+        synchronized (this) {
+            Ring ring = this.managers.get(managerID);
+            if (ring != null && System.currentTimeMillis() - ring.loadedAt < this.refreshMillis)
+                return ring.latestFirst();
+        }
+        List<List<String>> latest = this.esql.executeQueryAndReturnResult(Hotel.SQL_RECENT_UPDATES, managerID, this.depth);
+        Ring ring = new Ring(this.depth);
+        for (int i = latest.size() - 1; i >= 0; i--)
+            ring.push(latest.get(i).toArray(new String[5]));
+        synchronized (this) {
+            this.managers.put(managerID, ring);
+        }
+        return latest;
+    }//end get
+
+    /**
+     * Adds an update just written to the log. A manager without a ring is
+     * left alone, the next read loads the ring from the log.
+     *
+     * @param update updateNumber, managerID, hotelID, roomNumber and updatedOn
+     */
+    public synchronized void record(String[] update) {
+        Ring ring = this.managers.get(Integer.parseInt(update[1]));
+        if (ring != null)
+            ring.push(update);
+    }
+
+    /**
+     * The latest updates of one manager, overwriting the oldest once full.
+     */
+    private static final class Ring {
+        private final String[][] updates;
+        private final long loadedAt = System.currentTimeMillis();
+        // where the next update goes, and how many slots are used
+        private int next = 0;
+        private int size = 0;
+
+        Ring(int depth) {
+            this.updates = new String[depth][];
+        }
+
+        void push(String[] update) {
+            this.updates[this.next] = update;
+            this.next = (this.next + 1) % this.updates.length;
+            if (this.size < this.updates.length)
+                this.size++;
+        }
+
+        List<List<String>> latestFirst() {
+            List<List<String>> records = new ArrayList<List<String>>(this.size);
+            for (int i = 1; i <= this.size; i++) {
+                String[] update = this.updates[(this.next - i + this.updates.length) % this.updates.length];
+                List<String> record = new ArrayList<String>(update.length);
+                for (String value : update)
+                    record.add(value);
+                records.add(record);
+            }
+            return records;
+        }
+    }//end Ring
+}//end RecentUpdatesBuffer
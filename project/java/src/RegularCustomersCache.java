@@ -0,0 +1,176 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the top customers of recently viewed hotels in memory, so that
+ * viewRegularCustomers does not need a round trip at all in the common case.
+ *
+ * The lists come from the CustomerHotelBookings rollup, which the database
+ * keeps exact, and are only as large as the query limit. A booking made
+ * through this process is applied in place when the customer is already on
+ * the hotel's list; otherwise the customer may have just entered the top,
+ * so the list is dropped and re-read on the next view. Lists are also
+ * re-read once they are older than the refresh interval, to pick up
+ * bookings made by other processes, and the least recently viewed hotels
+ * are evicted beyond maxHotels. Lists are read from a replica when there is
+ * one, unless the hotel was just booked through this process.
+ */
+public class RegularCustomersCache {
+    private final Hotel esql;
+    private final long refreshMillis;
+    private final Map<Integer, TopCustomers> hotels;
+
+    /**
+     * @param esql the database to read the rollup from
+     * @param maxHotels the number of hotels kept
+     * @param refreshMillis the age after which a list is read again
+     */
+    public RegularCustomersCache(Hotel esql, final int maxHotels, long refreshMillis) {
+        this.esql = esql;
+        this.refreshMillis = refreshMillis;
+        this.hotels = new LinkedHashMap<Integer, TopCustomers>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, TopCustomers> eldest) {
+                return size() > maxHotels;
+            }
+        };
+    }
+
+    /**
+     * Returns the top customers of a hotel, reading them from the rollup if
+     * they are not cached or have gone stale.
+     *
+     * @param hotelID the hotel
+     * @return records of userID, name and number of bookings, most bookings first
+     * @throws java.sql.SQLException when the rollup cannot be read
+     */
+    public List<List<String>> get(int hotelID) throws SQLException {
+        TopCustomers top;
+        synchronized (this) {
+            top = this.hotels.get(hotelID);
+        }
+        if (top == null || System.currentTimeMillis() - top.loadedAt >= this.refreshMillis) {
+            top = TopCustomers.of(this.esql.executeReadQueryAndReturnResult(ReplicaRouter.hotel(hotelID),
+                    Hotel.SQL_REGULAR_CUSTOMERS, hotelID));
+            synchronized (this) {
+                this.hotels.put(hotelID, top);
+            }
+        }
+        return top.toRecords();
+    }
+
+    /**
+     * Applies a new booking of a customer in a hotel.
+     */
+    public synchronized void recordBooking(int hotelID, int customerID) {
+        TopCustomers top = this.hotels.get(hotelID);
+        if (top == null)
+            return;
+        TopCustomers updated = top.withBooking(customerID);
+        if (updated == null)
+            this.hotels.remove(hotelID);
+        else
+            this.hotels.put(hotelID, updated);
+    }
+
+    /**
+     * Drops the list of a hotel, to be called when its bookings changed in
+     * a way recordBooking cannot follow.
+     */
+    public synchronized void invalidate(int hotelID) {
+        this.hotels.remove(hotelID);
+    }
+
+    /**
+     * Drops every list.
+     */
+    public synchronized void clear() {
+        this.hotels.clear();
+    }
+
+    /**
+     * An immutable top list, ordered by bookings descending then customerID,
+     * as the rollup index returns it.
+     */
+    static final class TopCustomers {
+        final int[] customerIDs;
+        final String[] names;
+        final int[] bookings;
+        final long loadedAt;
+
+        private TopCustomers(int[] customerIDs, String[] names, int[] bookings, long loadedAt) {
+            this.customerIDs = customerIDs;
+            this.names = names;
+            this.bookings = bookings;
+            this.loadedAt = loadedAt;
+        }
+
+        static TopCustomers of(List<List<String>> records) {
+            int n = records.size();
+            int[] customerIDs = new int[n];
+            String[] names = new String[n];
+            int[] bookings = new int[n];
+            for (int i = 0; i < n; i++) {
+                List<String> record = records.get(i);
+                customerIDs[i] = Integer.parseInt(record.get(0).trim());
+                names[i] = record.get(1);
+                bookings[i] = Integer.parseInt(record.get(2).trim());
+            }
+            return new TopCustomers(customerIDs, names, bookings, System.currentTimeMillis());
+        }
+
+        /**
+         * @return the list after one more booking of the customer, or null if
+         * that cannot be known without asking the database
+         */
+        TopCustomers withBooking(int customerID) {
+            int n = this.customerIDs.length;
+            int at = -1;
+            for (int i = 0; i < n; i++) {
+                if (this.customerIDs[i] == customerID) {
+                    at = i;
+                    break;
+                }
+            }
+            // a customer off the list may now outrank its last entry
+            if (at < 0)
+                return null;
+
+            int[] ids = this.customerIDs.clone();
+            String[] ns = this.names.clone();
+            int[] counts = this.bookings.clone();
+            counts[at]++;
+            // move the customer up past everyone it now outranks
+            while (at > 0 && (counts[at - 1] < counts[at]
+                    || (counts[at - 1] == counts[at] && ids[at - 1] > ids[at]))) {
+                swap(ids, at, at - 1);
+                swap(counts, at, at - 1);
+                String name = ns[at];
+                ns[at] = ns[at - 1];
+                ns[at - 1] = name;
+                at--;
+            }
+            return new TopCustomers(ids, ns, counts, this.loadedAt);
+        }
+
+        List<List<String>> toRecords() {
+            List<List<String>> records = new ArrayList<List<String>>(this.customerIDs.length);
+            for (int i = 0; i < this.customerIDs.length; i++) {
+                List<String> record = new ArrayList<String>(3);
+                record.add(Integer.toString(this.customerIDs[i]));
+                record.add(this.names[i]);
+                record.add(Integer.toString(this.bookings[i]));
+                records.add(record);
+            }
+            return records;
+        }
+
+        private static void swap(int[] a, int i, int j) {
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }//end TopCustomers
+}//end RegularCustomersCache
@@ -0,0 +1,322 @@
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Chooses where a read-only query runs: on one of the streaming replicas of
+ * the database, or on the primary.
+ *
+ * Replicas are chosen in turn (ROUND_ROBIN) or by the lowest moving average
+ * of their recent query times (LEAST_LATENCY), which includes the time spent
+ * waiting for one of their connections. A read that fails on a replica
+ * before it handed anything to its caller runs again on the primary, and
+ * the replica is skipped for downMillis. The pg73 driver sets no SQLState,
+ * so a lost connection cannot be told apart from an error in the query:
+ * any failure counts as the replica's, and its connection is closed rather
+ * than handed back to the pool.
+ *
+ * A replica lags the primary, so a user who just wrote would not always see
+ * the write there. Writes are noted under a key, the user or the hotel they
+ * change, and reads under the same key go to the primary for stickyMillis
+ * afterwards. The keys are hashed to a fixed table of write times: two keys
+ * sharing a slot only send a few more reads to the primary. Reads are
+ * routed to the primary when there is no replica or all of them are down.
+ */
+public class ReplicaRouter {
+    /**
+     * The key of a read or write that concerns no user or hotel in particular;
+     * such reads always go to a replica when one is up.
+     */
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    // the weight of the latest query time in the moving average, as 1 / EWMA_DIVISOR
+    private static final int EWMA_DIVISOR = 8;
+    // with LEAST_LATENCY, one read in PROBE_EVERY still goes round robin, so that
+    // the average of a replica that was slow for a while gets to come down again
+    private static final int PROBE_EVERY = 16;
+
+    public enum Policy { ROUND_ROBIN, LEAST_LATENCY }
+
+    /**
+     * A read-only query, run by read() on a replica or on the primary.
+     */
+    public interface Read<T> {
+        /**
+         * Runs the read on a connection borrowed from a replica, which the
+         * router hands back or closes.
+         */
+        T onReplica(PooledConnection conn) throws SQLException;
+
+        /**
+         * Runs the read on the primary, when no replica is up or the read
+         * failed on one.
+         */
+        T onPrimary() throws SQLException;
+
+        /**
+         * @return true once the read handed part of its result to its caller,
+         * after which a failure cannot be retried on the primary
+         */
+        boolean isStarted();
+    }
+
+    /**
+     * One replica: its connection pool and the statistics used to choose it.
+     */
+    public static final class Replica {
+        private final String name;
+        private final ConnectionPool pool;
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        // moving average of the query times in nanoseconds, 0 until the first read
+        private final AtomicLong averageNanos = new AtomicLong();
+        private volatile long downUntil = 0;
+
+        Replica(String name, ConnectionPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public ConnectionPool getPool() {
+            return this.pool;
+        }
+
+        public long getReads() {
+            return this.reads.get();
+        }
+
+        public long getFailures() {
+            return this.failures.get();
+        }
+
+        public double getAverageMillis() {
+            return this.averageNanos.get() / 1e6;
+        }
+
+        public boolean isDown() {
+            return System.currentTimeMillis() < this.downUntil;
+        }
+
+        public String toString() {
+            return String.format("%s reads=%d failures=%d avg=%.2fms%s", this.name, getReads(), getFailures(),
+                    getAverageMillis(), isDown() ? " down" : "");
+        }
+    }//end Replica
+
+    private final Replica[] replicas;
+    private final Policy policy;
+    private final long stickyMillis;
+    private final long downMillis;
+    // the time of the latest write under each slot of keys
+    private final AtomicLongArray writes;
+    private final int mask;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong primaryReads = new AtomicLong();
+    private final AtomicLong stickyReads = new AtomicLong();
+
+    /**
+     * @param names the names of the replicas, reported in the statistics
+     * @param pools the connection pools of the replicas, in the same order; may be empty
+     * @param policy how a replica is chosen among those up
+     * @param stickyMillis how long the reads under a written key go to the primary
+     * @param downMillis how long a failed replica is skipped
+     * @param writeSlots the size of the table of write times, rounded up to a power of two
+     */
+    public ReplicaRouter(List<String> names, List<ConnectionPool> pools, Policy policy,
+                         long stickyMillis, long downMillis, int writeSlots) {
+        if (names.size() != pools.size())
+            throw new IllegalArgumentException("one name per replica pool");
+        this.replicas = new Replica[pools.size()];
+        for (int i = 0; i < this.replicas.length; i++)
+            this.replicas[i] = new Replica(names.get(i), pools.get(i));
+        this.policy = policy;
+        this.stickyMillis = stickyMillis;
+        this.downMillis = downMillis;
+        int slots = Integer.highestOneBit(Math.max(1, Math.min(writeSlots, 1 << 30)));
+        if (slots < writeSlots)
+            slots <<= 1;
+        this.writes = new AtomicLongArray(slots);
+        this.mask = slots - 1;
+    }
+
+    /**
+     * @return the key of the reads and writes of a user
+     */
+    public static long user(int userID) {
+        return userID;
+    }
+
+    /**
+     * @return the key of the reads and writes of a hotel
+     */
+    public static long hotel(int hotelID) {
+        return (1L << 32) | (hotelID & 0xffffffffL);
+    }
+
+    /**
+     * Notes a write under a key, so that its reads go to the primary for
+     * stickyMillis. To be called before the write is issued.
+     */
+    public void noteWrite(long key) {
+        if (key != NO_KEY && this.replicas.length > 0)
+            this.writes.set(slot(key), System.currentTimeMillis());
+    }
+
+    /**
+     * Chooses the replica to run a read on.
+     *
+     * @param key the key of the read, or NO_KEY
+     * @return the replica, or null to run the read on the primary
+     */
+    public Replica choose(long key) {
+        if (this.replicas.length == 0) {
+            this.primaryReads.incrementAndGet();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (key != NO_KEY && now - this.writes.get(slot(key)) < this.stickyMillis) {
+            this.stickyReads.incrementAndGet();
+            this.primaryReads.incrementAndGet();
+            return null;
+        }
+        Replica chosen = null;
+        int turn = this.next.getAndIncrement() & Integer.MAX_VALUE;
+        if (this.policy == Policy.LEAST_LATENCY && turn % PROBE_EVERY != 0) {
+            for (Replica replica : this.replicas) {
+                if (now >= replica.downUntil
+                        && (chosen == null || replica.averageNanos.get() < chosen.averageNanos.get()))
+                    chosen = replica;
+            }
+        } else {
+            int first = this.policy == Policy.ROUND_ROBIN ? turn : turn / PROBE_EVERY;
+            for (int i = 0; i < this.replicas.length && chosen == null; i++) {
+                Replica replica = this.replicas[(first + i) % this.replicas.length];
+                if (now >= replica.downUntil)
+                    chosen = replica;
+            }
+        }
+        if (chosen == null)
+            this.primaryReads.incrementAndGet();
+        return chosen;
+    }//end choose
+
+    /**
+     * Runs a read on the replica chosen for its key, or on the primary. A
+     * read that fails on the replica before it started, including one whose
+     * connection could not be borrowed, runs again on the primary.
+     *
+     * @param key the key of the read, or NO_KEY
+     * @param read the read to run
+     * @return the result of the read
+     * @throws java.sql.SQLException when the read fails on the primary, or
+     * on a replica after it started
+     */
+    public <T> T read(long key, Read<T> read) throws SQLException {
+        Replica replica = choose(key);
+        if (replica != null) {
+            long start = System.nanoTime();
+            PooledConnection conn = null;
+            try {
+                conn = replica.pool.borrow();
+                T result = read.onReplica(conn);
+                record(replica, System.nanoTime() - start);
+                return result;
+            } catch (SQLException e) {
+                // the connection may be broken, so it is not reused
+                PooledConnection failed = conn;
+                conn = null;
+                replica.pool.invalidate(failed);
+                // the rows already handled cannot be taken back
+                if (failed != null && read.isStarted())
+                    throw e;
+                fail(replica, true, e);
+            } finally {
+                if (conn != null)
+                    replica.pool.release(conn);
+            }
+        }//end if
+        return read.onPrimary();
+    }//end read
+
+    /**
+     * Records a read that completed on a replica.
+     *
+     * @param nanos the time the read took, including the wait for a connection
+     */
+    public void record(Replica replica, long nanos) {
+        replica.reads.incrementAndGet();
+        long average;
+        long updated;
+        do {
+            average = replica.averageNanos.get();
+            updated = average == 0 ? Math.max(1L, nanos) : average + (nanos - average) / EWMA_DIVISOR;
+        } while (!replica.averageNanos.compareAndSet(average, updated));
+    }
+
+    /**
+     * Records a read that failed on a replica and is run again on the
+     * primary. With down set the replica is skipped for downMillis.
+     */
+    public void fail(Replica replica, boolean down, SQLException e) {
+        replica.failures.incrementAndGet();
+        this.primaryReads.incrementAndGet();
+        if (down && !replica.isDown()) {
+            replica.downUntil = System.currentTimeMillis() + this.downMillis;
+            System.err.println("Replica " + replica.name + " is skipped for " + this.downMillis + " ms: "
+                    + e.getMessage());
+        }
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & this.mask;
+    }
+
+    /**
+     * @return the replicas, in the configured order
+     */
+    public Replica[] getReplicas() {
+        return this.replicas.clone();
+    }
+
+    public Policy getPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * @return the reads routed to the primary, for any reason
+     */
+    public long getPrimaryReads() {
+        return this.primaryReads.get();
+    }
+
+    /**
+     * @return the reads routed to the primary because their key was written recently
+     */
+    public long getStickyReads() {
+        return this.stickyReads.get();
+    }
+
+    /**
+     * Closes the connection pools of the replicas.
+     */
+    public void close() {
+        for (Replica replica : this.replicas)
+            replica.pool.close();
+    }
+
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("policy=").append(this.policy).append(" primaryReads=").append(getPrimaryReads())
+                .append(" sticky=").append(getStickyReads());
+        for (Replica replica : this.replicas)
+            s.append(" [").append(replica).append(']');
+        return s.toString();
+    }
+}//end ReplicaRouter
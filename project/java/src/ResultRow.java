@@ -0,0 +1,90 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * A typed, reusable view over the current row of a streamed query. One
+ * instance is created per query and moved along the rows of each batch
+ * fetched from the cursor, so reading a row allocates nothing beyond the
+ * values the caller asks for. Columns are numbered from 1, as in JDBC.
+ */
+public class ResultRow {
+    private ResultSet rs = null;
+    private ResultSetMetaData rsmd = null;
+    private int rowNumber = 0;
+
+    ResultRow() {
+    }
+
+    // moves the view onto the next batch of rows fetched from the cursor
+    void fetched(ResultSet rs) {
+        this.rs = rs;
+        this.rsmd = null;
+    }
+
+    // moves the view to the next row of the cursor
+    boolean next() throws SQLException {
+        if (!this.rs.next())
+            return false;
+        this.rowNumber++;
+        return true;
+    }
+
+    /**
+     * @return the 1-based position of the current row in the result
+     */
+    public int getRowNumber() {
+        return this.rowNumber;
+    }
+
+    public int getColumnCount() throws SQLException {
+        return metaData().getColumnCount();
+    }
+
+    public String getColumnName(int column) throws SQLException {
+        return metaData().getColumnName(column);
+    }
+
+    public int getInt(int column) throws SQLException {
+        return this.rs.getInt(column);
+    }
+
+    public long getLong(int column) throws SQLException {
+        return this.rs.getLong(column);
+    }
+
+    public double getDouble(int column) throws SQLException {
+        return this.rs.getDouble(column);
+    }
+
+    public BigDecimal getBigDecimal(int column) throws SQLException {
+        return this.rs.getBigDecimal(column);
+    }
+
+    public String getString(int column) throws SQLException {
+        return this.rs.getString(column);
+    }
+
+    public java.sql.Date getDate(int column) throws SQLException {
+        return this.rs.getDate(column);
+    }
+
+    public Timestamp getTimestamp(int column) throws SQLException {
+        return this.rs.getTimestamp(column);
+    }
+
+    /**
+     * @return true if the last column read was SQL NULL
+     */
+    public boolean wasNull() throws SQLException {
+        return this.rs.wasNull();
+    }
+
+    private ResultSetMetaData metaData() throws SQLException {
+        if (this.rsmd == null)
+            this.rsmd = this.rs.getMetaData();
+        return this.rsmd;
+    }
+}//end ResultRow
@@ -0,0 +1,113 @@
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Fills in the HotelDailyBookings rollup of create_rollups.sql for the
+ * bookings made before it was installed, while the program keeps booking.
+ *
+ * The history is walked from its first booking date to its last, chunkDays
+ * days at a time. Each chunk is recounted by one call to
+ * backfill_hotel_daily_bookings, so the database aggregates the bookings of
+ * the chunk where they are and only the number of days comes back. A chunk
+ * is its own transaction: new bookings wait for the rollup lock for the
+ * time of one chunk only, and an interrupted backfill keeps the chunks it
+ * completed. Running it again recounts every chunk, which changes nothing
+ * once the rollup is exact.
+ *
+ * Bookings without a stored price get their room's current price as their
+ * chunk is recounted, so later cancellations take back what they added.
+ * Revenue that drifted before prices were stored on the bookings is
+ * repaired by running the backfill again.
+ */
+public class RollupBackfill {
+    static final String SQL_BOOKING_DATE_RANGE =
+            "SELECT MIN(bookingDate), MAX(bookingDate) FROM RoomBookings";
+    static final String SQL_BACKFILL_DAYS =
+            "SELECT backfill_hotel_daily_bookings(?, ?)";
+
+    private final Hotel esql;
+    private final int chunkDays;
+
+    /**
+     * @param esql the database to backfill
+     * @param chunkDays the number of days recounted per transaction
+     */
+    public RollupBackfill(Hotel esql, int chunkDays) {
+        if (chunkDays < 1)
+            throw new IllegalArgumentException("chunkDays must be positive");
+        this.esql = esql;
+        this.chunkDays = chunkDays;
+    }
+
+    /**
+     * Recounts every day of RoomBookings, printing each chunk as it is done.
+     *
+     * @return the number of (hotel, day) rows written
+     * @throws java.sql.SQLException when a chunk cannot be recounted; the
+     * chunks before it are kept
+     */
+    public long run() throws SQLException {
+        List<List<String>> range = this.esql.executeQueryAndReturnResult(SQL_BOOKING_DATE_RANGE);
+        if (range.isEmpty() || range.get(0).get(0) == null)
+            return 0;
+        java.sql.Date first = java.sql.Date.valueOf(range.get(0).get(0).trim());
+        java.sql.Date last = java.sql.Date.valueOf(range.get(0).get(1).trim());
+        long total = 0;
+        java.sql.Date from = first;
+        while (!from.after(last)) {
+            // by the calendar rather than by milliseconds, which a DST change would shift
+            java.sql.Date to = addDays(from, this.chunkDays - 1);
+            if (to.after(last))
+                to = last;
+            long start = System.nanoTime();
+            List<List<String>> days = this.esql.executeQueryAndReturnResult(SQL_BACKFILL_DAYS, from, to);
+            int rows = Integer.parseInt(days.get(0).get(0).trim());
+            total += rows;
+            System.out.println(String.format("%s to %s: %d hotel days in %d ms", from, to, rows,
+                    (System.nanoTime() - start) / 1000000L));
+            from = addDays(to, 1);
+        }
+        return total;
+    }//end run
+
+    private static java.sql.Date addDays(java.sql.Date date, int days) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.add(Calendar.DAY_OF_MONTH, days);
+        return new java.sql.Date(cal.getTimeInMillis());
+    }
+
+    /**
+     * Backfills the rollup from the command line.
+     *
+     * @param args <dbname> <port> <user> [chunkDays]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            RollupBackfill.class.getName() +
+                            " <dbname> <port> <user> [chunkDays]");
+            return;
+        }
+        Hotel esql = null;
+        try {
+            // use postgres JDBC driver.
+            Class.forName("org.postgresql.Driver").newInstance();
+            esql = new Hotel(args[0], args[1], args[2], "");
+            int chunkDays = args.length == 4 ? Integer.parseInt(args[3]) : 31;
+
+            long start = System.nanoTime();
+            long rows = new RollupBackfill(esql, chunkDays).run();
+            System.out.println(String.format("%d hotel days backfilled in %d ms", rows,
+                    (System.nanoTime() - start) / 1000000L));
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }//end main
+}//end RollupBackfill
@@ -0,0 +1,31 @@
+/**
+ * A room found by {@link Hotel#searchRoomsWithin} or
+ * {@link Hotel#searchRoomsNearest}: available on the searched date, within
+ * the price ceiling, and ranked by the distance of its hotel, then by price.
+ */
+public class RoomMatch implements Comparable<RoomMatch> {
+    public final int hotelID;
+    public final String hotelName;
+    public final int roomNumber;
+    public final int price;
+    public final double distance;
+
+    public RoomMatch(int hotelID, String hotelName, int roomNumber, int price, double distance) {
+        this.hotelID = hotelID;
+        this.hotelName = hotelName;
+        this.roomNumber = roomNumber;
+        this.price = price;
+        this.distance = distance;
+    }
+
+    public int compareTo(RoomMatch other) {
+        int c = Double.compare(this.distance, other.distance);
+        if (c == 0)
+            c = this.price < other.price ? -1 : (this.price == other.price ? 0 : 1);
+        if (c == 0)
+            c = this.hotelID < other.hotelID ? -1 : (this.hotelID == other.hotelID ? 0 : 1);
+        if (c == 0)
+            c = this.roomNumber < other.roomNumber ? -1 : (this.roomNumber == other.roomNumber ? 0 : 1);
+        return c;
+    }
+}//end RoomMatch
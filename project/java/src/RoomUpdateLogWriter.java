@@ -0,0 +1,326 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes RoomUpdatesLog records behind the room updates they audit, in
+ * batches, instead of with one round trip per update.
+ *
+ * Records are queued in a lock-free queue bounded by capacity and written
+ * by a daemon thread every flushMillis, or as soon as batchSize records are
+ * waiting, with one INSERT per batchSize records. When the queue is full the
+ * updating thread flushes it itself, which holds back updates to the rate
+ * the database can log them. A batch that fails to insert stays queued and
+ * is retried whole by the next flushes, so a short outage stalls the updates
+ * rather than dropping their records. Once it has failed more than retries
+ * times it is written one record at a time instead: a record that still
+ * fails is dropped and printed to stderr, so one bad record cannot hold the
+ * log back forever. An outage that outlasts the retries drops the batch the
+ * same way, and the printed records are what is left to replay.
+ *
+ * updatedOn is the time a record was queued. Its updateNumber is allocated
+ * by the caller, so the record goes to the RecentUpdatesBuffer as soon as it
+ * is queued.
+ */
+public class RoomUpdateLogWriter {
+    // a batch of records as one insert: the columns are passed as comma-separated lists
+    static final String SQL_INSERT_ROOM_UPDATE_LOG_BATCH =
+            "INSERT INTO RoomUpdatesLog (updateNumber, managerID, hotelID, roomNumber, updatedOn) " +
+                    "SELECT U.updateNumber, U.managerID, U.hotelID, U.roomNumber, U.updatedOn " +
+                    "FROM unnest(CAST(string_to_array(?, ',') AS integer[]), " +
+                    "CAST(string_to_array(?, ',') AS integer[]), " +
+                    "CAST(string_to_array(?, ',') AS integer[]), " +
+                    "CAST(string_to_array(?, ',') AS integer[]), " +
+                    "CAST(string_to_array(?, ',') AS timestamp[])) " +
+                    "AS U(updateNumber, managerID, hotelID, roomNumber, updatedOn)";
+
+    private static final LatencyStats OP_FLUSH = Metrics.operation("flushRoomUpdatesLog");
+
+    private final Hotel esql;
+    private final RecentUpdatesBuffer recentUpdates;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushMillis;
+    private final int retries;
+    private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<Record>();
+    // the records queued and not yet written, including a failed batch being retried
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // the times a full queue made an updating thread flush it
+    private final AtomicLong stalls = new AtomicLong();
+    // serializes flushes; held by one flusher at a time, never by the queueing threads
+    private final Object flushLock = new Object();
+    // the batch that failed last, written first by the next flush; guarded by flushLock
+    private final List<Record> retry = new ArrayList<Record>();
+    // the times the batch in retry failed; guarded by flushLock
+    private int attempts = 0;
+    private volatile Thread flusher = null;
+    private volatile boolean stopped = false;
+
+    /**
+     * One record of RoomUpdatesLog.
+     */
+    private static final class Record {
+        final int updateNumber;
+        final int managerID;
+        final int hotelID;
+        final int roomNumber;
+        final Timestamp updatedOn;
+
+        Record(int updateNumber, int managerID, int hotelID, int roomNumber, Timestamp updatedOn) {
+            this.updateNumber = updateNumber;
+            this.managerID = managerID;
+            this.hotelID = hotelID;
+            this.roomNumber = roomNumber;
+            this.updatedOn = updatedOn;
+        }
+    }//end Record
+
+    /**
+     * @param esql the database to write the records to
+     * @param recentUpdates the buffer given the records as they are queued
+     * @param capacity the number of records queued before updates wait for them
+     * @param batchSize the number of records written by one insert
+     * @param flushMillis the longest time a record waits before being written
+     * @param retries the number of times a failed batch is sent again whole
+     */
+    public RoomUpdateLogWriter(Hotel esql, RecentUpdatesBuffer recentUpdates, int capacity, int batchSize,
+                               long flushMillis, int retries) {
+        if (capacity < 1 || batchSize < 1 || flushMillis < 1)
+            throw new IllegalArgumentException("capacity, batchSize and flushMillis must be positive");
+        if (retries < 0)
+            throw new IllegalArgumentException("retries must not be negative");
+        this.esql = esql;
+        this.recentUpdates = recentUpdates;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.retries = retries;
+    }
+
+    /**
+     * Starts the thread that writes the queued records.
+     */
+    public synchronized void start() {
+        if (this.flusher != null)
+            return;
+        Thread t = new Thread("hotel-update-log-writer") {
+            public void run() {
+                while (!RoomUpdateLogWriter.this.stopped) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RoomUpdateLogWriter.this.flushMillis));
+                    try {
+                        flush();
+                    } catch (SQLException e) {
+                        System.err.println("RoomUpdatesLog: " + e.getMessage());
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        this.flusher = t;
+        t.start();
+    }//end start
+
+    /**
+     * Queues the record of a room update, flushing the queue first when it
+     * is full.
+     *
+     * @throws java.sql.SQLException when the queue is full and cannot be flushed
+     */
+    public void append(int updateNumber, int managerID, int hotelID, int roomNumber) throws SQLException {
+        Record record = new Record(updateNumber, managerID, hotelID, roomNumber,
+                new Timestamp(System.currentTimeMillis()));
+        int queued;
+        while (true) {
+            queued = this.depth.get();
+            if (queued >= this.capacity) {
+                this.stalls.incrementAndGet();
+                flush();
+            } else if (this.depth.compareAndSet(queued, queued + 1)) {
+                break;
+            }
+        }
+        this.queue.offer(record);
+        this.recentUpdates.record(new String[]{String.valueOf(updateNumber), String.valueOf(managerID),
+                String.valueOf(hotelID), String.valueOf(roomNumber), record.updatedOn.toString()});
+        queued++;
+        int max = this.maxDepth.get();
+        while (queued > max && !this.maxDepth.compareAndSet(max, queued))
+            max = this.maxDepth.get();
+        // a full batch does not wait for the interval
+        Thread t = this.flusher;
+        if (queued == this.batchSize && t != null)
+            LockSupport.unpark(t);
+    }//end append
+
+    /**
+     * Writes every queued record, batchSize at a time, and waits for a flush
+     * running in another thread to finish first. A batch that has failed
+     * more than retries times is written a record at a time, dropping the
+     * records that fail.
+     *
+     * @return the number of records written
+     * @throws java.sql.SQLException when a batch cannot be written and has retries left; it stays queued
+     */
+    public int flush() throws SQLException {
+        synchronized (this.flushLock) {
+            int total = 0;
+            while (true) {
+                while (this.retry.size() < this.batchSize) {
+                    Record record = this.queue.poll();
+                    if (record == null)
+                        break;
+                    this.retry.add(record);
+                }
+                if (this.retry.isEmpty())
+                    return total;
+                int size = this.retry.size();
+                try {
+                    write(this.retry);
+                    total += size;
+                } catch (SQLException e) {
+                    if (++this.attempts <= this.retries)
+                        throw e;
+                    total += writeEach(this.retry);
+                }
+                this.attempts = 0;
+                this.retry.clear();
+                this.depth.addAndGet(-size);
+            }
+        }
+    }//end flush
+
+    // writes a batch that keeps failing one record at a time and drops the records that fail
+    private int writeEach(List<Record> batch) {
+        int total = 0;
+        for (Record record : batch) {
+            try {
+                write(Collections.singletonList(record));
+                total++;
+            } catch (SQLException e) {
+                this.dropped.incrementAndGet();
+                System.err.println("RoomUpdatesLog: dropped record " + record.updateNumber + "," + record.managerID
+                        + "," + record.hotelID + "," + record.roomNumber + "," + record.updatedOn + ": " + e.getMessage());
+            }
+        }
+        return total;
+    }//end writeEach
+
+    // inserts one batch
+    private void write(List<Record> batch) throws SQLException {
+        StringBuilder numbers = new StringBuilder();
+        StringBuilder managers = new StringBuilder();
+        StringBuilder hotels = new StringBuilder();
+        StringBuilder rooms = new StringBuilder();
+        StringBuilder times = new StringBuilder();
+        for (Record record : batch) {
+            if (managers.length() > 0) {
+                numbers.append(',');
+                managers.append(',');
+                hotels.append(',');
+                rooms.append(',');
+                times.append(',');
+            }
+            numbers.append(record.updateNumber);
+            managers.append(record.managerID);
+            hotels.append(record.hotelID);
+            rooms.append(record.roomNumber);
+            times.append(record.updatedOn);
+        }
+        long start = System.nanoTime();
+        int rowCount = -1;
+        try {
+            rowCount = insert(numbers.toString(), managers.toString(), hotels.toString(), rooms.toString(),
+                    times.toString());
+        } catch (SQLException e) {
+            this.failures.incrementAndGet();
+            throw e;
+        } finally {
+            OP_FLUSH.record(System.nanoTime() - start, rowCount);
+        }
+        this.written.addAndGet(rowCount);
+        this.batches.incrementAndGet();
+    }//end write
+
+    // runs the batch insert on the comma-separated columns
+    int insert(String numbers, String managers, String hotels, String rooms, String times) throws SQLException {
+        return this.esql.executeUpdate(SQL_INSERT_ROOM_UPDATE_LOG_BATCH, numbers, managers, hotels, rooms, times);
+    }
+
+    /**
+     * Stops the writing thread and writes what is still queued.
+     *
+     * @throws java.sql.SQLException when the remaining records cannot be written
+     */
+    public void close() throws SQLException {
+        this.stopped = true;
+        Thread t = this.flusher;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(this.flushMillis + 1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }//end close
+
+    /**
+     * @return the number of records queued and not yet written
+     */
+    public int getDepth() {
+        return this.depth.get();
+    }
+
+    public int getMaxDepth() {
+        return this.maxDepth.get();
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public long getWritten() {
+        return this.written.get();
+    }
+
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    /**
+     * @return the number of records given up on after their batch ran out of retries
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the number of times a full queue made an update wait for a flush
+     */
+    public long getStalls() {
+        return this.stalls.get();
+    }
+
+    public String toString() {
+        return String.format("depth=%d/%d maxDepth=%d written=%d batches=%d failures=%d dropped=%d stalls=%d",
+                getDepth(), this.capacity, getMaxDepth(), getWritten(), getBatches(), getFailures(), getDropped(),
+                getStalls());
+    }
+}//end RoomUpdateLogWriter
@@ -0,0 +1,17 @@
+import java.sql.SQLException;
+
+/**
+ * Callback receiving the rows of a streamed query one at a time, see
+ * {@link Hotel#executeQueryAndStream(String, RowHandler, Object...)}.
+ */
+public interface RowHandler {
+    /**
+     * Handles the current row. The row view is reused for every row of the
+     * query, so values must be copied out if they are needed afterwards.
+     *
+     * @param row the view positioned on the current row
+     * @return true to receive the next row, false to stop reading
+     * @throws java.sql.SQLException when reading a column fails
+     */
+    boolean handle(ResultRow row) throws SQLException;
+}//end RowHandler
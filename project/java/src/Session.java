@@ -0,0 +1,54 @@
+import java.util.Arrays;
+
+/**
+ * A logged in user, as resolved by {@link Hotel#logIn(int, String)}: who
+ * the user is, whether a customer or a manager, and which hotels the user
+ * manages. Sessions are immutable and kept in a SessionCache under their
+ * token until they expire.
+ */
+public class Session {
+    // the random key of the session, e.g. for an HTTP bearer token
+    public final String token;
+    public final int userID;
+    // the user type without padding
+    public final String userType;
+    // the hotels managed by the user, sorted
+    private final int[] managedHotels;
+    // when the session stops being accepted, in System.currentTimeMillis() time
+    public final long expiresAt;
+
+    Session(String token, int userID, String userType, int[] managedHotels, long expiresAt) {
+        this.token = token;
+        this.userID = userID;
+        this.userType = userType;
+        this.managedHotels = managedHotels.clone();
+        Arrays.sort(this.managedHotels);
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return true for customers; as in the menus, every other user type
+     * gets the manager operations
+     */
+    public boolean isCustomer() {
+        return this.userType.toLowerCase().contains("customer");
+    }
+
+    /**
+     * @return true if the user managed the hotel when logging in
+     */
+    public boolean manages(int hotelID) {
+        return Arrays.binarySearch(this.managedHotels, hotelID) >= 0;
+    }
+
+    /**
+     * @return the hotels managed by the user, sorted
+     */
+    public int[] getManagedHotels() {
+        return this.managedHotels.clone();
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= this.expiresAt;
+    }
+}//end Session
@@ -0,0 +1,155 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Logs users in and keeps their sessions, so that authorization checks do
+ * not need the database.
+ *
+ * A login is a single query that checks the password and returns the user
+ * type along with every hotel the user manages. The resulting Session is
+ * kept under a random token for ttlMillis from the login; the least recently
+ * used sessions are dropped beyond maxSessions, so a dropped or expired
+ * session just means logging in again. Hotels assigned to a manager after
+ * the login are only seen by the next one.
+ *
+ * Clients that send their credentials with every request, like HTTP Basic
+ * ones, use authenticate() instead of logIn(): their session is kept under
+ * a keyed hash of the credentials, so only the first request of each
+ * ttlMillis period reaches the database.
+ */
+public class SessionCache {
+    // the user and, for managers, one row per managed hotel
+    static final String SQL_LOG_IN =
+            "SELECT U.userType, H.hotelID FROM Users U " +
+                    "LEFT JOIN Hotel H ON H.managerUserID = U.userID " +
+                    "WHERE U.userID = ? AND U.password = ?";
+
+    private final Hotel esql;
+    private final long ttlMillis;
+    private final Map<String, Session> sessions;
+    private final SecureRandom random = new SecureRandom();
+    // the key of the credential hashes, new in every process
+    private final byte[] secret = new byte[32];
+
+    /**
+     * @param esql the database to check the credentials against
+     * @param maxSessions the number of sessions kept
+     * @param ttlMillis how long a session lasts
+     */
+    public SessionCache(Hotel esql, final int maxSessions, long ttlMillis) {
+        this.esql = esql;
+        this.ttlMillis = ttlMillis;
+        this.sessions = new LinkedHashMap<String, Session>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                return size() > maxSessions;
+            }
+        };
+        this.random.nextBytes(this.secret);
+    }
+
+    /**
+     * Checks the credentials of a user and opens a session.
+     *
+     * @return the session, or null if the credentials do not match
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Session logIn(int userID, String password) throws SQLException {
+        return open(newToken(), userID, password);
+    }
+
+    /**
+     * Checks the credentials of a user, reusing the session opened by the
+     * last check of the same credentials while it lasts.
+     *
+     * @return the session, or null if the credentials do not match
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Session authenticate(int userID, String password) throws SQLException {
+        String key = credentialsKey(userID, password);
+        Session session = get(key);
+        return session != null ? session : open(key, userID, password);
+    }
+
+    // checks the credentials and keeps the session under the given token
+    private Session open(String token, int userID, String password) throws SQLException {
+        List<List<String>> rows = this.esql.executeQueryAndReturnResult(SQL_LOG_IN, userID, password);
+        if (rows.isEmpty())
+            return null;
+        String userType = rows.get(0).get(0);
+        List<Integer> hotels = new ArrayList<Integer>();
+        for (List<String> row : rows) {
+            if (row.get(1) != null)
+                hotels.add(Integer.parseInt(row.get(1).trim()));
+        }
+        int[] managedHotels = new int[hotels.size()];
+        for (int i = 0; i < managedHotels.length; i++)
+            managedHotels[i] = hotels.get(i);
+
+        Session session = new Session(token, userID, userType == null ? "" : userType.trim(),
+                managedHotels, System.currentTimeMillis() + this.ttlMillis);
+        synchronized (this) {
+            this.sessions.put(session.token, session);
+        }
+        return session;
+    }//end open
+
+    /**
+     * @return the live session of a token, or null if it is unknown or expired
+     */
+    public synchronized Session get(String token) {
+        Session session = this.sessions.get(token);
+        if (session != null && session.isExpired()) {
+            this.sessions.remove(token);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Ends a session.
+     */
+    public synchronized void logOut(String token) {
+        this.sessions.remove(token);
+    }
+
+    /**
+     * @return the number of sessions kept, expired ones included
+     */
+    public synchronized int size() {
+        return this.sessions.size();
+    }
+
+    // 128 random bits, in hex
+    private String newToken() {
+        byte[] bytes = new byte[16];
+        this.random.nextBytes(bytes);
+        return hex(bytes);
+    }
+
+    // an HMAC of the credentials, which does not reveal the password
+    private String credentialsKey(int userID, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(this.secret, "HmacSHA256"));
+            return "credentials:" + hex(mac.doFinal((userID + ":" + password).getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            // every JVM has HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+}//end SessionCache
@@ -0,0 +1,95 @@
+/**
+ * Checks the availability bitmaps: the window they cover and the day and
+ * range checks at its ends.
+ */
+public class AvailabilityCacheTest {
+    public static void main(String[] args) {
+        window();
+        bookedDays();
+        freeRanges();
+        outsideWindowIgnored();
+        singleDayWindow();
+        civilDays();
+        System.out.println("AvailabilityCacheTest passed");
+    }
+
+    static void window() {
+        AvailabilityCache cache = new AvailabilityCache(100, 130);
+        Check.isTrue(!cache.covers(99), "the day before the window");
+        Check.isTrue(cache.covers(100), "the first day of the window");
+        Check.isTrue(cache.covers(130), "the last day of the window");
+        Check.isTrue(!cache.covers(131), "the day after the window");
+        Check.equal(100, cache.getFirstDay(), "first day");
+        Check.equal(130, cache.getLastDay(), "last day");
+        try {
+            new AvailabilityCache(10, 9);
+            throw new AssertionError("a window ending before it starts was accepted");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+
+    static void bookedDays() {
+        AvailabilityCache cache = new AvailabilityCache(100, 300);
+        cache.markBooked(1, 101, 100);
+        cache.markBooked(1, 101, 300);
+        cache.markBooked(1, 101, 164);
+        Check.isTrue(cache.isBooked(1, 101, 100), "booked on the first day");
+        Check.isTrue(cache.isBooked(1, 101, 300), "booked on the last day");
+        Check.isTrue(cache.isBooked(1, 101, 164), "booked past a 64-bit word");
+        Check.isTrue(!cache.isBooked(1, 101, 163), "free the day before a booking");
+        Check.isTrue(!cache.isBooked(1, 102, 100), "another room of the hotel");
+        Check.isTrue(!cache.isBooked(2, 101, 100), "the same room number in another hotel");
+        cache.markFree(1, 101, 164);
+        Check.isTrue(!cache.isBooked(1, 101, 164), "free after a cancellation");
+        cache.markFree(3, 1, 150);
+        Check.isTrue(!cache.isBooked(3, 1, 150), "cancelling in a room without bookings");
+    }
+
+    static void freeRanges() {
+        AvailabilityCache cache = new AvailabilityCache(100, 300);
+        Check.isTrue(cache.isFree(1, 1, 100, 300), "a room without bookings");
+        cache.markBooked(1, 1, 200);
+        Check.isTrue(!cache.isFree(1, 1, 100, 300), "the whole window");
+        Check.isTrue(!cache.isFree(1, 1, 200, 200), "the booked day alone");
+        Check.isTrue(!cache.isFree(1, 1, 150, 200), "a range ending on the booked day");
+        Check.isTrue(!cache.isFree(1, 1, 200, 250), "a range starting on the booked day");
+        Check.isTrue(cache.isFree(1, 1, 100, 199), "the range up to the day before");
+        Check.isTrue(cache.isFree(1, 1, 201, 300), "the range from the day after");
+        cache.markBooked(1, 1, 100);
+        cache.markBooked(1, 1, 300);
+        Check.isTrue(!cache.isFree(1, 1, 100, 100), "the first day booked");
+        Check.isTrue(!cache.isFree(1, 1, 300, 300), "the last day booked");
+        Check.isTrue(cache.isFree(1, 1, 101, 199), "between the first day and the booked day");
+        Check.isTrue(cache.isFree(1, 1, 201, 299), "between the booked day and the last day");
+    }
+
+    static void outsideWindowIgnored() {
+        AvailabilityCache cache = new AvailabilityCache(100, 130);
+        cache.markBooked(1, 1, 99);
+        cache.markBooked(1, 1, 131);
+        Check.isTrue(cache.isFree(1, 1, 100, 130), "bookings outside the window are not kept");
+        Check.isTrue(!cache.isBooked(1, 1, 100), "the first day stays free");
+        Check.isTrue(!cache.isBooked(1, 1, 130), "the last day stays free");
+    }
+
+    static void singleDayWindow() {
+        AvailabilityCache cache = new AvailabilityCache(-5, -5);
+        Check.isTrue(cache.covers(-5), "a single day before 1970");
+        Check.isTrue(!cache.covers(-4), "the day after a single-day window");
+        cache.markBooked(7, 7, -5);
+        Check.isTrue(cache.isBooked(7, 7, -5), "booked on the only day");
+        Check.isTrue(!cache.isFree(7, 7, -5, -5), "not free on the only day");
+    }
+
+    static void civilDays() {
+        Check.equal(0, AvailabilityCache.daysFromCivil(1970, 1, 1), "1970-01-01");
+        Check.equal(-1, AvailabilityCache.daysFromCivil(1969, 12, 31), "1969-12-31");
+        Check.equal(59, AvailabilityCache.daysFromCivil(1970, 3, 1), "1970-03-01");
+        Check.equal(11016, AvailabilityCache.daysFromCivil(2000, 2, 29), "2000-02-29");
+        Check.equal(AvailabilityCache.daysFromCivil(2015, 12, 5),
+                AvailabilityCache.epochDay(java.sql.Date.valueOf("2015-12-05")), "epochDay of a JDBC date");
+        Check.equal(AvailabilityCache.daysFromCivil(2016, 3, 1) - 1,
+                AvailabilityCache.daysFromCivil(2016, 2, 29), "the day before March in a leap year");
+    }
+}//end AvailabilityCacheTest
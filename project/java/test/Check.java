@@ -0,0 +1,29 @@
+/**
+ * The checks of the unit tests in this directory, which run without a
+ * database or a test framework: scripts/test.sh runs the main method of
+ * every *Test class, and a failed check ends it with an AssertionError.
+ */
+final class Check {
+    private Check() {
+    }
+
+    static void isTrue(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError(what);
+    }
+
+    static void equal(long expected, long actual, String what) {
+        if (expected != actual)
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+
+    static void equal(Object expected, Object actual, String what) {
+        if (expected == null ? actual != null : !expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+
+    static void near(double expected, double actual, double tolerance, String what) {
+        if (Math.abs(expected - actual) > tolerance)
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+    }
+}//end Check
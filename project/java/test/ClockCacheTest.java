@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks ClockCache: lookups, the backward-shift delete of its linear
+ * probing table, including probe runs that wrap around the end of the
+ * table, and CLOCK eviction.
+ */
+public class ClockCacheTest {
+    public static void main(String[] args) {
+        putGetRemove();
+        reservedKey();
+        singleEntry();
+        secondChance();
+        deleteShiftsRunBack();
+        deleteAcrossWrapAround();
+        matchesMapWithoutEviction();
+        staysBoundedWithEviction();
+        System.out.println("ClockCacheTest passed");
+    }
+
+    static void putGetRemove() {
+        ClockCache<String> cache = new ClockCache<String>(8);
+        Check.equal(null, cache.get(1), "get of a missing key");
+        cache.put(1, "one");
+        cache.put(-1, "minus one");
+        cache.put(Long.MAX_VALUE, "max");
+        Check.equal("one", cache.get(1), "get of key 1");
+        Check.equal("minus one", cache.get(-1), "get of key -1");
+        Check.equal("max", cache.get(Long.MAX_VALUE), "get of the largest key");
+        cache.put(1, "uno");
+        Check.equal("uno", cache.get(1), "get of an overwritten key");
+        Check.equal(3, cache.size(), "size after an overwrite");
+        Check.isTrue(cache.remove(1), "remove of a present key");
+        Check.isTrue(!cache.remove(1), "remove of a removed key");
+        Check.equal(null, cache.get(1), "get of a removed key");
+        Check.equal(2, cache.size(), "size after a remove");
+        cache.clear();
+        Check.equal(0, cache.size(), "size after clear");
+        Check.equal(null, cache.get(-1), "get after clear");
+    }
+
+    static void reservedKey() {
+        ClockCache<String> cache = new ClockCache<String>(4);
+        try {
+            cache.put(Long.MIN_VALUE, "free");
+            throw new AssertionError("the free marker was accepted as a key");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+        Check.equal(null, cache.get(Long.MIN_VALUE), "get of the free marker");
+    }
+
+    static void singleEntry() {
+        ClockCache<String> cache = new ClockCache<String>(0);
+        Check.equal(1, cache.maxSize(), "a cache holds at least one entry");
+        cache.put(1, "one");
+        cache.put(2, "two");
+        Check.equal(1, cache.size(), "size of a full single-entry cache");
+        Check.equal(null, cache.get(1), "the older entry is evicted");
+        Check.equal("two", cache.get(2), "the newer entry is kept");
+        Check.equal(1, cache.evictions(), "evictions of a single-entry cache");
+    }
+
+    static void secondChance() {
+        ClockCache<String> cache = new ClockCache<String>(3);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        cache.get(1);
+        cache.put(4, "four");
+        Check.equal(3, cache.size(), "size after an eviction");
+        Check.equal(1, cache.evictions(), "evictions");
+        Check.equal("one", cache.get(1), "a read entry gets a second chance");
+        Check.equal("four", cache.get(4), "the new entry is kept");
+        Check.isTrue(cache.get(2) == null || cache.get(3) == null, "an unread entry is evicted");
+    }
+
+    static void deleteShiftsRunBack() {
+        // four keys sharing a home slot form one probe run; removing each
+        // position in turn must leave the others reachable
+        int capacity = capacity(16);
+        long[] run = keysWithHome(capacity, 5, 4);
+        for (int removed = 0; removed < run.length; removed++) {
+            ClockCache<Long> cache = new ClockCache<Long>(16);
+            for (long key : run)
+                cache.put(key, key);
+            cache.remove(run[removed]);
+            for (int i = 0; i < run.length; i++)
+                Check.equal(i == removed ? null : Long.valueOf(run[i]), cache.get(run[i]),
+                        "key " + i + " after removing key " + removed + " of a run");
+            Check.equal(run.length - 1, cache.size(), "size after removing from a run");
+        }
+    }
+
+    static void deleteAcrossWrapAround() {
+        // three keys homed on the last slot wrap around to slots 0 and 1, and
+        // a key homed on slot 0 is pushed to slot 2 behind them
+        int capacity = capacity(16);
+        long[] last = keysWithHome(capacity, capacity - 1, 3);
+        long first = keysWithHome(capacity, 0, 1)[0];
+        List<Long> keys = new ArrayList<Long>();
+        for (long key : last)
+            keys.add(key);
+        keys.add(first);
+        for (int removed = 0; removed < keys.size(); removed++) {
+            ClockCache<Long> cache = new ClockCache<Long>(16);
+            for (long key : keys)
+                cache.put(key, key);
+            cache.remove(keys.get(removed));
+            for (int i = 0; i < keys.size(); i++)
+                Check.equal(i == removed ? null : keys.get(i), cache.get(keys.get(i)),
+                        "key " + i + " after removing key " + removed + " across the wrap");
+        }
+        // removing them in turn empties the table without losing any
+        ClockCache<Long> cache = new ClockCache<Long>(16);
+        for (long key : keys)
+            cache.put(key, key);
+        for (int i = 0; i < keys.size(); i++) {
+            Check.isTrue(cache.remove(keys.get(i)), "remove of key " + i + " across the wrap");
+            for (int j = i + 1; j < keys.size(); j++)
+                Check.equal(keys.get(j), cache.get(keys.get(j)), "key " + j + " after removing up to " + i);
+        }
+        Check.equal(0, cache.size(), "size after removing every key");
+    }
+
+    static void matchesMapWithoutEviction() {
+        // few keys and a table that never fills, so runs are long and never evicted
+        Random random = new Random(1);
+        ClockCache<Integer> cache = new ClockCache<Integer>(64);
+        Map<Long, Integer> model = new HashMap<Long, Integer>();
+        for (int step = 0; step < 100000; step++) {
+            long key = random.nextInt(64) * 1024L;
+            if (random.nextInt(3) == 0) {
+                Check.equal(model.remove(key) != null, cache.remove(key), "remove at step " + step);
+            } else {
+                model.put(key, step);
+                cache.put(key, step);
+            }
+            Check.equal(model.size(), cache.size(), "size at step " + step);
+        }
+        for (long key = 0; key < 64 * 1024L; key += 1024)
+            Check.equal(model.get(key), cache.get(key), "key " + key + " at the end");
+        Check.equal(0, cache.evictions(), "evictions of a cache that never fills");
+    }
+
+    static void staysBoundedWithEviction() {
+        Random random = new Random(2);
+        ClockCache<Long> cache = new ClockCache<Long>(10);
+        for (int step = 0; step < 100000; step++) {
+            long key = random.nextInt(100);
+            if (random.nextBoolean())
+                cache.put(key, key * 3);
+            Long value = cache.get(key);
+            Check.isTrue(value == null || value == key * 3, "value of key " + key);
+            Check.isTrue(cache.size() <= 10, "size within maxSize at step " + step);
+        }
+        Check.equal(10, cache.size(), "a full cache stays full");
+        Check.isTrue(cache.evictions() > 0, "a full cache evicts");
+    }
+
+    // the table size ClockCache picks for maxSize
+    private static int capacity(int maxSize) {
+        return Integer.highestOneBit(Math.max(2, maxSize * 2 - 1)) << 1;
+    }
+
+    // the first count keys whose home slot, as ClockCache hashes them, is home
+    private static long[] keysWithHome(int capacity, int home, int count) {
+        int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            if ((int) ((key * 0x9E3779B97F4A7C15L) >>> shift) == home)
+                keys[found++] = key;
+        }
+        return keys;
+    }
+}//end ClockCacheTest
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the range and nearest-neighbour searches of HotelSpatialIndex
+ * against a scan of every hotel.
+ */
+public class HotelSpatialIndexTest {
+    public static void main(String[] args) {
+        emptyIndex();
+        singleHotel();
+        rangeEndsAreInclusive();
+        rangeMatchesScan();
+        nearestMatchesScan();
+        nearestWithTies();
+        System.out.println("HotelSpatialIndexTest passed");
+    }
+
+    static void emptyIndex() {
+        HotelSpatialIndex index = HotelSpatialIndex.build(new ArrayList<HotelSpatialIndex.Entry>());
+        Check.equal(0, index.size(), "size of an empty index");
+        List<HotelSpatialIndex.Entry> out = new ArrayList<HotelSpatialIndex.Entry>();
+        index.candidatesWithin(0, 0, 1000, out);
+        Check.equal(0, out.size(), "range search of an empty index");
+        Check.equal(0, index.nearest(0, 0, 5).size(), "nearest search of an empty index");
+    }
+
+    static void singleHotel() {
+        HotelSpatialIndex index = HotelSpatialIndex.build(entries(new double[][]{{10, 20}}));
+        List<HotelSpatialIndex.Entry> out = new ArrayList<HotelSpatialIndex.Entry>();
+        index.candidatesWithin(11, 21, 1, out);
+        Check.equal(1, out.size(), "hotel inside the square");
+        out.clear();
+        index.candidatesWithin(12, 20, 1.5, out);
+        Check.equal(0, out.size(), "hotel outside the square");
+        Check.equal(1, index.nearest(-50, 70, 3).size(), "nearest of a single hotel, k > size");
+        Check.equal(0, index.nearest(10, 20, 0).size(), "nearest with k = 0");
+        Check.equal(0, index.nearest(10, 20, -1).size(), "nearest with k < 0");
+    }
+
+    static void rangeEndsAreInclusive() {
+        // a 3 x 3 grid with the query square exactly on the middle row and column
+        List<HotelSpatialIndex.Entry> grid = new ArrayList<HotelSpatialIndex.Entry>();
+        for (int lat = 0; lat < 3; lat++)
+            for (int lon = 0; lon < 3; lon++)
+                grid.add(new HotelSpatialIndex.Entry(lat * 3 + lon, "h", lat, lon));
+        HotelSpatialIndex index = HotelSpatialIndex.build(grid);
+        List<HotelSpatialIndex.Entry> out = new ArrayList<HotelSpatialIndex.Entry>();
+        index.candidatesWithin(1, 1, 1, out);
+        Check.equal(9, out.size(), "square whose sides pass through the outer hotels");
+        out.clear();
+        index.candidatesWithin(1, 1, 0, out);
+        Check.equal(1, out.size(), "square of side 0 on a hotel");
+        Check.equal(4, out.get(0).hotelID, "hotel found by the square of side 0");
+    }
+
+    static void rangeMatchesScan() {
+        Random random = new Random(42);
+        for (int n : new int[]{2, 3, 7, 64, 1000}) {
+            List<HotelSpatialIndex.Entry> hotels = randomEntries(random, n);
+            HotelSpatialIndex index = HotelSpatialIndex.build(hotels);
+            for (int q = 0; q < 50; q++) {
+                double lat = random.nextDouble() * 200 - 100;
+                double lon = random.nextDouble() * 200 - 100;
+                double radius = random.nextDouble() * 40;
+                List<HotelSpatialIndex.Entry> out = new ArrayList<HotelSpatialIndex.Entry>();
+                index.candidatesWithin(lat, lon, radius, out);
+                List<Integer> expected = new ArrayList<Integer>();
+                for (HotelSpatialIndex.Entry e : hotels)
+                    if (Math.abs(e.latitude - lat) <= radius && Math.abs(e.longitude - lon) <= radius)
+                        expected.add(e.hotelID);
+                Check.equal(sorted(expected), sorted(ids(out)), "range search of " + n + " hotels");
+            }
+        }
+    }
+
+    static void nearestMatchesScan() {
+        Random random = new Random(7);
+        for (int n : new int[]{2, 5, 33, 1000}) {
+            List<HotelSpatialIndex.Entry> hotels = randomEntries(random, n);
+            HotelSpatialIndex index = HotelSpatialIndex.build(hotels);
+            for (int q = 0; q < 50; q++) {
+                double lat = random.nextDouble() * 200 - 100;
+                double lon = random.nextDouble() * 200 - 100;
+                int k = 1 + random.nextInt(10);
+                List<HotelSpatialIndex.Entry> found = index.nearest(lat, lon, k);
+                double[] expected = new double[n];
+                for (int i = 0; i < n; i++)
+                    expected[i] = dist2(hotels.get(i), lat, lon);
+                Arrays.sort(expected);
+                Check.equal(Math.min(k, n), found.size(), "nearest " + k + " of " + n + " hotels");
+                for (int i = 0; i < found.size(); i++)
+                    Check.near(expected[i], dist2(found.get(i), lat, lon), 1e-9,
+                            "distance of neighbour " + i + " of " + n + " hotels");
+            }
+        }
+    }
+
+    static void nearestWithTies() {
+        // five hotels on the same spot and one further away
+        double[][] points = {{5, 5}, {5, 5}, {5, 5}, {5, 5}, {5, 5}, {6, 6}};
+        HotelSpatialIndex index = HotelSpatialIndex.build(entries(points));
+        List<HotelSpatialIndex.Entry> found = index.nearest(5, 5, 3);
+        Check.equal(3, found.size(), "nearest 3 among ties");
+        for (HotelSpatialIndex.Entry e : found)
+            Check.isTrue(e.hotelID < 5, "a tied hotel is closer than the far one");
+        Check.equal(6, index.nearest(5, 5, 6).size(), "nearest 6 among ties");
+        Check.equal(5, index.nearest(5, 5, 6).get(5).hotelID, "the far hotel comes last");
+
+        List<HotelSpatialIndex.Entry> out = new ArrayList<HotelSpatialIndex.Entry>();
+        index.candidatesWithin(5, 5, 0.5, out);
+        Check.equal(5, out.size(), "range search among ties");
+    }
+
+    private static List<HotelSpatialIndex.Entry> entries(double[][] points) {
+        List<HotelSpatialIndex.Entry> entries = new ArrayList<HotelSpatialIndex.Entry>();
+        for (int i = 0; i < points.length; i++)
+            entries.add(new HotelSpatialIndex.Entry(i, "hotel " + i, points[i][0], points[i][1]));
+        return entries;
+    }
+
+    // hotels on a coarse grid, so that some share a latitude or a longitude
+    private static List<HotelSpatialIndex.Entry> randomEntries(Random random, int n) {
+        List<HotelSpatialIndex.Entry> entries = new ArrayList<HotelSpatialIndex.Entry>();
+        for (int i = 0; i < n; i++)
+            entries.add(new HotelSpatialIndex.Entry(i, "hotel " + i,
+                    random.nextInt(201) - 100, random.nextInt(201) - 100));
+        return entries;
+    }
+
+    private static double dist2(HotelSpatialIndex.Entry e, double lat, double lon) {
+        return (e.latitude - lat) * (e.latitude - lat) + (e.longitude - lon) * (e.longitude - lon);
+    }
+
+    private static List<Integer> ids(List<HotelSpatialIndex.Entry> entries) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (HotelSpatialIndex.Entry e : entries)
+            ids.add(e.hotelID);
+        return ids;
+    }
+
+    private static List<Integer> sorted(List<Integer> ids) {
+        Collections.sort(ids);
+        return ids;
+    }
+}//end HotelSpatialIndexTest
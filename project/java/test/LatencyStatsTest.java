@@ -0,0 +1,108 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the log-linear histogram of LatencyStats: its bucket bounds and
+ * the percentiles read from it.
+ */
+public class LatencyStatsTest {
+    public static void main(String[] args) {
+        bucketBounds();
+        relativeError();
+        emptyStats();
+        singleCall();
+        linearPercentiles();
+        percentilesWithinBucketWidth();
+        countsAndReset();
+        System.out.println("LatencyStatsTest passed");
+    }
+
+    static void bucketBounds() {
+        Check.equal(0, LatencyStats.bucket(0), "bucket of 0");
+        Check.equal(31, LatencyStats.bucket(31), "bucket of the last linear latency");
+        Check.equal(32, LatencyStats.bucket(32), "bucket of the first log latency");
+        Check.equal(32, LatencyStats.bucket(33), "32 and 33 share a bucket");
+        Check.equal(33, LatencyStats.upperBound(32), "upper bound of the first log bucket");
+        Check.equal(959, LatencyStats.bucket(Long.MAX_VALUE), "bucket of the largest latency");
+        Check.equal(Long.MAX_VALUE, LatencyStats.upperBound(959), "upper bound of the last bucket");
+        // each bucket ends just before the next one starts
+        for (int i = 0; i < 959; i++) {
+            long bound = LatencyStats.upperBound(i);
+            Check.equal(i, LatencyStats.bucket(bound), "bucket of the upper bound of bucket " + i);
+            Check.equal(i + 1, LatencyStats.bucket(bound + 1), "bucket after the upper bound of bucket " + i);
+        }
+    }
+
+    static void relativeError() {
+        Random random = new Random(5);
+        for (int n = 0; n < 100000; n++) {
+            long nanos = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long bound = LatencyStats.upperBound(LatencyStats.bucket(nanos));
+            Check.isTrue(bound >= nanos, "the bucket of " + nanos + " ends at or after it");
+            Check.isTrue(bound - nanos <= nanos / 16, "the bucket of " + nanos + " is within 1/16 of it");
+        }
+    }
+
+    static void emptyStats() {
+        LatencyStats stats = new LatencyStats("empty");
+        Check.equal(0, stats.percentileNanos(0.5), "p50 of nothing");
+        Check.equal(0, stats.percentileNanos(1.0), "p100 of nothing");
+        Check.near(0, stats.getMeanMillis(), 0, "mean of nothing");
+        Check.near(0, stats.getMaxMillis(), 0, "max of nothing");
+    }
+
+    static void singleCall() {
+        LatencyStats stats = new LatencyStats("single");
+        stats.record(1234567, 1);
+        // the bucket holds more than the one call, so the maximum caps it
+        Check.equal(1234567, stats.percentileNanos(0.0), "p0 of one call");
+        Check.equal(1234567, stats.percentileNanos(0.5), "p50 of one call");
+        Check.equal(1234567, stats.percentileNanos(1.0), "p100 of one call");
+        LatencyStats negative = new LatencyStats("negative");
+        negative.record(-5, 0);
+        Check.equal(0, negative.percentileNanos(0.5), "a negative latency counts as 0");
+    }
+
+    static void linearPercentiles() {
+        LatencyStats stats = new LatencyStats("linear");
+        for (long nanos = 1; nanos <= 31; nanos++)
+            stats.record(nanos, 0);
+        Check.equal(1, stats.percentileNanos(0.0), "p0 of 1..31");
+        Check.equal(16, stats.percentileNanos(0.5), "p50 of 1..31");
+        Check.equal(31, stats.percentileNanos(1.0), "p100 of 1..31");
+        Check.equal(4, stats.percentileNanos(4.0 / 31), "the 4th of 1..31");
+    }
+
+    static void percentilesWithinBucketWidth() {
+        Random random = new Random(11);
+        long[] nanos = new long[10000];
+        LatencyStats stats = new LatencyStats("spread");
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = 1000 + (long) (random.nextDouble() * random.nextDouble() * 50000000L);
+            stats.record(nanos[i], 1);
+        }
+        Arrays.sort(nanos);
+        for (double fraction : new double[]{0.001, 0.25, 0.5, 0.9, 0.99, 0.999}) {
+            long exact = nanos[(int) Math.ceil(fraction * nanos.length) - 1];
+            long p = stats.percentileNanos(fraction);
+            Check.isTrue(p >= exact, "p" + fraction + " is not below the exact percentile");
+            Check.isTrue(p - exact <= exact / 16, "p" + fraction + " is within 1/16 of the exact percentile");
+        }
+        Check.equal(nanos[nanos.length - 1], stats.percentileNanos(1.0), "p100 is the maximum");
+    }
+
+    static void countsAndReset() {
+        LatencyStats stats = new LatencyStats("counts");
+        stats.record(2000000, 3);
+        stats.record(4000000, -1);
+        Check.equal(2, stats.getCount(), "calls");
+        Check.equal(1, stats.getErrors(), "errors");
+        Check.equal(3, stats.getRows(), "rows");
+        Check.near(3.0, stats.getMeanMillis(), 1e-9, "mean");
+        Check.near(4.0, stats.getMaxMillis(), 1e-9, "max");
+        stats.reset();
+        Check.equal(0, stats.getCount(), "calls after reset");
+        Check.equal(0, stats.percentileNanos(0.99), "p99 after reset");
+        Check.near(0, stats.getMaxMillis(), 0, "max after reset");
+    }
+}//end LatencyStatsTest
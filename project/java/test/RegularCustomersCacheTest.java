@@ -0,0 +1,125 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks how a top customers list is reordered in place after a booking,
+ * against sorting the list again.
+ */
+public class RegularCustomersCacheTest {
+    public static void main(String[] args) {
+        customerOffTheList();
+        singleCustomer();
+        movesUpPastFewerBookings();
+        tiesOrderedByCustomerID();
+        listIsImmutable();
+        matchesSort();
+        System.out.println("RegularCustomersCacheTest passed");
+    }
+
+    static void customerOffTheList() {
+        Check.isTrue(top().withBooking(1) == null, "a booking on an empty list");
+        Check.isTrue(top(1, 5, 2, 3).withBooking(9) == null, "a customer off the list");
+    }
+
+    static void singleCustomer() {
+        RegularCustomersCache.TopCustomers after = top(4, 2).withBooking(4);
+        Check.equal("[[4, customer 4, 3]]", after.toRecords().toString(), "the only customer");
+    }
+
+    static void movesUpPastFewerBookings() {
+        RegularCustomersCache.TopCustomers list = top(1, 9, 2, 5, 3, 5, 4, 4);
+        Check.equal("[1, 2, 3, 4]", ids(list.withBooking(1)), "the first customer stays first");
+        Check.equal("[1, 4, 2, 3]", ids(list.withBooking(4).withBooking(4)), "past two customers");
+        Check.equal("[4, 1, 2, 3]", ids(list.withBooking(4).withBooking(4).withBooking(4)
+                .withBooking(4).withBooking(4).withBooking(4)), "to the top");
+        Check.equal("[1, 2, 3, 4]", ids(list.withBooking(3).withBooking(3).withBooking(2)
+                .withBooking(2).withBooking(2)), "back and forth");
+    }
+
+    static void tiesOrderedByCustomerID() {
+        RegularCustomersCache.TopCustomers list = top(1, 6, 2, 5, 3, 5);
+        Check.equal("[1, 3, 2]", ids(list.withBooking(3)), "stays below a tie with a smaller ID");
+        Check.equal("[6, 6, 5]", counts(list.withBooking(3)), "counts after reaching a tie");
+        Check.equal("[1, 3, 2]", ids(list.withBooking(3).withBooking(3).withBooking(1)),
+                "passes a tie with a larger ID");
+        Check.equal("[1, 2, 3]", ids(top(1, 6, 2, 6, 3, 5).withBooking(3)), "stays below two ties");
+        Check.equal("[1, 2]", ids(top(2, 5, 1, 4).withBooking(1)), "passes a tie at the top");
+    }
+
+    static void listIsImmutable() {
+        RegularCustomersCache.TopCustomers list = top(1, 3, 2, 2);
+        RegularCustomersCache.TopCustomers after = list.withBooking(2).withBooking(2);
+        Check.equal("[1, 2]", ids(list), "the original order");
+        Check.equal("[3, 2]", counts(list), "the original counts");
+        Check.equal("[2, 1]", ids(after), "the new order");
+        Check.equal("customer 2", after.names[0], "names move with their customers");
+        Check.equal(list.loadedAt, after.loadedAt, "the load time is kept");
+    }
+
+    static void matchesSort() {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            int n = 1 + random.nextInt(10);
+            int[][] entries = new int[n][];
+            for (int i = 0; i < n; i++)
+                entries[i] = new int[]{i + 1, random.nextInt(4)};
+            sort(entries);
+            RegularCustomersCache.TopCustomers list = top(flatten(entries));
+            for (int step = 0; step < 20; step++) {
+                int[] booked = entries[random.nextInt(n)];
+                booked[1]++;
+                sort(entries);
+                list = list.withBooking(booked[0]);
+                Check.equal(Arrays.toString(flatten(entries)), Arrays.toString(flatten(list)),
+                        "list of " + n + " after booking " + booked[0]);
+            }
+        }
+    }
+
+    // a list from customerID, bookings pairs given in list order
+    private static RegularCustomersCache.TopCustomers top(int... pairs) {
+        List<List<String>> records = new ArrayList<List<String>>();
+        for (int i = 0; i < pairs.length; i += 2)
+            records.add(Arrays.asList(Integer.toString(pairs[i]), "customer " + pairs[i],
+                    Integer.toString(pairs[i + 1])));
+        return RegularCustomersCache.TopCustomers.of(records);
+    }
+
+    private static String ids(RegularCustomersCache.TopCustomers list) {
+        return Arrays.toString(list.customerIDs);
+    }
+
+    private static String counts(RegularCustomersCache.TopCustomers list) {
+        return Arrays.toString(list.bookings);
+    }
+
+    // bookings descending, then customerID, as the rollup index returns them
+    private static void sort(int[][] entries) {
+        Arrays.sort(entries, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[1] != b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]);
+            }
+        });
+    }
+
+    private static int[] flatten(int[][] entries) {
+        int[] pairs = new int[entries.length * 2];
+        for (int i = 0; i < entries.length; i++) {
+            pairs[2 * i] = entries[i][0];
+            pairs[2 * i + 1] = entries[i][1];
+        }
+        return pairs;
+    }
+
+    private static int[] flatten(RegularCustomersCache.TopCustomers list) {
+        int[] pairs = new int[list.customerIDs.length * 2];
+        for (int i = 0; i < list.customerIDs.length; i++) {
+            pairs[2 * i] = list.customerIDs[i];
+            pairs[2 * i + 1] = list.bookings[i];
+        }
+        return pairs;
+    }
+}//end RegularCustomersCacheTest
@@ -0,0 +1,205 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Checks that a read failing on a replica falls back to the primary. The
+ * replica pools connect through a stand-in driver whose connections do
+ * nothing, and the reads fail the way the pg73 driver does, with no
+ * SQLState.
+ */
+public class ReplicaRouterTest {
+    private static final String URL = "jdbc:replicatest://replica/db";
+
+    // whether the stand-in driver refuses new connections
+    private static volatile boolean refuse = false;
+
+    public static void main(String[] args) throws SQLException {
+        DriverManager.registerDriver(new StandInDriver());
+        readOnReplica();
+        failureAfterBorrow();
+        failureAfterRowsHanded();
+        failedBorrow();
+        noReplica();
+        System.out.println("ReplicaRouterTest passed");
+    }
+
+    static void readOnReplica() throws SQLException {
+        ReplicaRouter router = router();
+        ConnectionPool pool = router.getReplicas()[0].getPool();
+        Check.equal("replica", router.read(ReplicaRouter.NO_KEY, new StubRead(false, false)), "the read's result");
+        Check.equal(1, router.getReplicas()[0].getReads(), "reads on the replica");
+        Check.equal(0, router.getPrimaryReads(), "reads on the primary");
+        Check.equal(1, pool.getStats().idle, "the connection is handed back");
+        router.close();
+    }
+
+    static void failureAfterBorrow() throws SQLException {
+        ReplicaRouter router = router();
+        ReplicaRouter.Replica replica = router.getReplicas()[0];
+        StubRead read = new StubRead(true, false);
+        Check.equal("primary", router.read(ReplicaRouter.NO_KEY, read), "the read runs again on the primary");
+        Check.equal(1, read.replicaRuns, "runs on the replica");
+        Check.equal(1, replica.getFailures(), "failures of the replica");
+        Check.isTrue(replica.isDown(), "the replica is skipped");
+        ConnectionPool.Stats stats = replica.getPool().getStats();
+        Check.equal(0, stats.idle, "the failed connection is not handed back");
+        Check.equal(0, stats.active, "the failed connection is not kept");
+        Check.equal(1, stats.destroyed, "the failed connection is closed");
+
+        // while it is down, reads go straight to the primary
+        StubRead next = new StubRead(false, false);
+        Check.equal("primary", router.read(ReplicaRouter.NO_KEY, next), "a read while the replica is down");
+        Check.equal(0, next.replicaRuns, "runs on a replica that is down");
+        Check.equal(2, router.getPrimaryReads(), "reads on the primary");
+        router.close();
+    }
+
+    static void failureAfterRowsHanded() {
+        ReplicaRouter router = router();
+        ReplicaRouter.Replica replica = router.getReplicas()[0];
+        StubRead read = new StubRead(true, true);
+        try {
+            router.read(ReplicaRouter.NO_KEY, read);
+            throw new AssertionError("a read that handed out rows was run again");
+        } catch (SQLException e) {
+            Check.equal("connection reset", e.getMessage(), "the replica's error");
+        }
+        Check.equal(0, read.primaryRuns, "runs on the primary");
+        Check.isTrue(!replica.isDown(), "the replica is not skipped");
+        Check.equal(1, replica.getPool().getStats().destroyed, "the failed connection is closed");
+        Check.equal(0, replica.getPool().getStats().idle, "the failed connection is not handed back");
+        router.close();
+    }
+
+    static void failedBorrow() throws SQLException {
+        ReplicaRouter router = router();
+        refuse = true;
+        try {
+            StubRead read = new StubRead(false, false);
+            Check.equal("primary", router.read(ReplicaRouter.NO_KEY, read), "a replica that cannot connect");
+            Check.equal(0, read.replicaRuns, "runs without a connection");
+            Check.isTrue(router.getReplicas()[0].isDown(), "the replica is skipped");
+        } finally {
+            refuse = false;
+        }
+        router.close();
+    }
+
+    static void noReplica() throws SQLException {
+        ReplicaRouter router = new ReplicaRouter(Collections.<String>emptyList(),
+                Collections.<ConnectionPool>emptyList(), ReplicaRouter.Policy.ROUND_ROBIN, 5000, 60000, 16);
+        Check.equal("primary", router.read(ReplicaRouter.user(1), new StubRead(false, false)), "no replica");
+        Check.equal(1, router.getPrimaryReads(), "reads on the primary");
+    }
+
+    private static ReplicaRouter router() {
+        try {
+            ConnectionPool pool = new ConnectionPool(URL, "user", "", 2, 0, 100, 600000, 600000, 4);
+            return new ReplicaRouter(Arrays.asList("replica"), Arrays.asList(pool),
+                    ReplicaRouter.Policy.ROUND_ROBIN, 5000, 60000, 16);
+        } catch (SQLException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * A read that can fail on the replica like a lost connection, before or
+     * after handing rows out.
+     */
+    private static class StubRead implements ReplicaRouter.Read<String> {
+        private final boolean fail;
+        private final boolean handsRows;
+        private boolean started = false;
+        int replicaRuns = 0;
+        int primaryRuns = 0;
+
+        StubRead(boolean fail, boolean handsRows) {
+            this.fail = fail;
+            this.handsRows = handsRows;
+        }
+
+        public String onReplica(PooledConnection conn) throws SQLException {
+            this.replicaRuns++;
+            this.started = this.handsRows;
+            if (this.fail)
+                // like a PSQLException: a message and no SQLState
+                throw new SQLException("connection reset");
+            return "replica";
+        }
+
+        public String onPrimary() {
+            this.primaryRuns++;
+            return "primary";
+        }
+
+        public boolean isStarted() {
+            return this.started;
+        }
+    }//end StubRead
+
+    /**
+     * A driver for URL whose connections are in auto-commit mode and do
+     * nothing else.
+     */
+    private static class StandInDriver implements Driver {
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url))
+                return null;
+            if (refuse)
+                throw new SQLException("Connection refused");
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new InvocationHandler() {
+                        private boolean closed = false;
+
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            String name = method.getName();
+                            if (name.equals("getAutoCommit"))
+                                return true;
+                            if (name.equals("close"))
+                                this.closed = true;
+                            if (name.equals("isClosed"))
+                                return this.closed;
+                            if (name.equals("hashCode"))
+                                return System.identityHashCode(proxy);
+                            if (name.equals("equals"))
+                                return proxy == args[0];
+                            return null;
+                        }
+                    });
+        }
+
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:replicatest:");
+        }
+
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        public Logger getParentLogger() {
+            return Logger.getLogger("ReplicaRouterTest");
+        }
+    }//end StandInDriver
+}//end ReplicaRouterTest
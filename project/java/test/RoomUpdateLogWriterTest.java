@@ -0,0 +1,111 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks how RoomUpdateLogWriter retries a failed batch: whole while it
+ * has retries left, then a record at a time, dropping the records that
+ * still fail.
+ */
+public class RoomUpdateLogWriterTest {
+    public static void main(String[] args) throws SQLException {
+        batches();
+        retriedWhole();
+        badRecordDropped();
+        outageOutlastsRetries();
+        System.out.println("RoomUpdateLogWriterTest passed");
+    }
+
+    static void batches() throws SQLException {
+        StubWriter writer = new StubWriter(3, 2);
+        for (int i = 1; i <= 7; i++)
+            writer.append(i, 1, 1, 100 + i);
+        Check.equal(7, writer.flush(), "records written");
+        Check.equal("[1,2,3, 4,5,6, 7]", writer.inserted.toString(), "batches of batchSize");
+        Check.equal(0, writer.getDepth(), "depth after a flush");
+        Check.equal(3, writer.getBatches(), "batches");
+    }
+
+    static void retriedWhole() throws SQLException {
+        StubWriter writer = new StubWriter(10, 2);
+        writer.append(1, 1, 1, 101);
+        writer.append(2, 1, 1, 102);
+        writer.down = true;
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            try {
+                writer.flush();
+                throw new AssertionError("a failed batch was taken as written");
+            } catch (SQLException e) {
+                // expected.
+            }
+            Check.equal(2, writer.getDepth(), "the batch stays queued after failure " + attempt);
+        }
+        writer.down = false;
+        Check.equal(2, writer.flush(), "records written once the database is back");
+        Check.equal("[1,2]", writer.inserted.toString(), "the batch is written whole");
+        Check.equal(2, writer.getFailures(), "failures");
+        Check.equal(0, writer.getDropped(), "nothing is dropped");
+    }
+
+    static void badRecordDropped() throws SQLException {
+        StubWriter writer = new StubWriter(10, 2);
+        writer.bad.add("2");
+        for (int i = 1; i <= 4; i++)
+            writer.append(i, 1, 1, 100 + i);
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            try {
+                writer.flush();
+                throw new AssertionError("a batch with a bad record was taken as written");
+            } catch (SQLException e) {
+                // expected.
+            }
+        }
+        Check.equal(4, writer.getDepth(), "records queued while the batch has retries left");
+        Check.equal(3, writer.flush(), "the records written after the retries");
+        Check.equal("[1, 3, 4]", writer.inserted.toString(), "the good records one at a time");
+        Check.equal(1, writer.getDropped(), "the bad record is dropped");
+        Check.equal(0, writer.getDepth(), "depth after the bad record is dropped");
+        Check.equal(0, writer.flush(), "a later flush does not send the batch again");
+    }
+
+    static void outageOutlastsRetries() throws SQLException {
+        StubWriter writer = new StubWriter(10, 0);
+        writer.append(1, 1, 1, 101);
+        writer.append(2, 1, 1, 102);
+        writer.down = true;
+        Check.equal(0, writer.flush(), "records written while down");
+        Check.equal(2, writer.getDropped(), "records dropped while down");
+        Check.equal(0, writer.getDepth(), "depth after the batch is dropped");
+        writer.down = false;
+        writer.append(3, 1, 1, 103);
+        Check.equal(1, writer.flush(), "records written once the database is back");
+        Check.equal("[3]", writer.inserted.toString(), "only the new record is written");
+    }
+
+    /**
+     * A writer whose inserts are kept in a list, failing while down or for
+     * a batch holding a bad updateNumber.
+     */
+    private static class StubWriter extends RoomUpdateLogWriter {
+        final List<String> inserted = new ArrayList<String>();
+        final Set<String> bad = new HashSet<String>();
+        boolean down = false;
+
+        StubWriter(int batchSize, int retries) {
+            super(null, new RecentUpdatesBuffer(null, 5, 10, 60000L), 100, batchSize, 60000L, retries);
+        }
+
+        int insert(String numbers, String managers, String hotels, String rooms, String times)
+                throws SQLException {
+            if (this.down)
+                throw new SQLException("Connection refused");
+            for (String number : numbers.split(","))
+                if (this.bad.contains(number))
+                    throw new SQLException("ERROR: duplicate key violates unique constraint");
+            this.inserted.add(numbers);
+            return numbers.split(",").length;
+        }
+    }//end StubWriter
+}//end RoomUpdateLogWriterTest
@@ -1,6 +1,8 @@
 #!/bin/bash
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_tables.sql
+psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_partitions.sql
+psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_sequences.sql
+psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_rollups.sql
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_indexes.sql
-psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/load_data.sql
-
+bash $DIR/../../java/scripts/loadData.sh $DIR/../../data
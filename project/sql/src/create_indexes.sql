@@ -1,8 +1,30 @@
--- I did not add index to other tables as some of their values updates frequently,
--- and some of their attributes are not used frequently in the queries
+-- Every SQL template of the program is answered from an index, so no query grows with the size of
+-- RoomBookings, RoomRepairs or RoomUpdatesLog. java/scripts/checkPlans.sh runs EXPLAIN on all of them
+-- against a loaded data set and flags sequential scans, large sorts and nested loops over large tables.
+-- Primary keys and unique constraints are indexes already and are not repeated here:
+--   Users(userID), Hotel(hotelID), Rooms(hotelID, roomNumber), MaintenanceCompany(companyID),
+--   RoomBookings(bookingID, bookingDate), the partitioned primary key, and
+--   RoomBookings(hotelID, roomNumber, bookingDate) for availability and booking.
 
---Create a index on Hotel table as its hotelID and managerUserID are used frequently in the queries
-CREATE INDEX index_Hotel ON Hotel (hotelID, managerUserID);
+--The former indexes only duplicated the primary keys of Hotel and Rooms
+DROP INDEX IF EXISTS index_Hotel;
+DROP INDEX IF EXISTS index_Rooms;
 
---Create a index on Rooms table as its hotelID and roomNumber are used frequently in the queries
-CREATE INDEX index_Rooms ON Rooms (hotelID, roomNumber);
\ No newline at end of file
+--Hotels of a manager, for the repair history and the warm-up of the recent updates
+CREATE INDEX index_Hotel_manager ON Hotel (managerUserID);
+
+--Latest bookings of a customer, read from the end of the customer's range
+CREATE INDEX index_RoomBookings_customer ON RoomBookings (customerID, bookingDate);
+
+--Booking history between two dates, already in the (bookingDate, bookingID) order its pages are keyed on
+CREATE INDEX index_RoomBookings_date ON RoomBookings (bookingDate, bookingID);
+
+--Repairs of the hotels of a manager
+CREATE INDEX index_RoomRepairs_hotel ON RoomRepairs (hotelID, repairDate);
+
+--Request of a repair, for the join of the repair history
+CREATE INDEX index_RoomRepairRequests_repair ON RoomRepairRequests (repairID);
+
+--Latest updates of a manager, the top of the manager's range in the order of the recent updates query
+DROP INDEX IF EXISTS index_RoomUpdatesLog_manager;
+CREATE INDEX index_RoomUpdatesLog_manager ON RoomUpdatesLog (managerID, updatedOn DESC, updateNumber DESC);
@@ -0,0 +1,72 @@
+--RoomBookings is partitioned by bookingDate, one partition per year named RoomBookings_yYYYY. Queries on a
+--date or a date range (viewRooms, bookRooms, the booking history) only touch the partitions of those years,
+--every index is split the same way, and a past year is archived or dropped by detaching its partition.
+--Bookings of a year without a partition go to RoomBookings_default until that year's partition is created.
+
+CREATE TABLE IF NOT EXISTS RoomBookings_default PARTITION OF RoomBookings DEFAULT;
+
+--Creates the missing partitions of the years from first_day to last_day and moves the bookings of those
+--years out of the default partition. The CSV loader calls it for the dates of the file it loads, and the
+--program for the coming years at startup. Returns the number of partitions created.
+CREATE OR REPLACE FUNCTION ensure_booking_partitions(first_day date, last_day date) RETURNS integer AS
+$BODY$
+DECLARE
+   y integer;
+   part text;
+   created integer := 0;
+BEGIN
+   --processes starting at the same time would otherwise create the same partition
+   PERFORM pg_advisory_xact_lock(hashtext('ensure_booking_partitions'));
+   FOR y IN EXTRACT(YEAR FROM first_day)::integer .. EXTRACT(YEAR FROM last_day)::integer LOOP
+      part := 'roombookings_y' || y;
+      CONTINUE WHEN to_regclass(part) IS NOT NULL;
+      EXECUTE format('CREATE TABLE %I (LIKE RoomBookings INCLUDING DEFAULTS)', part);
+      EXECUTE format('WITH moved AS (DELETE FROM RoomBookings_default '
+                     'WHERE bookingDate >= %L AND bookingDate < %L RETURNING *) '
+                     'INSERT INTO %I SELECT * FROM moved',
+                     make_date(y, 1, 1), make_date(y + 1, 1, 1), part);
+      EXECUTE format('ALTER TABLE RoomBookings ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                     part, make_date(y, 1, 1), make_date(y + 1, 1, 1));
+      created := created + 1;
+   END LOOP;
+   RETURN created;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+--Detaches the partitions of every year that ended before the given date. A detached partition is kept as
+--the standalone table RoomBookings_archive_yYYYY, or dropped. Either way it takes no longer than the lock,
+--except that its bookings are taken off CustomerHotelBookings (create_rollups.sql), which counts what is in
+--RoomBookings. Returns the number of partitions archived.
+CREATE OR REPLACE FUNCTION archive_booking_partitions(before date, drop_archived boolean DEFAULT false) RETURNS integer AS
+$BODY$
+DECLARE
+   part record;
+   archived integer := 0;
+BEGIN
+   FOR part IN SELECT C.relname, substring(C.relname FROM 15)::integer AS y
+               FROM pg_inherits I JOIN pg_class C ON C.oid = I.inhrelid
+               WHERE I.inhparent = 'roombookings'::regclass AND C.relname ~ '^roombookings_y[0-9]+$'
+               ORDER BY C.relname LOOP
+      CONTINUE WHEN make_date(part.y + 1, 1, 1) > before;
+      EXECUTE format('ALTER TABLE RoomBookings DETACH PARTITION %I', part.relname);
+      IF to_regclass('customerhotelbookings') IS NOT NULL THEN
+         EXECUTE format('UPDATE CustomerHotelBookings C SET bookings = C.bookings - D.bookings '
+                        'FROM (SELECT hotelID, customerID, COUNT(*) AS bookings FROM %I '
+                        'GROUP BY hotelID, customerID) D '
+                        'WHERE C.hotelID = D.hotelID AND C.customerID = D.customerID', part.relname);
+         DELETE FROM CustomerHotelBookings WHERE bookings <= 0;
+      END IF;
+      IF drop_archived THEN
+         EXECUTE format('DROP TABLE %I', part.relname);
+      ELSE
+         EXECUTE format('ALTER TABLE %I RENAME TO %I', part.relname, 'roombookings_archive_y' || part.y);
+      END IF;
+      archived := archived + 1;
+   END LOOP;
+   RETURN archived;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+SELECT ensure_booking_partitions(CURRENT_DATE, CAST(CURRENT_DATE + INTERVAL '2 years' AS date));
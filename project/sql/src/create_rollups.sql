@@ -0,0 +1,214 @@
+--The following table counts the bookings of every customer in every hotel. It is kept up to date by
+--the triggers below, so the regular customers of a hotel are read from the top of an index
+--instead of being counted from every booking the hotel ever had.
+DROP TABLE IF EXISTS CustomerHotelBookings CASCADE;
+
+CREATE TABLE CustomerHotelBookings (
+                            hotelID integer NOT NULL,
+                            customerID integer NOT NULL,
+                            bookings integer NOT NULL,
+                            PRIMARY KEY(hotelID, customerID)
+);
+
+--the top customers of a hotel are the first entries of this index
+CREATE INDEX index_CustomerHotelBookings_top ON CustomerHotelBookings (hotelID, bookings DESC, customerID);
+
+--One statement-level trigger per event: each statement's changed rows are counted per (hotel, customer)
+--and applied at once, so a bulk insert costs one upsert per customer rather than one per booking.
+--Rows are upserted in key order so that concurrent statements lock them in the same order.
+CREATE OR REPLACE FUNCTION rollup_customer_hotel_bookings() RETURNS TRIGGER AS
+$BODY$
+BEGIN
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+      INSERT INTO CustomerHotelBookings AS C (hotelID, customerID, bookings)
+      SELECT hotelID, customerID, COUNT(*) FROM new_bookings
+      GROUP BY hotelID, customerID
+      ORDER BY hotelID, customerID
+      ON CONFLICT (hotelID, customerID) DO UPDATE SET bookings = C.bookings + EXCLUDED.bookings;
+   END IF;
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+      UPDATE CustomerHotelBookings C SET bookings = C.bookings - D.bookings
+      FROM (SELECT hotelID, customerID, COUNT(*) AS bookings FROM old_bookings
+            GROUP BY hotelID, customerID) D
+      WHERE C.hotelID = D.hotelID AND C.customerID = D.customerID;
+      DELETE FROM CustomerHotelBookings C USING old_bookings D
+      WHERE C.hotelID = D.hotelID AND C.customerID = D.customerID AND C.bookings <= 0;
+   END IF;
+   RETURN NULL;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS rollup_bookings_insert_trigger ON RoomBookings;
+CREATE TRIGGER rollup_bookings_insert_trigger AFTER INSERT
+ON RoomBookings REFERENCING NEW TABLE AS new_bookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_customer_hotel_bookings();
+
+DROP TRIGGER IF EXISTS rollup_bookings_update_trigger ON RoomBookings;
+CREATE TRIGGER rollup_bookings_update_trigger AFTER UPDATE
+ON RoomBookings REFERENCING OLD TABLE AS old_bookings NEW TABLE AS new_bookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_customer_hotel_bookings();
+
+DROP TRIGGER IF EXISTS rollup_bookings_delete_trigger ON RoomBookings;
+CREATE TRIGGER rollup_bookings_delete_trigger AFTER DELETE
+ON RoomBookings REFERENCING OLD TABLE AS old_bookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_customer_hotel_bookings();
+
+CREATE OR REPLACE FUNCTION truncate_customer_hotel_bookings() RETURNS TRIGGER AS
+$BODY$
+BEGIN
+   TRUNCATE CustomerHotelBookings;
+   RETURN NULL;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS rollup_bookings_truncate_trigger ON RoomBookings;
+CREATE TRIGGER rollup_bookings_truncate_trigger AFTER TRUNCATE
+ON RoomBookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE truncate_customer_hotel_bookings();
+
+--Recounts everything from RoomBookings. The CSV loader disables the triggers of the tables it loads
+--and calls this once it is done.
+CREATE OR REPLACE FUNCTION rebuild_customer_hotel_bookings() RETURNS void AS
+$BODY$
+BEGIN
+   TRUNCATE CustomerHotelBookings;
+   INSERT INTO CustomerHotelBookings (hotelID, customerID, bookings)
+   SELECT hotelID, customerID, COUNT(*) FROM RoomBookings
+   GROUP BY hotelID, customerID;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+SELECT rebuild_customer_hotel_bookings();
+
+--The following table counts the bookings and the revenue of every hotel on every day, so occupancy and
+--revenue reports over long date ranges read one row per hotel and day instead of every booking.
+--Revenue is the price stored on each booking, so a booking removed or moved after its room's price changed
+--takes back what it added. Bookings without a price, loaded from CSV or made before the column existed,
+--count at the room's current price until the backfill below stores that price on them. Detaching or
+--dropping an archived partition of RoomBookings fires no trigger, so the days of archived years stay in
+--the rollup.
+ALTER TABLE RoomBookings ADD COLUMN IF NOT EXISTS price integer;
+
+DROP TABLE IF EXISTS HotelDailyBookings CASCADE;
+
+CREATE TABLE HotelDailyBookings (
+                            hotelID integer NOT NULL,
+                            day date NOT NULL,
+                            bookings integer NOT NULL,
+                            revenue bigint NOT NULL,
+                            PRIMARY KEY(hotelID, day)
+);
+
+--Same shape as rollup_customer_hotel_bookings: each statement's changed rows are summed per (hotel, day)
+--and applied at once, in key order.
+CREATE OR REPLACE FUNCTION rollup_hotel_daily_bookings() RETURNS TRIGGER AS
+$BODY$
+BEGIN
+   IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+      INSERT INTO HotelDailyBookings AS D (hotelID, day, bookings, revenue)
+      SELECT B.hotelID, B.bookingDate, COUNT(*), COALESCE(SUM(COALESCE(B.price, R.price)), 0)
+      FROM new_bookings B LEFT JOIN Rooms R ON R.hotelID = B.hotelID AND R.roomNumber = B.roomNumber
+      GROUP BY B.hotelID, B.bookingDate
+      ORDER BY B.hotelID, B.bookingDate
+      ON CONFLICT (hotelID, day) DO UPDATE
+      SET bookings = D.bookings + EXCLUDED.bookings, revenue = D.revenue + EXCLUDED.revenue;
+   END IF;
+   IF TG_OP = 'DELETE' OR TG_OP = 'UPDATE' THEN
+      UPDATE HotelDailyBookings D SET bookings = D.bookings - O.bookings, revenue = D.revenue - O.revenue
+      FROM (SELECT B.hotelID, B.bookingDate, COUNT(*) AS bookings,
+                   COALESCE(SUM(COALESCE(B.price, R.price)), 0) AS revenue
+            FROM old_bookings B LEFT JOIN Rooms R ON R.hotelID = B.hotelID AND R.roomNumber = B.roomNumber
+            GROUP BY B.hotelID, B.bookingDate) O
+      WHERE D.hotelID = O.hotelID AND D.day = O.bookingDate;
+      DELETE FROM HotelDailyBookings D USING old_bookings O
+      WHERE D.hotelID = O.hotelID AND D.day = O.bookingDate AND D.bookings <= 0;
+   END IF;
+   RETURN NULL;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS rollup_daily_insert_trigger ON RoomBookings;
+CREATE TRIGGER rollup_daily_insert_trigger AFTER INSERT
+ON RoomBookings REFERENCING NEW TABLE AS new_bookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_hotel_daily_bookings();
+
+DROP TRIGGER IF EXISTS rollup_daily_update_trigger ON RoomBookings;
+CREATE TRIGGER rollup_daily_update_trigger AFTER UPDATE
+ON RoomBookings REFERENCING OLD TABLE AS old_bookings NEW TABLE AS new_bookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_hotel_daily_bookings();
+
+DROP TRIGGER IF EXISTS rollup_daily_delete_trigger ON RoomBookings;
+CREATE TRIGGER rollup_daily_delete_trigger AFTER DELETE
+ON RoomBookings REFERENCING OLD TABLE AS old_bookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE rollup_hotel_daily_bookings();
+
+CREATE OR REPLACE FUNCTION truncate_hotel_daily_bookings() RETURNS TRIGGER AS
+$BODY$
+BEGIN
+   TRUNCATE HotelDailyBookings;
+   RETURN NULL;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS rollup_daily_truncate_trigger ON RoomBookings;
+CREATE TRIGGER rollup_daily_truncate_trigger AFTER TRUNCATE
+ON RoomBookings
+FOR EACH STATEMENT
+EXECUTE PROCEDURE truncate_hotel_daily_bookings();
+
+--Recounts the days from first to last from RoomBookings, in one transaction when called on its own. The
+--lock waits for the bookings being rolled up to commit, which the recount then sees, and holds back new
+--ones, whose triggers then add to the recounted days. The bookings of those days without a price get
+--their room's current price first, so the revenue they add is the revenue they take back later; the
+--update triggers add and take back the same amounts, and the recount replaces their days anyway.
+--RollupBackfill calls this a few weeks at a time, so that bookings are only held back for a moment while
+--the history is filled in, and running it again repairs revenue that drifted before prices were stored.
+CREATE OR REPLACE FUNCTION backfill_hotel_daily_bookings(first date, last date) RETURNS integer AS
+$BODY$
+DECLARE
+   days integer;
+BEGIN
+   LOCK TABLE HotelDailyBookings IN SHARE ROW EXCLUSIVE MODE;
+   UPDATE RoomBookings B SET price = R.price
+   FROM Rooms R
+   WHERE R.hotelID = B.hotelID AND R.roomNumber = B.roomNumber
+     AND B.bookingDate BETWEEN first AND last AND B.price IS NULL;
+   DELETE FROM HotelDailyBookings WHERE day BETWEEN first AND last;
+   INSERT INTO HotelDailyBookings (hotelID, day, bookings, revenue)
+   SELECT B.hotelID, B.bookingDate, COUNT(*), COALESCE(SUM(COALESCE(B.price, R.price)), 0)
+   FROM RoomBookings B LEFT JOIN Rooms R ON R.hotelID = B.hotelID AND R.roomNumber = B.roomNumber
+   WHERE B.bookingDate BETWEEN first AND last
+   GROUP BY B.hotelID, B.bookingDate;
+   GET DIAGNOSTICS days = ROW_COUNT;
+   RETURN days;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+--Recounts every day of RoomBookings at once, for the CSV loader, which disables the triggers while loading.
+--The days of archived years are kept. An existing history is filled in with RollupBackfill instead.
+CREATE OR REPLACE FUNCTION rebuild_hotel_daily_bookings() RETURNS void AS
+$BODY$
+DECLARE
+   first date;
+   last date;
+BEGIN
+   SELECT MIN(bookingDate), MAX(bookingDate) INTO first, last FROM RoomBookings;
+   IF first IS NOT NULL THEN
+      PERFORM backfill_hotel_daily_bookings(first, last);
+   END IF;
+END;
+$BODY$
+LANGUAGE plpgsql VOLATILE;
@@ -0,0 +1,35 @@
+--The IDs are handed out by the program a block at a time (IdAllocator): each nextval on these
+--sequences reserves as many IDs as the increment, so one round trip numbers a block of inserts.
+--Rows inserted without an ID still take the default nextval, which is then a whole block for one
+--row; the IDs stay unique, with gaps. The increment is the block size, read by the program.
+
+--the per-row triggers of the former trigger.sql would overwrite the allocated IDs
+DROP TRIGGER IF EXISTS increment_userID_trigger ON Users;
+DROP TRIGGER IF EXISTS increment_bookingID_trigger ON RoomBookings;
+DROP TRIGGER IF EXISTS increment_updateNumber_trigger ON RoomUpdatesLog;
+DROP TRIGGER IF EXISTS increment_repairID_trigger ON RoomRepairs;
+DROP TRIGGER IF EXISTS increment_requestNumber_trigger ON RoomRepairRequests;
+DROP FUNCTION IF EXISTS increment_userID();
+DROP FUNCTION IF EXISTS increment_bookingID();
+DROP FUNCTION IF EXISTS increment_updateNumber();
+DROP FUNCTION IF EXISTS increment_repairID();
+DROP FUNCTION IF EXISTS increment_requestNumber();
+DROP SEQUENCE IF EXISTS userID_seq;
+DROP SEQUENCE IF EXISTS bookingID_seq;
+DROP SEQUENCE IF EXISTS updateNumber_seq;
+DROP SEQUENCE IF EXISTS repairID_seq;
+DROP SEQUENCE IF EXISTS requestNumber_seq;
+
+DO $$
+DECLARE
+   c record;
+BEGIN
+   FOR c IN SELECT * FROM (VALUES ('users', 'userid'),
+                                  ('roombookings', 'bookingid'),
+                                  ('roomupdateslog', 'updatenumber'),
+                                  ('roomrepairs', 'repairid'),
+                                  ('roomrepairrequests', 'requestnumber')) AS S(tab, col) LOOP
+      EXECUTE format('ALTER SEQUENCE %s INCREMENT BY 100', pg_get_serial_sequence(c.tab, c.col));
+   END LOOP;
+END
+$$;
@@ -48,10 +48,15 @@ CREATE TABLE RoomBookings (
                     hotelID integer NOT NULL,
                     roomNumber integer NOT NULL, 
                     bookingDate date NOT NULL, 
-                    PRIMARY KEY(bookingID),
+                    --the price of the room when it was booked, NULL for bookings loaded without one
+                    price integer,
+                    --the keys of a partitioned table must include the partition key
+                    PRIMARY KEY(bookingID, bookingDate),
+                    --a room can only be booked once per date, this also makes booking race-free
+                    CONSTRAINT RoomBookings_room_date_key UNIQUE(hotelID, roomNumber, bookingDate),
                     FOREIGN KEY(customerID) REFERENCES Users(userID),
                     FOREIGN KEY(hotelID, roomNumber) REFERENCES Rooms(hotelID, roomNumber)
-);
+) PARTITION BY RANGE (bookingDate); --one partition per year, see create_partitions.sql
 
 CREATE TABLE RoomRepairs (  
                             repairID serial,